@@ -167,6 +167,27 @@ public class EntityIO{
         }
     }
 
+    void writeSyncField(MethodSpec.Builder method, boolean write) throws Exception{
+        this.method = method;
+        this.write = write;
+
+        //same fields in the same order as writeSync, so writing every field one by one gives the same bytes
+        Seq<RevisionField> fields = revisions.peek().fields;
+        cont("switch(field)");
+        for(int i = 0; i < fields.size; i++){
+            RevisionField field = fields.get(i);
+            cont("case $L:", i);
+            io(field.type, "this." + field.name + (write ? "" : " = "));
+            st("break");
+            econt();
+        }
+        econt();
+    }
+
+    int syncFields(){
+        return revisions.peek().fields.size;
+    }
+
     void writeSyncManual(MethodSpec.Builder method, boolean write, Seq<Svar> syncFields) throws Exception{
         this.method = method;
         this.write = write;
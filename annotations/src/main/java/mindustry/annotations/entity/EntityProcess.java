@@ -461,6 +461,11 @@ public class EntityProcess extends BaseProcessor{
                             io.writeSync(mbuilder, first.name().equals("writeSync"), syncedFields, allFields);
                         }
 
+                        //SPECIAL CASE: sync I/O code for single fields, which delta snapshots are made of
+                        if((first.name().equals("readSyncField") || first.name().equals("writeSyncField"))){
+                            io.writeSyncField(mbuilder, first.name().equals("writeSyncField"));
+                        }
+
                         //SPECIAL CASE: sync I/O code for writing to/from a manual buffer
                         if((first.name().equals("readSyncManual") || first.name().equals("writeSyncManual"))){
                             io.writeSyncManual(mbuilder, first.name().equals("writeSyncManual"), syncedFields);
@@ -537,6 +542,12 @@ public class EntityProcess extends BaseProcessor{
                     }
                 }
 
+                //add number of sync fields, which is 0 if there's no sync I/O code
+                if(isSync && !legacy){
+                    builder.addMethod(MethodSpec.methodBuilder("syncFields").addAnnotation(Override.class)
+                        .returns(int.class).addModifiers(Modifier.PUBLIC).addStatement("return " + (hasIO ? io.syncFields() : 0)).build());
+                }
+
                 //add pool reset method and implement Poolable
                 if(ann.pooled()){
                     builder.addSuperinterface(Poolable.class);
@@ -225,6 +225,14 @@ object Client {
             val build = MessageBlockCommunicationSystem.findProcessor() ?: MessageBlockCommunicationSystem.findMessage()
             if (build == null) player.sendMessage("[scarlet]No valid processor or message block found; communication system inactive.")
             else player.sendMessage("[accent]${build.block.localizedName} at (${build.tileX()}, ${build.tileY()}) in use for communication.")
+            val client = Main.communicationClient
+            player.sendMessage("[accent]${client.queuedTransmissions} transmissions (${client.queuedPackets} packets) queued, " +
+                    "${client.packetsSent} packets sent in ${client.writes} writes, ${client.latency.rawMean().toInt()}ms average latency.")
+        }
+
+        register("pathing", Core.bundle.get("client.command.pathing.description")) { _, player ->
+            val navigator = Navigation.navigator
+            player.sendMessage("[accent]${navigator.javaClass.simpleName}: ${navigator.stats()}")
         }
 
         register("e <destination> <message...>", Core.bundle.get("client.command.e.description")) { args, _ ->
@@ -279,6 +287,23 @@ object Client {
                 player.sendMessage("[accent]The distance multiplier is now ${Core.settings.getFloat("assistdistance")} (default is 1.5)")
             }
         }
+
+        register("rollback <seconds> [radius]", "Queues the plans needed to roll the area around you back to how it was the given number of seconds ago") { args, player -> // FINISHME: Bundle
+            val seconds = Strings.parseInt(args[0], -1)
+            val radius = if (args.size == 2) Strings.parseInt(args[1], -1) else 20
+            if (seconds < 0 || radius < 0) {
+                player.sendMessage("[scarlet]'seconds' and 'radius' must be positive numbers.")
+                return@register
+            }
+            val x = player.tileX()
+            val y = player.tileY()
+            RollbackPlanner.plan(x - radius, y - radius, x + radius, y + radius, System.currentTimeMillis() - seconds * 1000L) { plan ->
+                for (build in plan.breaks) player.unit().addBuild(build)
+                for (build in plan.builds) player.unit().addBuild(build)
+                for (config in plan.configs) configs.add(config)
+                player.sendMessage("[accent]Queued ${plan.breaks.size} breaks, ${plan.builds.size} builds and ${plan.configs.size} configs.")
+            }
+        }
     }
 
     /** Registers a command.
@@ -1,6 +1,7 @@
 package mindustry.client
 
 import arc.*
+import arc.math.*
 import arc.util.*
 import mindustry.*
 import mindustry.client.antigrief.*
@@ -8,6 +9,7 @@ import mindustry.client.navigation.*
 import mindustry.client.ui.*
 import mindustry.client.utils.*
 import mindustry.game.*
+import mindustry.world.blocks.defense.turrets.*
 
 /** WIP client logic class, similar to [mindustry.core.Logic] but for the client.
  * Handles various events and such.
@@ -34,6 +36,14 @@ class ClientLogic {
             if (Vars.state.rules.pvp) Vars.ui.announce("[scarlet]Don't use a client in pvp, it's uncool!", 5f)
         }
 
+        Events.on(EventType.TileChangeEvent::class.java) { // Drop turret obstacles whose turret was replaced, the obstacle field picks this up on the next path
+            val x = it.tile.worldx()
+            val y = it.tile.worldy()
+            synchronized(Navigation.obstacles) {
+                Navigation.obstacles.removeIf { ob -> ob.turret && Mathf.dst(ob.x, ob.y, x, y) < it.tile.block().size * Vars.tilesize && Vars.world.buildWorld(ob.x, ob.y) !is BaseTurret.BaseTurretBuild }
+            }
+        }
+
         Events.on(EventType.ClientLoadEvent::class.java) { // Run when the client finishes loading
             val changeHash = Core.files.internal("changelog").readString().hashCode() // Display changelog if the file contents have changed & on first run. (this is really scuffed lol)
             if (Core.settings.getInt("changeHash") != changeHash) ChangelogDialog.show()
@@ -39,7 +39,7 @@ object Main : ApplicationListener {
         messageCrypto.init(communicationClient)
         KeyFolder.initializeAlways()
 
-        Navigation.navigator = AStarNavigator
+        Navigation.selectNavigator()
 
         Events.on(EventType.WorldLoadEvent::class.java) {
             dispatchedBuildPlans.clear()
@@ -123,7 +123,8 @@ object Main : ApplicationListener {
     private fun sendBuildPlans(num: Int = 500) {
         val toSend = Vars.player.unit().plans.toList().takeLast(num).toTypedArray()
         if (toSend.isEmpty()) return
-        communicationClient.send(BuildQueueTransmission(toSend), { Toast(3f).add(Core.bundle.format("client.sentplans", toSend.size)) }, { Toast(3f).add("@client.nomessageblock")})
+        // Build queues take many relay writes and losing any of them loses the whole queue, so receivers ask for what they missed
+        communicationClient.send(BuildQueueTransmission(toSend), { Toast(3f).add(Core.bundle.format("client.sentplans", toSend.size)) }, { Toast(3f).add("@client.nomessageblock")}, reliable = true)
         dispatchedBuildPlans.addAll(toSend)
     }
 
@@ -37,6 +37,9 @@ class NoInteractor : Interactor {
     override val shortName = ""
 }
 
+/** An interactor read back from a [TileLogJournal]. */
+class RestoredInteractor(override val name: String, override val shortName: String) : Interactor
+
 fun Player?.toInteractor(): Interactor {
     this ?: return NullUnitInteractor()
     return UnitInteractor(unit())
@@ -0,0 +1,180 @@
+package mindustry.client.antigrief
+
+import arc.*
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.async.*
+import mindustry.*
+import mindustry.entities.units.*
+import mindustry.world.*
+import java.util.*
+import java.util.concurrent.*
+import kotlin.math.*
+
+/** Plans rolling back an area of the map to the state logged in [TileRecords] at some point in time. */
+object RollbackPlanner {
+    private val threads = Runtime.getRuntime().availableProcessors()
+    private val executor = AsyncExecutor(threads)
+    private const val MIN_CHUNK = 256
+    const val NONE = -1
+
+    /** Breaks come first so that builds can take their place, configs last so that they apply to the rebuilt blocks. */
+    class Plan(val breaks: List<BuildPlan>, val builds: List<BuildPlan>, val configs: List<ConfigRequest>) {
+        val size get() = breaks.size + builds.size + configs.size
+    }
+
+    /**
+     * Everything planning a tile needs, copied on the main thread so that the plan can be computed off of it while
+     * the world changes and logs are added: the keyframe and the rows to replay on top of it, and the live tile.
+     */
+    class Capture(
+        val pos: Int,
+        val snapshot: TileState,
+        val kinds: ByteArray,
+        val blocks: ShortArray,
+        val configurations: Array<Any?>,
+        /** The center of the block from the log that placed it or the one that removed it, or [NONE]. */
+        val origin: Int,
+        /** The rotation the block had, from the log that changed it next, or [NONE]. */
+        val rotation: Int,
+        val live: Block,
+        val liveOrigin: Int,
+        val liveConfig: Any?,
+        /** Whether there is a building on the tile that can be broken. */
+        val breakable: Boolean
+    )
+
+    /** Plans for a single chunk of records, keyed by the packed position of the block they target. */
+    private class ChunkPlan {
+        val breaks = IntMap<BuildPlan>()
+        val builds = IntMap<BuildPlan>()
+        val configs = IntMap<ConfigRequest>()
+
+        fun merge(other: ChunkPlan) {
+            for (entry in other.breaks) if (!breaks.containsKey(entry.key)) breaks.put(entry.key, entry.value)
+            for (entry in other.builds) if (!builds.containsKey(entry.key)) builds.put(entry.key, entry.value)
+            for (entry in other.configs) if (!configs.containsKey(entry.key)) configs.put(entry.key, entry.value)
+        }
+
+        fun toPlan() = Plan(breaks.values().toList(), builds.values().toList(), configs.values().toList())
+    }
+
+    /**
+     * Plans rolling back the tiles between ([x1], [y1]) and ([x2], [y2]) inclusive to how they were at [time] (epoch
+     * millis).  Must be called from the main thread, the records and the live tiles are captured there and the plan
+     * is then computed in parallel chunks off of it.  [done] is called on the main thread.
+     */
+    fun plan(x1: Int, y1: Int, x2: Int, y2: Int, time: Long, done: (Plan) -> Unit) {
+        val captures = ArrayList<Capture>()
+        for (x in min(x1, x2)..max(x1, x2)) {
+            for (y in min(y1, y2)..max(y1, y2)) {
+                val record = TileRecords.existing(x, y) ?: continue
+                captures.add(capture(record, Vars.world.tile(x, y) ?: continue, time) ?: continue)
+            }
+        }
+
+        Vars.clientThread.taskQueue.post {
+            val output = plan(captures)
+            Core.app.post { done(output) }
+        }
+    }
+
+    /** Copies what planning [tile] needs from its [record], or returns null if nothing happened on it since [time]. */
+    fun capture(record: TileRecord, tile: Tile, time: Long): Capture? {
+        val count = record.size
+        val index = record.indexAt(time, count)
+        if (index == count - 1) return null  // Nothing happened here since then
+        if (index == -1 && record.truncated) return null  // What was here then was evicted from the journal
+
+        val sequence = record.sequenceAt(index)
+        val rows = if (index == -1) 0 else index - sequence.startingIndex + 1
+        val kinds = ByteArray(rows)
+        val blocks = ShortArray(rows)
+        val configurations = arrayOfNulls<Any?>(rows)
+        for (i in 0 until rows) {
+            val row = record.row(sequence.startingIndex + i)
+            kinds[i] = record.store.kind(row)
+            blocks[i] = record.store.blockId(row)
+            configurations[i] = record.store.configuration(row)
+        }
+
+        val next = next(record, index, count)
+        val build = tile.build
+        return Capture(
+            tile.pos(), sequence.snapshot.clone(), kinds, blocks, configurations,
+            origin(record, index, next), next?.let { record.store.rotation(record.row(it)) } ?: NONE,
+            tile.block(), build?.tile?.pos() ?: tile.pos(), build?.config(), build != null && tile.breakable()
+        )
+    }
+
+    /** Computes the plan for [captures] in parallel chunks, waiting for them on the calling thread. */
+    fun plan(captures: List<Capture>): Plan {
+        val chunk = max(MIN_CHUNK, (captures.size + threads - 1) / threads)
+        val results = (captures.indices step chunk).map { start ->
+            executor.submit(Callable { planChunk(captures, start, min(start + chunk, captures.size)) })
+        }
+
+        val plan = ChunkPlan()
+        for (result in results) plan.merge(result.get())
+        return plan.toPlan()
+    }
+
+    private fun planChunk(captures: List<Capture>, start: Int, end: Int): ChunkPlan {
+        val plan = ChunkPlan()
+        for (i in start until end) {
+            val capture = captures[i]
+            val target = capture.snapshot
+            for (row in capture.kinds.indices) {
+                TileLogStore.apply(capture.kinds[row], capture.blocks[row], capture.configurations[row], target)
+            }
+            val live = capture.live
+            val liveOrigin = capture.liveOrigin
+
+            if (target.block == live) {
+                // Configs such as the links of power nodes are arrays, which are only equal by content
+                if (target.configuration != null && !Objects.deepEquals(target.configuration, capture.liveConfig) && !plan.configs.containsKey(liveOrigin)) {
+                    plan.configs.put(liveOrigin, ConfigRequest(Point2.x(liveOrigin).toInt(), Point2.y(liveOrigin).toInt(), target.configuration))
+                }
+                continue
+            }
+
+            if (target.block.isAir || !target.block.canReplace(live)) {
+                if (capture.breakable && !plan.breaks.containsKey(liveOrigin)) {
+                    plan.breaks.put(liveOrigin, BuildPlan(Point2.x(liveOrigin).toInt(), Point2.y(liveOrigin).toInt()))
+                }
+            }
+            if (target.block.isAir) continue
+
+            val origin = if (capture.origin != NONE) capture.origin else if (target.block.size == 1) capture.pos else continue
+            if (plan.builds.containsKey(origin)) continue
+            val rotation = if (capture.rotation != NONE) capture.rotation else target.rotation
+            plan.builds.put(origin, BuildPlan(Point2.x(origin).toInt(), Point2.y(origin).toInt(), rotation, target.block, target.configuration))
+        }
+        return plan
+    }
+
+    /** The first log after [index] that changed the block, whose rotation is the one the block had at [index]. */
+    private fun next(record: TileRecord, index: Int, count: Int): Int? {
+        for (i in index + 1 until count) {
+            if (record.store.kind(record.row(i)) != TileLogStore.CONFIGURE) return i
+        }
+        return null
+    }
+
+    /** Locates the center of the block as it stood on the tile after the log at [index], or [NONE] if no log knows it. */
+    private fun origin(record: TileRecord, index: Int, next: Int?): Int {
+        // The log that placed it knows where it was placed
+        for (i in index downTo 0) {
+            val kind = record.store.kind(record.row(i))
+            if (kind == TileLogStore.CONFIGURE) continue
+            if (kind == TileLogStore.PLACED || kind == TileLogStore.PAYLOAD_DROP) return record.store.origin(record.row(i))
+            break
+        }
+        // Otherwise the log that removed it does, unless it was replaced by a different block
+        if (next != null) {
+            val kind = record.store.kind(record.row(next))
+            if (kind != TileLogStore.PLACED && kind != TileLogStore.PAYLOAD_DROP) return record.store.origin(record.row(next))
+        }
+        return NONE
+    }
+}
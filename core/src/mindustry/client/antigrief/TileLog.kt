@@ -3,11 +3,13 @@ package mindustry.client.antigrief
 import arc.*
 import arc.scene.*
 import arc.scene.ui.layout.*
+import arc.struct.*
 import arc.util.*
 import mindustry.*
 import mindustry.client.utils.*
 import mindustry.content.*
 import mindustry.core.*
+import mindustry.game.*
 import mindustry.world.*
 import java.time.*
 import kotlin.math.*
@@ -30,9 +32,7 @@ data class IntRectangle(val x: Int, val y: Int, val width: Int, val height: Int)
     override fun iterator(): Iterator<Point2i> = IntRectIterator(this)
 }
 
-abstract class TileLog(val position: IntRectangle, override val cause: Interactor) : InteractionLog {
-    override val time: Instant = Instant.now()
-
+abstract class TileLog(val position: IntRectangle, override val cause: Interactor, override val time: Instant = Instant.now()) : InteractionLog {
     companion object {
         fun Tile.linkedArea(): IntRectangle {
             return linkedArea(this, block()?.size ?: return IntRectangle(x.toInt(), y.toInt(), 1, 1))
@@ -57,16 +57,18 @@ abstract class TileLog(val position: IntRectangle, override val cause: Interacto
 
     abstract override fun toString(): String
 
-    open fun add(sequence: TileLogSequence) {
-        sequence.logs.add(this)
-    }
-
     abstract fun toShortString(): String
 }
 
-class TileLogSequence(val snapshot: TileState, val startingIndex: Int) : Iterable<TileLog> {
-    val logs = mutableListOf<TileLog>()
-    val range get() = startingIndex..startingIndex + logs.size
+/** A view over [TileRecord.SEQUENCE_LENGTH] logs of a [TileRecord] starting from the state [snapshot]. */
+class TileLogSequence internal constructor(private val store: TileLogStore, private val entries: IntSeq, val snapshot: TileState, val startingIndex: Int) : Iterable<TileLog> {
+    val size get() = min(entries.size - startingIndex, TileRecord.SEQUENCE_LENGTH)
+    val range get() = startingIndex..startingIndex + size
+    val logs: List<TileLog> = object : AbstractList<TileLog>() {
+        override val size get() = this@TileLogSequence.size
+
+        override fun get(index: Int) = store.log(entries[startingIndex + index])
+    }
 
     override fun iterator(): Iterator<TileLog> {
         return logs.iterator()
@@ -74,58 +76,131 @@ class TileLogSequence(val snapshot: TileState, val startingIndex: Int) : Iterabl
 
     operator fun get(index: Int): TileState {
         val cpy = snapshot.clone()
-        for (diff in logs.subList(0, (index + 1) - startingIndex)) {
-            diff.apply(cpy)
+        for (i in startingIndex..index) {
+            store.apply(entries[i], cpy)
         }
 
         return cpy
     }
 }
 
-class TileRecord(val x: Int, val y: Int) {
-    private val logs = mutableListOf<TileLogSequence>()
-    val size get() = logs.lastOrNull()?.range?.last ?: 0
-    private val totalRange get() = 0..size
+/** The logs of a single tile, stored as row indices into a [TileLogStore]. */
+class TileRecord(val x: Int, val y: Int, internal val store: TileLogStore) {
+    companion object {
+        /** The number of logs replayed on top of each snapshot at most. */
+        const val SEQUENCE_LENGTH = 100
+        /** The number of reconstructed states kept around by [get]. */
+        const val CACHE_SIZE = 16
+    }
 
+    private val entries = IntSeq(8)
+    /** Keyframes, ordered by [TileLogSequence.startingIndex]. */
+    private val logs = mutableListOf<TileLogSequence>()
+    /** Recently reconstructed states by index, in access order.  Created on the first [get]. */
+    private var cache: LinkedHashMap<Int, TileState>? = null
+    val size get() = entries.size
+    /**
+     * Whether the logs before the first one were evicted from the [TileLogJournal] it was restored from.  The state
+     * before the first log is unknown then, so the first keyframe is a placeholder.
+     */
+    var truncated = false
+        private set
+    /** Whether the next row added needs a keyframe. */
+    internal val needsKeyframe get() = entries.size % SEQUENCE_LENGTH == 0
+
+    /** Stores [log] for this tile alone. */
     fun add(log: TileLog, tile: Tile) {
-        when {
-            logs.isEmpty() -> {
-                logs.add(TileLogSequence(TileState(tile), 0))
-            }
+        keyframe(tile)
+        append(store.add(log, tile))
+    }
 
-            logs.last().logs.size > 100 -> {
-                logs.add(TileLogSequence(TileState(tile), logs.last().range.last))
-            }
+    /** Takes a new snapshot of [tile] every [SEQUENCE_LENGTH] logs, must be called right before [append]. */
+    internal fun keyframe(tile: Tile) {
+        if (entries.size % SEQUENCE_LENGTH == 0) {
+            val snapshot = TileState(tile)
+            logs.add(TileLogSequence(store, entries, snapshot, entries.size))
+            store.journal?.snapshot(snapshot)
         }
-        log.add(logs.last())
     }
 
-    operator fun get(index: Int): TileState {
-        if (index !in totalRange) throw IndexOutOfBoundsException("Index $index is out of bounds! (size: $size)")
-        // Get the last sequence that encompases this index
-        val bestSequence = logs.singleOrNull { index in it.range } ?: throw IndexOutOfBoundsException("Tile record is empty!")
-        return bestSequence[index]
+    /** Adds a [row] of [store], which may be shared with the records of the other tiles covered by the same block. */
+    internal fun append(row: Int) {
+        entries.add(row)
     }
 
-    fun lastLogs(count: Int): List<TileLog> {
-        try {
-            val num = min(count, size)
-
-            val output = mutableListOf<TileLog>()
-            var logIndex = logs.indexOfLast { size - num in it.range }
-            for (i in size - num until size) {
-                output.add(logs[logIndex].logs[i])
-                if (i + 1 !in logs[logIndex].range) {
-                    logIndex++
-                    if (logIndex >= logs.size) {
-                        break
-                    }
-                }
+    /**
+     * Adds an existing [row] of [store] restored from a [TileLogJournal].  [snapshot] is the state of the tile right
+     * before the row, it is used if a new keyframe is needed.  Without one the keyframe is replayed from the logs
+     * before it, or if there are none the record is [truncated].
+     */
+    internal fun restore(row: Int, snapshot: TileState?) {
+        if (needsKeyframe) {
+            val state = snapshot ?: if (entries.isEmpty()) {
+                truncated = true
+                TileState(x, y, Blocks.air, 0, null, Team.derelict, Instant.ofEpochMilli(store.time(row)))
+            } else this[entries.size - 1]
+            logs.add(TileLogSequence(store, entries, state, entries.size))
+        }
+        entries.add(row)
+    }
+
+    /** The state of the tile after the log at [index] was applied. */
+    operator fun get(index: Int): TileState {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("Index $index is out of bounds! (size: $size)")
+        val cache = cache ?: object : LinkedHashMap<Int, TileState>(CACHE_SIZE, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, TileState>?) = size > CACHE_SIZE
+        }.also { cache = it }
+        cache[index]?.let { return it.clone() }
+
+        // Replay from the keyframe, or from the closest cached state between it and the index.  When scrubbing through
+        // the record the previous index is almost always cached, so each step only replays a single log.
+        val sequence = logs[keyframe(index)]
+        var from = sequence.startingIndex
+        var closest: TileState? = null
+        for ((i, state) in cache) {
+            if (i in from until index) {
+                from = i + 1
+                closest = state
             }
-            return output
-        } catch (e: IndexOutOfBoundsException) {  // Not totally sure why this happens, but it's an easy 'fix'
-            return emptyList()
         }
+
+        val state = closest?.clone() ?: sequence.snapshot.clone()
+        for (i in from..index) {
+            store.apply(entries[i], state)
+        }
+        cache[index] = state
+        return state.clone()
+    }
+
+    /** The row in [store] of the log at [index]. */
+    fun row(index: Int) = entries[index]
+
+    /**
+     * The index of the last log made at or before [time] (epoch millis) among the first [count] logs, or -1 if they
+     * were all made after it.
+     */
+    fun indexAt(time: Long, count: Int = size): Int {
+        var low = 0
+        var high = count - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (store.time(entries[mid]) <= time) low = mid + 1 else high = mid - 1
+        }
+        return high
+    }
+
+    /** The keyframe the state after the log at [index] is replayed from, or the first one if [index] is -1. */
+    internal fun sequenceAt(index: Int): TileLogSequence = if (index == -1) logs.first() else logs[keyframe(index)]
+
+    /** Binary searches for the last keyframe starting at or before [index]. */
+    private fun keyframe(index: Int): Int {
+        val found = logs.binarySearch { it.startingIndex.compareTo(index) }
+        return if (found >= 0) found else -found - 2
+    }
+
+    fun lastLogs(count: Int): List<TileLog> {
+        val num = min(count, size)
+        return List(num) { store.log(entries[size - num + it]) }
     }
 
     fun toElement(): Element {
@@ -134,7 +209,10 @@ class TileRecord(val x: Int, val y: Int) {
         table.row()
 
         table.pane { t ->
-            if (logs.any()) {
+            if (truncated) {
+                t.add("@client.logtruncated").left()
+                t.row()
+            } else if (logs.any()) {
                 t.button("@client.initialstate") {
                     dialog("@client.log") {
                         cont.add(logs[0].snapshot.toElement())
@@ -162,7 +240,9 @@ class TileRecord(val x: Int, val y: Int) {
     }
 }
 
-class ConfigureTileLog(tile: Tile, cause: Interactor, val block: Block, var configuration: Any?) : TileLog(tile, cause) {
+class ConfigureTileLog(position: IntRectangle, cause: Interactor, val block: Block, var configuration: Any?, time: Instant = Instant.now()) : TileLog(position, cause, time) {
+    constructor(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : this(tile.linkedArea(), cause, block, configuration)
+
     override fun apply(previous: TileState) {
         previous.configuration = configuration
     }
@@ -171,17 +251,17 @@ class ConfigureTileLog(tile: Tile, cause: Interactor, val block: Block, var conf
         return "${cause.name.stripColors()} ${Core.bundle.get("client.configured")} ${block.localizedName}"
     }
 
-    override fun add(sequence: TileLogSequence) {
-        Core.app.post {
-            configuration = Vars.world.tile(position.x, position.y)?.build?.config()
-            sequence.logs.add(this)
-        }
+    /** Reads the configuration once it has been applied. */
+    fun capture() {
+        configuration = Vars.world.tile(position.x, position.y)?.build?.config()
     }
 
     override fun toShortString() = "${cause.shortName.stripColors()} ${Core.bundle.get("client.configured")}"
 }
 
-open class TilePlacedLog(tile: Tile, cause: Interactor, val block: Block, val configuration: Any?) : TileLog(tile, cause) {
+open class TilePlacedLog(position: IntRectangle, cause: Interactor, val block: Block, val configuration: Any?, time: Instant = Instant.now()) : TileLog(position, cause, time) {
+    constructor(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : this(tile.linkedArea(), cause, block, configuration)
+
     override fun apply(previous: TileState) {
         previous.block = block
         previous.configuration = configuration
@@ -194,7 +274,9 @@ open class TilePlacedLog(tile: Tile, cause: Interactor, val block: Block, val co
     override fun toShortString() = "${cause.shortName.stripColors()} ${Core.bundle.get("client.built")} ${block.localizedName}"
 }
 
-class BlockPayloadDropLog(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : TilePlacedLog(tile, cause, block, configuration) {
+class BlockPayloadDropLog(position: IntRectangle, cause: Interactor, block: Block, configuration: Any?, time: Instant = Instant.now()) : TilePlacedLog(position, cause, block, configuration, time) {
+    constructor(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : this(tile.linkedArea(), cause, block, configuration)
+
     override fun toString(): String {
         return "${cause.name.stripColors()} ${Core.bundle.get("client.putdown")} ${block.localizedName}"
     }
@@ -202,7 +284,9 @@ class BlockPayloadDropLog(tile: Tile, cause: Interactor, block: Block, configura
     override fun toShortString() = "${cause.shortName.stripColors()} ${Core.bundle.get("client.putdown")} ${block.localizedName}"
 }
 
-open class TileBreakLog(tile: Tile, cause: Interactor, val block: Block) : TileLog(tile, cause) {
+open class TileBreakLog(position: IntRectangle, cause: Interactor, val block: Block, time: Instant = Instant.now()) : TileLog(position, cause, time) {
+    constructor(tile: Tile, cause: Interactor, block: Block) : this(tile.linkedArea(), cause, block)
+
     override fun apply(previous: TileState) {
         previous.block = Blocks.air
         previous.configuration = null
@@ -215,7 +299,9 @@ open class TileBreakLog(tile: Tile, cause: Interactor, val block: Block) : TileL
     override fun toShortString() = "${cause.shortName.stripColors()} ${Core.bundle.get("client.broke")} ${block.localizedName}"
 }
 
-class BlockPayloadPickupLog(tile: Tile, cause: Interactor, block: Block) : TileBreakLog(tile, cause, block) {
+class BlockPayloadPickupLog(position: IntRectangle, cause: Interactor, block: Block, time: Instant = Instant.now()) : TileBreakLog(position, cause, block, time) {
+    constructor(tile: Tile, cause: Interactor, block: Block) : this(tile.linkedArea(), cause, block)
+
     override fun toString(): String {
         return "${cause.name.stripColors()} ${Core.bundle.get("client.pickedup")} ${block.localizedName}"
     }
@@ -223,7 +309,9 @@ class BlockPayloadPickupLog(tile: Tile, cause: Interactor, block: Block) : TileB
     override fun toShortString() = "${cause.shortName.stripColors()} ${Core.bundle.get("client.pickedup")} ${block.localizedName}"
 }
 
-class TileDestroyedLog(tile: Tile, block: Block) : TileBreakLog(tile, NoInteractor(), block) {
+class TileDestroyedLog(position: IntRectangle, block: Block, time: Instant = Instant.now()) : TileBreakLog(position, NoInteractor(), block, time) {
+    constructor(tile: Tile, block: Block) : this(tile.linkedArea(), block)
+
     override fun toString(): String {
         return "${block.localizedName} ${Core.bundle.get("client.destroyed")}"
     }
@@ -0,0 +1,278 @@
+package mindustry.client.antigrief
+
+import arc.*
+import arc.files.*
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import arc.util.async.*
+import arc.util.io.*
+import mindustry.*
+import mindustry.client.utils.*
+import mindustry.io.*
+import java.io.*
+import java.nio.*
+import java.nio.channels.*
+import java.nio.file.*
+import java.time.*
+import kotlin.math.*
+
+/**
+ * An append-only binary journal of the rows of a [TileLogStore], kept in a directory per server and map so that logs
+ * survive reconnects and map reloads.  Rows are serialized on the main thread into a buffer that is written out on a
+ * background thread at least once a second, segments are memory mapped and read on that thread to load them back.
+ *
+ * The journal is split into segments of about [SEGMENT_SIZE] bytes.  Each segment defines the interactors it uses, so
+ * the oldest segments can be deleted once a journal grows past [MAX_SIZE] or all journals grow past [MAX_TOTAL_SIZE].
+ */
+class TileLogJournal private constructor(private val directory: Fi) {
+    companion object {
+        private const val INTERACTOR: Byte = 1
+        private const val LOG: Byte = 2
+        private const val SNAPSHOT: Byte = 3
+        private const val CHECKPOINT: Byte = 4
+
+        private const val SEGMENT_SIZE = 4 * 1024 * 1024
+        private const val MAX_SIZE = 64L * 1024 * 1024
+        private const val MAX_TOTAL_SIZE = 512L * 1024 * 1024
+        /** The number of rows between checkpoints. */
+        private const val CHECKPOINT_INTERVAL = 4096
+        private const val FLUSH_SIZE = 64 * 1024
+        private const val FLUSH_INTERVAL = 1000L
+
+        /** Writes from every journal go through this one thread, in order. */
+        private val writer = AsyncExecutor(1)
+        private val root get() = Core.settings.dataDirectory.child("tilelogs")
+
+        fun open(server: String, map: String): TileLogJournal {
+            writer.submit(Runnable { evict(root, MAX_TOTAL_SIZE) })
+            return TileLogJournal(root.child(sanitize(server)).child(sanitize(map.stripColors())))
+        }
+
+        private fun sanitize(name: String) = name.replace("[^A-Za-z0-9._-]".toRegex(), "_").take(64).ifEmpty { "_" }
+
+        /** The segments under [directory], oldest first. */
+        private fun segments(directory: Fi) = directory.findAll { it.extension() == "log" }.sortedWith(compareBy({ it.lastModified() }, { it.nameWithoutExtension().toLongOrNull() ?: 0L }))
+
+        /** Deletes the oldest segments under [directory] until they take up at most [maxSize] bytes. */
+        private fun evict(directory: Fi, maxSize: Long) {
+            val segments = segments(directory)
+            var total = segments.sumOf { it.length() }
+            for (segment in segments) {
+                if (total <= maxSize) break
+                total -= segment.length()
+                segment.delete()
+            }
+        }
+    }
+
+    // Main thread
+    private val buffer = ReusableByteOutStream()
+    private val writes = Writes(DataOutputStream(buffer))
+    /** Interactor ids defined in the current segment. */
+    private val defined = IntSet()
+    private var segmentBytes = 0L
+    private var segmentRows = 0
+    private var lastFlush = Time.millis()
+    /** Flushes what was appended since the last flush even when nothing else is, so that a crash loses at most that. */
+    private val flushTask = Timer.schedule({ flush() }, FLUSH_INTERVAL / 1000f, FLUSH_INTERVAL / 1000f)
+
+    // Writer thread
+    private var segment: Fi? = null
+
+    /**
+     * The rows of a journal read into a [store] of their own, along with the tiles each row is restored to in order
+     * and the snapshot of each of those tiles taken right before it, if there is one.
+     */
+    class Loaded(val store: TileLogStore) {
+        private val tiles = IntSeq()
+        private val rows = IntSeq()
+        private val snapshots = Seq<TileState?>()
+
+        internal fun add(tile: Int, row: Int, snapshot: TileState?) {
+            tiles.add(tile)
+            rows.add(row)
+            snapshots.add(snapshot)
+        }
+
+        /** Calls [restore] with each row for every tile it covers, in the order they were logged. */
+        fun restore(restore: (x: Int, y: Int, row: Int, snapshot: TileState?) -> Unit) {
+            for (i in 0 until rows.size) restore(Point2.x(tiles[i]).toInt(), Point2.y(tiles[i]).toInt(), rows[i], snapshots[i])
+        }
+    }
+
+    /** Appends the row at [row] of [store]. */
+    fun append(store: TileLogStore, row: Int) {
+        val cause = store.causeId(row)
+        if (defined.add(cause)) {
+            writes.b(INTERACTOR.toInt())
+            writes.i(cause)
+            TypeIO.writeString(writes, store.cause(row).name)
+            TypeIO.writeString(writes, store.cause(row).shortName)
+        }
+
+        writes.b(LOG.toInt())
+        writes.i(store.tile(row))
+        writes.l(store.time(row))
+        writes.i(cause)
+        writes.b(store.kind(row).toInt())
+        writes.s(store.block(row).id.toInt())
+        writes.b(store.rotation(row))
+        writeConfig(store.configuration(row))
+        writes.i(store.area(row))
+        writes.b(store.areaSize(row))
+
+        if (++segmentRows % CHECKPOINT_INTERVAL == 0) {
+            val offset = segmentBytes + buffer.size()
+            writes.b(CHECKPOINT.toInt())
+            writes.i(segmentRows)
+            writes.l(offset)
+        }
+
+        if (buffer.size() >= FLUSH_SIZE || Time.timeSinceMillis(lastFlush) > FLUSH_INTERVAL) flush()
+    }
+
+    /** Appends a keyframe, it is restored along with the next row for the same tile. */
+    fun snapshot(state: TileState) {
+        writes.b(SNAPSHOT.toInt())
+        writes.i(Point2.pack(state.x, state.y))
+        writes.s(state.block.id.toInt())
+        writes.b(state.rotation)
+        writeConfig(state.configuration)
+        TypeIO.writeTeam(writes, state.team)
+        writes.l(state.time.toEpochMilli())
+    }
+
+    /** Flushes and stops flushing on a timer, for when the journal is no longer used. */
+    fun close() {
+        flushTask.cancel()
+        flush()
+    }
+
+    /** Hands everything appended so far to the writer thread. */
+    fun flush() {
+        lastFlush = Time.millis()
+        if (buffer.size() == 0) return
+
+        val bytes = buffer.bytes.copyOf(buffer.size())
+        buffer.reset()
+        segmentBytes += bytes.size
+        val rotate = segmentBytes >= SEGMENT_SIZE
+        if (rotate) {
+            segmentBytes = 0
+            segmentRows = 0
+            defined.clear()
+        }
+
+        writer.submit(Runnable {
+            try {
+                val file = segment ?: nextSegment().also { segment = it }
+                file.writeBytes(bytes, true)
+            } catch (e: Exception) {
+                Log.err(e)
+            }
+            if (rotate) {
+                segment = null
+                evict(directory, MAX_SIZE)
+            }
+        })
+    }
+
+    /**
+     * Reads every segment of this journal into a new store on the writer thread, after the writes handed to it so far
+     * and before any later ones.  [done] is called with it on the main thread.
+     */
+    fun load(done: (Loaded) -> Unit) {
+        writer.submit(Runnable {
+            val loaded = read()
+            Core.app.post { done(loaded) }
+        })
+    }
+
+    private fun read(): Loaded {
+        val store = TileLogStore()
+        val loaded = Loaded(store)
+        val files = segments(directory)
+        val interactors = IntMap<Interactor>()
+        val snapshots = IntMap<TileState>()
+
+        for (file in files) {
+            interactors.clear()
+            val mapped = try {
+                FileChannel.open(file.file().toPath(), StandardOpenOption.READ).use { it.map(FileChannel.MapMode.READ_ONLY, 0, it.size()) }
+            } catch (e: IOException) {
+                Log.err(e)
+                continue
+            }
+            val read = Reads(DataInputStream(BufferInputStream(mapped)))
+            var rows = 0
+
+            try {
+                records@ while (mapped.hasRemaining()) {
+                    val position = mapped.position()
+                    when (read.b()) {
+                        INTERACTOR -> interactors.put(read.i(), RestoredInteractor(TypeIO.readString(read), TypeIO.readString(read)))
+
+                        LOG -> {
+                            val tile = read.i()
+                            val time = read.l()
+                            val cause = interactors[read.i()] ?: NoInteractor()
+                            val kind = read.b()
+                            val block = read.s()
+                            val rotation = read.b().toInt()
+                            val configuration = TypeIO.readObjectBoxed(read, true)
+                            val area = read.i()
+                            val areaSize = read.b().toInt()
+                            val row = store.add(tile, time, cause, kind, block, rotation, configuration, area, areaSize)
+                            store.forEachCovered(row) { x, y -> loaded.add(Point2.pack(x, y), row, snapshots.remove(Point2.pack(x, y))) }
+                            rows++
+                        }
+
+                        SNAPSHOT -> {
+                            val pos = read.i()
+                            val block = Vars.content.block(read.s().toInt())
+                            val rotation = read.b().toInt()
+                            val configuration = TypeIO.readObjectBoxed(read, true)
+                            val team = TypeIO.readTeam(read)
+                            val time = Instant.ofEpochMilli(read.l())
+                            snapshots.put(pos, TileState(Point2.x(pos).toInt(), Point2.y(pos).toInt(), block, rotation, configuration, team, time))
+                        }
+
+                        // Anything that doesn't line up with its checkpoint is corrupt, skip the rest of the segment
+                        CHECKPOINT -> if (read.i() != rows || read.l() != position.toLong()) break@records
+
+                        else -> break@records
+                    }
+                }
+            } catch (e: Exception) {
+                // The last segment ends in a partial record if the game closed while it was being written
+                Log.warn("Tile log journal segment @ is truncated after @ rows", file.name(), rows)
+            }
+        }
+        return loaded
+    }
+
+    private fun nextSegment(): Fi {
+        val last = directory.list().mapNotNull { it.nameWithoutExtension().toLongOrNull() }.maxOrNull() ?: -1L
+        return directory.child("${last + 1}.log")
+    }
+
+    private fun writeConfig(configuration: Any?) {
+        try {
+            TypeIO.writeObject(writes, configuration)
+        } catch (e: IllegalArgumentException) {  // Not a type TypeIO knows how to write, nothing has been written yet
+            TypeIO.writeObject(writes, null)
+        }
+    }
+
+    private class BufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read() = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (!buffer.hasRemaining()) return -1
+            val count = min(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package mindustry.client.antigrief
+
+import arc.math.geom.*
+import arc.struct.*
+import mindustry.*
+import mindustry.content.*
+import mindustry.world.*
+import java.time.*
+
+/**
+ * Columnar storage for [TileLog]s.  Each log is a row spread over a set of parallel primitive arrays, [TileLog]
+ * objects are only created when something asks for one (see [log]).
+ * Only written to from the main thread.
+ */
+class TileLogStore(initialCapacity: Int = 1024) {
+    companion object {
+        const val CONFIGURE: Byte = 0
+        const val PLACED: Byte = 1
+        const val PAYLOAD_DROP: Byte = 2
+        const val BREAK: Byte = 3
+        const val PAYLOAD_PICKUP: Byte = 4
+        const val DESTROYED: Byte = 5
+
+        private const val NO_CONFIG = -1
+
+        /** Applies a row with the given column values to [state] in place. */
+        fun apply(kind: Byte, block: Short, configuration: Any?, state: TileState) {
+            when (kind) {
+                CONFIGURE -> state.configuration = configuration
+                PLACED, PAYLOAD_DROP -> {
+                    state.block = Vars.content.block(block.toInt())
+                    state.configuration = configuration
+                }
+                else -> {
+                    state.block = Blocks.air
+                    state.configuration = null
+                }
+            }
+        }
+    }
+
+    /** The number of rows in this store. */
+    var size = 0
+        private set
+
+    private var tiles = IntArray(initialCapacity)  // Packed position of the tile the row belongs to
+    private var times = LongArray(initialCapacity)  // Epoch millis
+    private var causes = IntArray(initialCapacity)  // Index into interactors
+    private var blocks = ShortArray(initialCapacity)  // Block id
+    private var rotations = ByteArray(initialCapacity)  // Rotation of the building on the tile when it was logged
+    private var configs = IntArray(initialCapacity)  // Index into configurations, or NO_CONFIG
+    private var kinds = ByteArray(initialCapacity)
+    private var areas = IntArray(initialCapacity)  // Packed top left corner of TileLog.position
+    private var areaSizes = ByteArray(initialCapacity)
+
+    private val interactors = Seq<Interactor>()
+    private val interactorIds = ObjectIntMap<String>()
+    private val configurations = Seq<Any?>()
+
+    /** Receives every row added through [add] with a [TileLog], rows restored from it are not passed back. */
+    var journal: TileLogJournal? = null
+
+    /** Adds [log] as a row for [tile], the center of the block it is about, and returns the row index. */
+    fun add(log: TileLog, tile: Tile): Int {
+        val (kind, block, config) = when (log) {
+            is ConfigureTileLog -> Triple(CONFIGURE, log.block, log.configuration)
+            is BlockPayloadDropLog -> Triple(PAYLOAD_DROP, log.block, log.configuration)
+            is TilePlacedLog -> Triple(PLACED, log.block, log.configuration)
+            is BlockPayloadPickupLog -> Triple(PAYLOAD_PICKUP, log.block, null)
+            is TileDestroyedLog -> Triple(DESTROYED, log.block, null)
+            is TileBreakLog -> Triple(BREAK, log.block, null)
+            else -> throw IllegalArgumentException("Unknown log type ${log::class.simpleName}")
+        }
+
+        val i = add(tile.pos(), log.time.toEpochMilli(), log.cause, kind, block.id, tile.build?.rotation ?: 0, config,
+            Point2.pack(log.position.x, log.position.y), log.position.width)
+        journal?.append(this, i)
+        return i
+    }
+
+    /** Adds a row from its raw column values and returns the row index. */
+    fun add(tile: Int, time: Long, cause: Interactor, kind: Byte, block: Short, rotation: Int, configuration: Any?, area: Int, areaSize: Int): Int {
+        if (size == tiles.size) grow()
+        val i = size++
+
+        tiles[i] = tile
+        times[i] = time
+        causes[i] = intern(cause)
+        kinds[i] = kind
+        blocks[i] = block
+        rotations[i] = rotation.toByte()
+        configs[i] = if (configuration == null) NO_CONFIG else configurations.size.also { configurations.add(configuration) }
+        areas[i] = area
+        areaSizes[i] = areaSize.toByte()
+
+        return i
+    }
+
+    /** Adds a copy of the row at [index] of [other] and returns the row index. */
+    fun add(other: TileLogStore, index: Int) = add(other.tile(index), other.time(index), other.cause(index), other.kind(index), other.blockId(index),
+        other.rotation(index), other.configuration(index), other.area(index), other.areaSize(index))
+
+    fun tile(index: Int) = tiles[index]
+
+    fun time(index: Int) = times[index]
+
+    fun kind(index: Int) = kinds[index]
+
+    fun block(index: Int): Block = Vars.content.block(blocks[index].toInt())
+
+    fun blockId(index: Int) = blocks[index]
+
+    fun rotation(index: Int) = rotations[index].toInt()
+
+    /** The packed position of the center of the block the row at [index] is about. */
+    fun origin(index: Int): Int {
+        val size = areaSizes[index].toInt()
+        val offset = -(size - 1) / 2
+        return Point2.pack(Point2.x(areas[index]) - offset, Point2.y(areas[index]) - size + 1 - offset)
+    }
+
+    fun cause(index: Int): Interactor = interactors[causes[index]]
+
+    /** The id of [cause], equal ids mean equal interactors. */
+    fun causeId(index: Int) = causes[index]
+
+    /** The packed top left corner of the position of the log at [index]. */
+    fun area(index: Int) = areas[index]
+
+    fun areaSize(index: Int) = areaSizes[index].toInt()
+
+    /** Calls [block] with the position of every tile covered by the row at [index], some may be outside the world. */
+    inline fun forEachCovered(index: Int, block: (x: Int, y: Int) -> Unit) {
+        val area = area(index)
+        val size = areaSize(index)
+        for (dy in 0 until size) {
+            for (dx in 0 until size) {
+                block(Point2.x(area) + dx, Point2.y(area) - dy)
+            }
+        }
+    }
+
+    fun configuration(index: Int): Any? = if (configs[index] == NO_CONFIG) null else configurations[configs[index]]
+
+    /** Applies the row at [index] to [state] in place, equivalent to `log(index).apply(state)`. */
+    fun apply(index: Int, state: TileState) = apply(kinds[index], blocks[index], configuration(index), state)
+
+    /** Creates the [TileLog] stored at [index]. */
+    fun log(index: Int): TileLog {
+        val position = IntRectangle(Point2.x(areas[index]).toInt(), Point2.y(areas[index]).toInt(), areaSizes[index].toInt(), areaSizes[index].toInt())
+        val time = Instant.ofEpochMilli(times[index])
+        return when (kinds[index]) {
+            CONFIGURE -> ConfigureTileLog(position, cause(index), block(index), configuration(index), time)
+            PLACED -> TilePlacedLog(position, cause(index), block(index), configuration(index), time)
+            PAYLOAD_DROP -> BlockPayloadDropLog(position, cause(index), block(index), configuration(index), time)
+            BREAK -> TileBreakLog(position, cause(index), block(index), time)
+            PAYLOAD_PICKUP -> BlockPayloadPickupLog(position, cause(index), block(index), time)
+            else -> TileDestroyedLog(position, block(index), time)
+        }
+    }
+
+    /** Interactors are immutable and their name determines their short name, so equal names share one instance. */
+    private fun intern(interactor: Interactor): Int {
+        val existing = interactorIds.get(interactor.name, -1)
+        if (existing != -1 && interactors[existing].shortName == interactor.shortName) return existing
+
+        interactors.add(interactor)
+        if (existing == -1) interactorIds.put(interactor.name, interactors.size - 1)
+        return interactors.size - 1
+    }
+
+    private fun grow() {
+        val capacity = (tiles.size * 2).coerceAtLeast(16)
+        tiles = tiles.copyOf(capacity)
+        times = times.copyOf(capacity)
+        causes = causes.copyOf(capacity)
+        blocks = blocks.copyOf(capacity)
+        rotations = rotations.copyOf(capacity)
+        configs = configs.copyOf(capacity)
+        kinds = kinds.copyOf(capacity)
+        areas = areas.copyOf(capacity)
+        areaSizes = areaSizes.copyOf(capacity)
+    }
+}
@@ -1,6 +1,8 @@
 package mindustry.client.antigrief
 
 import arc.*
+import arc.math.geom.*
+import arc.struct.*
 import mindustry.*
 import mindustry.client.*
 import mindustry.client.antigrief.TileLog.Companion.linkedArea
@@ -11,69 +13,138 @@ import mindustry.world.*
 import mindustry.world.blocks.*
 
 object TileRecords {
-    private var records: Array<Array<TileRecord>> = arrayOf(arrayOf())
+    private var store = TileLogStore()
+    /** Records are created lazily, keyed by packed tile position. */
+    private var records = IntMap<TileRecord>()
+    private var journal: TileLogJournal? = null
+    /** Configurations are only known once they are applied, so these are stored together at the end of the frame. */
+    private val pendingConfigs = Seq<ConfigureTileLog>()
+    private val pendingOrigins = Seq<Tile>()
 
     fun initialize() {
         Events.on(EventType.WorldLoadEvent::class.java) {
-            if (!ClientVars.syncing) records = Array(Vars.world.width()) { x -> Array(Vars.world.height()) { y -> TileRecord(x, y) } }
+            if (!ClientVars.syncing) {
+                journal?.close()
+                pendingConfigs.clear()
+                pendingOrigins.clear()
+                store = TileLogStore()
+                records = IntMap()
+                val opened = if (Vars.net.client()) TileLogJournal.open("${Vars.ui.join.lastIp}:${Vars.ui.join.lastPort}", Vars.state.map?.name() ?: "unknown") else null
+                journal = opened
+                store.journal = opened
+                // Logging goes on while the journal loads, unless another world was loaded by then
+                opened?.load { if (journal === opened) restore(it) }
+            }
             ClientVars.syncing = false // TODO: This will break if the person returns to menu while loading
         }
 
+        Events.on(EventType.ResetEvent::class.java) {
+            journal?.flush()
+        }
+
+        // Each event is stored once and shared by the records of every tile the block covers, the log's position is
+        // the area of the block itself
         Events.on(EventType.BlockBuildBeginEventBefore::class.java) {
             if (it.newBlock == null || it.newBlock == Blocks.air) {
-                it.tile.getLinkedTiles { tile ->
-                    addLog(tile, TileBreakLog(tile, it.unit.toInteractor(), tile.block()))
-                }
+                val origin = it.tile.build?.tile ?: it.tile
+                addLog(origin, TileBreakLog(origin.linkedArea(), it.unit.toInteractor(), origin.block()))
             } else {
-                forArea(it.tile, it.newBlock.size) { tile ->
-                    addLog(tile, TilePlacedLog(tile, it.unit.toInteractor(), it.newBlock, tile.build?.config()))
-                }
+                addLog(it.tile, TilePlacedLog(linkedArea(it.tile, it.newBlock.size), it.unit.toInteractor(), it.newBlock, it.tile.build?.config()))
             }
         }
 
         Events.on(EventType.ConfigEventBefore::class.java) {
-            forArea(it.tile.tile) { tile ->
-                addLog(tile, ConfigureTileLog(tile, it.player.toInteractor(), tile.block(), it.value))
-            }
+            addLog(it.tile.tile, ConfigureTileLog(it.tile.tile.linkedArea(), it.player.toInteractor(), it.tile.block, it.value))
         }
 
         Events.on(EventType.BuildPayloadPickup::class.java) {
-            forArea(it.tile) { tile ->
-                addLog(tile, BlockPayloadPickupLog(tile, it.unit.toInteractor(), it.building.block))
-            }
+            addLog(it.tile, BlockPayloadPickupLog(linkedArea(it.tile, it.building.block.size), it.unit.toInteractor(), it.building.block))
         }
 
         Events.on(EventType.BuildPayloadDrop::class.java) {
-            forArea(it.tile, it.building.block.size) { tile ->
-                addLog(tile, BlockPayloadDropLog(tile, it.unit.toInteractor(), it.building.block, it.building.config()))
-            }
+            addLog(it.tile, BlockPayloadDropLog(linkedArea(it.tile, it.building.block.size), it.unit.toInteractor(), it.building.block, it.building.config()))
         }
 
         Events.on(EventType.BlockDestroyEvent::class.java) {
-            forArea(it.tile) { tile ->
-                addLog(tile, TileDestroyedLog(tile,
-                    if (tile.build is ConstructBlock.ConstructBuild) (tile.build as ConstructBlock.ConstructBuild).cblock ?:
-                    (tile.build as ConstructBlock.ConstructBuild).previous
-                    else tile.block() ?: Blocks.air))
+            val build = it.tile.build
+            addLog(it.tile, TileDestroyedLog(it.tile.linkedArea(),
+                if (build is ConstructBlock.ConstructBuild) build.cblock ?: build.previous
+                else it.tile.block() ?: Blocks.air))
+        }
+    }
+
+    private inline fun forArea(area: IntRectangle, block: (Tile) -> Unit) {
+        for (dy in 0 until area.height) {
+            for (dx in 0 until area.width) {
+                block(Vars.world.tile(area.x + dx, area.y - dy) ?: continue)
             }
         }
     }
 
-    private inline fun forArea(tile: Tile, size: Int = tile.block().size, block: (Tile) -> Unit) {
-        for (point in linkedArea(tile, size)) {
-            if (point in Vars.world) {
-                block(Vars.world[point])
+    /**
+     * Makes the rows [loaded] from the journal the start of every record, followed by the rows logged while it was
+     * loading.  Those were journaled already, so they are only copied.
+     */
+    private fun restore(loaded: TileLogJournal.Loaded) {
+        val live = store
+        val liveRecords = records
+        store = loaded.store
+        records = IntMap()
+        loaded.restore { x, y, row, snapshot -> this[x, y]?.restore(row, snapshot) }
+
+        // The index of the next live row in the live record of each tile, whose states are the keyframes they need
+        val indices = IntIntMap()
+        for (row in 0 until live.size) {
+            val copy = store.add(live, row)
+            live.forEachCovered(row) { x, y ->
+                val pos = Point2.pack(x, y)
+                val liveRecord = liveRecords[pos] ?: return@forEachCovered
+                val record = this[x, y] ?: return@forEachCovered
+                val index = indices.getAndIncrement(pos, 0, 1)
+                record.restore(copy, if (!record.needsKeyframe) null else if (index == 0) liveRecord.sequenceAt(-1).snapshot.clone() else liveRecord[index - 1])
             }
         }
+        store.journal = journal
     }
 
-    operator fun get(x: Int, y: Int): TileRecord? = records.getOrNull(x)?.getOrNull(y)
+    operator fun get(x: Int, y: Int): TileRecord? {
+        if (x !in 0 until Vars.world.width() || y !in 0 until Vars.world.height()) return null
+        val pos = Point2.pack(x, y)
+        return records[pos] ?: TileRecord(x, y, store).also { records.put(pos, it) }
+    }
 
     operator fun get(tile: Tile): TileRecord? = this[tile.x.toInt(), tile.y.toInt()]
 
-    private fun addLog(tile: Tile, log: TileLog) {
-        val logs = this[tile] ?: return
-        logs.add(log, tile)
+    /** The record at the given position if anything was ever logged there.  Unlike [get] this never creates one. */
+    fun existing(x: Int, y: Int): TileRecord? {
+        if (x !in 0 until Vars.world.width() || y !in 0 until Vars.world.height()) return null
+        return records[Point2.pack(x, y)]?.takeIf { it.size > 0 }
+    }
+
+    private fun addLog(origin: Tile, log: TileLog) {
+        if (log is ConfigureTileLog) {
+            if (pendingConfigs.isEmpty) Core.app.post { flushConfigs() }
+            pendingConfigs.add(log)
+            pendingOrigins.add(origin)
+        } else {
+            record(origin, log)
+        }
+    }
+
+    /** Stores [log] once for [origin] and adds it to the records of every tile in its position. */
+    private fun record(origin: Tile, log: TileLog) {
+        forArea(log.position) { this[it]?.keyframe(it) }
+        val row = store.add(log, origin)
+        forArea(log.position) { this[it]?.append(row) }
+    }
+
+    private fun flushConfigs() {
+        for (i in 0 until pendingConfigs.size) {
+            pendingConfigs[i].capture()
+            record(pendingOrigins[i], pendingConfigs[i])
+        }
+        pendingConfigs.clear()
+        pendingOrigins.clear()
     }
 
     fun show(tile: Tile) {
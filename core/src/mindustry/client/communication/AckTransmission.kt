@@ -0,0 +1,39 @@
+package mindustry.client.communication
+
+import mindustry.client.utils.*
+import java.nio.*
+import java.util.*
+import kotlin.random.Random
+
+/**
+ * Sent back by the receivers of a reliable transmission that stopped arriving before it was complete.  Says which of
+ * its segments were received, so that the sender only sends the rest again.
+ */
+class AckTransmission : Transmission {
+
+    override var id = Random.nextLong()
+    /** The ID of the transmission being acknowledged. */
+    val transmissionId: Long
+    /** The sequence numbers of the segments received so far. */
+    val received: BitSet
+
+    constructor(transmissionId: Long, received: BitSet) {
+        this.transmissionId = transmissionId
+        this.received = received
+    }
+
+    constructor(input: ByteArray, id: Long) {
+        val buf = input.buffer()
+        this.id = id
+        this.transmissionId = buf.long
+        this.received = BitSet.valueOf(buf)
+    }
+
+    override fun serialize(): ByteArray {
+        val bits = received.toByteArray()
+        val buf = ByteBuffer.allocate(Long.SIZE_BYTES + bits.size)
+        buf.putLong(transmissionId)
+        buf.put(bits)
+        return buf.array()
+    }
+}
@@ -0,0 +1,26 @@
+package mindustry.client.communication
+
+import mindustry.client.utils.*
+import kotlin.random.Random
+
+/**
+ * Tells the other clients which additions to the packet format this client understands, as bits of
+ * [Packets.CAPABILITIES].  They are only used once every client heard from recently has sent one of these.  Clients
+ * from before this existed log it as an unknown type and otherwise ignore it.
+ */
+class CapabilityTransmission : Transmission {
+
+    override var id = Random.nextLong()
+    val capabilities: Int
+
+    constructor(capabilities: Int) {
+        this.capabilities = capabilities
+    }
+
+    constructor(input: ByteArray, id: Long) {
+        this.id = id
+        this.capabilities = input.buffer().int
+    }
+
+    override fun serialize() = capabilities.toBytes()
+}
@@ -3,12 +3,22 @@ package mindustry.client.communication
 import java.util.*
 import java.util.function.Consumer
 
-/** A dummy [CommunicationSystem] for tests. */
-class DummyCommunicationSystem(private val pool: MutableList<DummyCommunicationSystem>) : CommunicationSystem() {
+/**
+ * A dummy [CommunicationSystem] for tests.  It can lose a fraction of what is sent to each other system, and hold back
+ * a fraction of it to be delivered after whatever is sent next.
+ */
+class DummyCommunicationSystem(
+    private val pool: MutableList<DummyCommunicationSystem>,
+    private val lossRate: Float = 0f,
+    private val reorderRate: Float = 0f,
+    private val random: Random = Random()
+) : CommunicationSystem() {
     override val listeners: MutableList<(ByteArray, Int) -> Unit> = mutableListOf()
     override val id = Random().nextInt()
     override val MAX_LENGTH: Int = 64
     override val RATE: Float = 0f // Unlimited
+    /** What was held back for each system, delivered after the next thing sent to it. */
+    private val held = mutableMapOf<DummyCommunicationSystem, ByteArray>()
 
     private fun received(bytes: ByteArray, sender: Int) {
         listeners.forEach(Consumer { it.invoke(bytes, sender) })
@@ -17,7 +27,13 @@ class DummyCommunicationSystem(private val pool: MutableList<DummyCommunicationS
     override fun send(bytes: ByteArray) {
         pool.forEach(Consumer { item: DummyCommunicationSystem ->
             if (item !== this) {
+                if (random.nextFloat() < lossRate) return@Consumer
+                if (random.nextFloat() < reorderRate && item !in held) {
+                    held[item] = bytes
+                    return@Consumer
+                }
                 item.received(bytes, id)
+                held.remove(item)?.let { item.received(it, id) }
             }
         })
     }
@@ -27,4 +43,4 @@ class DummyCommunicationSystem(private val pool: MutableList<DummyCommunicationS
     init {
         pool.add(this)
     }
-}
\ No newline at end of file
+}
@@ -28,25 +28,12 @@ object MessageBlockCommunicationSystem : CommunicationSystem() {
     const val LOGIC_PREFIX = "end\nprint \"client networking, do not edit/remove\""
 
     fun findProcessor(): LogicBlock.LogicBuild? {
-        for (build in Groups.build) {
-            val b = build as? LogicBlock.LogicBuild ?: continue
-            if (b.team == Vars.player.team() && b.code.startsWith(LOGIC_PREFIX)) {
-                logicAvailable = true
-                return b
-            }
-        }
-        logicAvailable = false
-        return null
+        val processor = RelayRegistry.processor()
+        logicAvailable = processor != null
+        return processor
     }
 
-    fun findMessage(): MessageBlock.MessageBuild? {
-        for (tile in Vars.world.tiles) {
-            val build = tile.build as? MessageBlock.MessageBuild ?: continue
-            if (build.team != Vars.player.team() || !build.message.startsWith(ClientVars.MESSAGE_BLOCK_PREFIX)) continue
-            return build
-        }
-        return null
-    }
+    fun findMessage() = RelayRegistry.message()
 
     private fun logicEvent(event: EventType.ConfigEvent) {
         event.tile ?: return
@@ -102,6 +89,7 @@ object MessageBlockCommunicationSystem : CommunicationSystem() {
 
     /** Initializes listeners. */
     override fun init() {
+        RelayRegistry.init()
         Events.on(EventType.ConfigEvent::class.java) { event ->
             event ?: return@on
 
@@ -1,5 +1,6 @@
 package mindustry.client.communication
 
+import arc.math.*
 import arc.util.*
 import arc.util.Interval
 import mindustry.client.crypto.EncryptedMessageTransmission
@@ -10,18 +11,72 @@ import java.time.*
 import java.time.temporal.*
 import java.util.*
 import java.util.concurrent.*
+import kotlin.math.*
 import kotlin.reflect.*
 
 object Packets {
-    /** The list of registered types of [Transmission].  Transmissions MUST be registered here before use. */
+    /**
+     * The list of registered types of [Transmission].  Transmissions MUST be registered here before use.
+     * Types with a higher priority are sent first, signatures go before everything else so that chat isn't left
+     * unsigned while a build queue is being sent.
+     */
     private val registeredTransmissionTypes = listOf<RegisteredTransmission<*>>(
-        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission),
-        RegisteredTransmission(SignatureTransmission::class, ::SignatureTransmission),
-        RegisteredTransmission(EncryptedMessageTransmission::class, ::EncryptedMessageTransmission),
-        RegisteredTransmission(BuildQueueTransmission::class, ::BuildQueueTransmission)
+        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission, 0),
+        RegisteredTransmission(SignatureTransmission::class, ::SignatureTransmission, 2),
+        RegisteredTransmission(EncryptedMessageTransmission::class, ::EncryptedMessageTransmission, 1),
+        RegisteredTransmission(BuildQueueTransmission::class, ::BuildQueueTransmission, 0, TransmissionCompression.buildQueueDictionary),
+        RegisteredTransmission(AckTransmission::class, ::AckTransmission, 2),
+        RegisteredTransmission(CapabilityTransmission::class, ::CapabilityTransmission, 2)
     )
 
-    private data class RegisteredTransmission<T : Transmission>(val type: KClass<T>, val constructor: (content: ByteArray, id: Long) -> T)
+    private const val MAX_PRIORITY = 2
+
+    /**
+     * Written in place of the sequence count when several packets are batched into one write, each of them then
+     * follows as a short length and the packet.  Clients that don't know about batching reject it as a bad sequence,
+     * so packets are only batched once every client listening has [BATCHING].
+     */
+    private const val BATCH_MARKER = -1
+
+    /** A [CapabilityTransmission] bit, set by clients that read batches of packets. */
+    const val BATCHING = 1
+
+    /**
+     * A [CapabilityTransmission] bit, set by clients that read every [TransmissionCompression] version.  Versions
+     * other than [TransmissionCompression.ZLIB] go in the byte above the transmission type, which clients without it
+     * read as an unknown type.
+     */
+    const val COMPRESSION = 2
+
+    /**
+     * A [CapabilityTransmission] bit, set by clients that read the reliable flag in the header and answer it with
+     * [AckTransmission]s.  The flag is above the transmission type, which clients without it read as an unknown type,
+     * so reliable transmissions are only flagged as such once every client listening has it.
+     */
+    const val RELIABLE = 4
+
+    /** The capabilities of this client. */
+    const val CAPABILITIES = BATCHING or COMPRESSION or RELIABLE
+
+    /** How long in milliseconds another client counts as listening after it was last heard from. */
+    private const val PEER_TIMEOUT = 5 * 60_000L
+
+    /** The least time in milliseconds between sending [CapabilityTransmission]s to clients that were just heard from. */
+    private const val ADVERTISE_INTERVAL = 10_000L
+
+    /** How many times a receiver asks for missing segments, and how many times a sender sends them again. */
+    private const val MAX_RETRIES = 10
+
+    /** How long in milliseconds a sender keeps the packets of a reliable transmission after last sending any of them. */
+    private const val RETAIN_TIME = 30_000L
+
+    private data class RegisteredTransmission<T : Transmission>(
+        val type: KClass<T>,
+        val constructor: (content: ByteArray, id: Long) -> T,
+        val priority: Int,
+        /** The preset dictionary its transmissions are compressed with, see [TransmissionCompression.DICTIONARY]. */
+        val dictionary: ByteArray? = null
+    )
 
     private class Header {
         /** The total number of packets that make up this transmission. */
@@ -34,9 +89,21 @@ object Packets {
         val transmissionId: Long
         /** The type of [Transmission] it is part of. */
         val transmissionType: Int
+        /** The [TransmissionCompression] version the transmission was compressed with. */
+        val compression: Int
+        /** Whether receivers should send an [AckTransmission] when segments go missing. */
+        val reliable: Boolean
 
         companion object {
             const val HEADER_SIZE = Int.SIZE_BYTES + Int.SIZE_BYTES + Long.SIZE_BYTES + Long.SIZE_BYTES + Int.SIZE_BYTES
+
+            /**
+             * The transmission type, compression version and flags share the last int.  The type is in the low two
+             * bytes and the version in the byte above them, so packets of version 0 look like they always did.
+             */
+            private const val TYPE_MASK = 0xFFFF
+            private const val COMPRESSION_SHIFT = 16
+            private const val RELIABLE_FLAG = 1 shl 30
         }
 
         /**
@@ -46,42 +113,52 @@ object Packets {
          * @param expirationTime The time at which this packet is no longer valid.
          * @param transmissionId The ID of the [Transmission] it is part of.
          * @param transmissionType The type of [Transmission] it is part of.
+         * @param compression The [TransmissionCompression] version the transmission was compressed with.
+         * @param reliable Whether receivers should send an [AckTransmission] when segments go missing.
          */
-        constructor(sequenceCount: Int, sequenceNumber: Int, expirationTime: Instant, transmissionId: Long, transmissionType: Int) {
+        constructor(sequenceCount: Int, sequenceNumber: Int, expirationTime: Instant, transmissionId: Long, transmissionType: Int, compression: Int, reliable: Boolean) {
             this.sequenceCount = sequenceCount
             this.sequenceNumber = sequenceNumber
             this.expirationTime = expirationTime
             this.transmissionId = transmissionId
             this.transmissionType = transmissionType
+            this.compression = compression
+            this.reliable = reliable
         }
 
         /** Deserializes a header.  Compatible with [toBytes]. */
-        constructor(array: ByteArray) {
-            if (array.size < HEADER_SIZE) throw IllegalArgumentException("Input array is not long enough to be a packet header!")
-            val buf = ByteBuffer.wrap(array)
+        constructor(array: ByteArray) : this(ByteBuffer.wrap(array))
+
+        /** Reads the header from the given buffer, leaving it positioned at the content. */
+        constructor(buf: ByteBuffer) {
+            if (buf.remaining() < HEADER_SIZE) throw IllegalArgumentException("Input array is not long enough to be a packet header!")
             sequenceCount = buf.int
             sequenceNumber = buf.int
             expirationTime = buf.long.toInstant()
             transmissionId = buf.long
-            transmissionType = buf.int
+            val type = buf.int
+            transmissionType = type and TYPE_MASK
+            compression = (type ushr COMPRESSION_SHIFT) and 0xFF
+            reliable = (type and RELIABLE_FLAG) != 0
         }
 
-        /** Pulls the required bytes out of the given buffer. */
-        constructor(buf: ByteBuffer) : this(buf.bytes(HEADER_SIZE))
-
         /** Encodes this header to bytes, compatible with the byte array and buffer constructors. */
         fun toBytes(): ByteArray {
-            return sequenceCount.toBytes() + sequenceNumber.toBytes() + expirationTime.epochSecond.toBytes() + transmissionId.toBytes() + transmissionType.toBytes()
+            val type = transmissionType or (compression shl COMPRESSION_SHIFT) or (if (reliable) RELIABLE_FLAG else 0)
+            return sequenceCount.toBytes() + sequenceNumber.toBytes() + expirationTime.epochSecond.toBytes() + transmissionId.toBytes() + type.toBytes()
         }
     }
 
     /** Represents a segment of a [Transmission].  Do not use directly. */
-    private data class Packet(val content: ByteArray, val sequenceCount: Int, val sequenceNumber: Int, val transmissionId: Long, val transmissionType: Int) {
+    private data class Packet(val content: ByteArray, val sequenceCount: Int, val sequenceNumber: Int, val transmissionId: Long, val transmissionType: Int, val compression: Int, val reliable: Boolean) {
+        /** The size of [bytes]. */
+        val length get() = Header.HEADER_SIZE + content.size
 
-        fun bytes() = Header(
+        /** Encodes this packet, flagged as [reliable] only if every client listening reads the flag as well. */
+        fun bytes(peersReliable: Boolean) = Header(
             sequenceCount,
             sequenceNumber,
-            Instant.now().plus(5, ChronoUnit.SECONDS), transmissionId, transmissionType
+            Instant.now().plus(5, ChronoUnit.SECONDS), transmissionId, transmissionType, compression, reliable && peersReliable
         ).toBytes() + content
 
         override fun equals(other: Any?): Boolean {
@@ -95,6 +172,8 @@ object Packets {
             if (sequenceNumber != other.sequenceNumber) return false
             if (transmissionId != other.transmissionId) return false
             if (transmissionType != other.transmissionType) return false
+            if (compression != other.compression) return false
+            if (reliable != other.reliable) return false
 
             return true
         }
@@ -105,6 +184,8 @@ object Packets {
             result = 31 * result + sequenceNumber
             result = 31 * result + transmissionId.hashCode()
             result = 31 * result + transmissionType
+            result = 31 * result + compression
+            result = 31 * result + reliable.hashCode()
             return result
         }
     }
@@ -118,14 +199,137 @@ object Packets {
 
         /** The time that the last packet was sent at. */
         private var lastSent = Interval()
-        /** A queue of packets waiting to be sent. */
-        private val outgoing = LinkedList<OutgoingTransmission>()
+        /** Transmissions waiting to be sent, one round-robin queue per priority. */
+        private val outgoing = Array(MAX_PRIORITY + 1) { LinkedList<OutgoingTransmission>() }
+        /** The transmissions that have a packet in the write being built, reused between writes. */
+        private val batch = mutableListOf<OutgoingTransmission>()
         /** A list of incoming connections.  Each transmission ID is mapped to a nullable list of bytearray segments. */
         private val incoming = ConcurrentHashMap<Long, IncomingTransmission>()
         /** A list of listeners to be run when a transmission is received. */
         val listeners = mutableListOf<(transmission: Transmission, senderId: Int) -> Unit>()
 
-        data class IncomingTransmission(val segments: MutableList<ByteArray?>, var expirationTime: Instant)
+        /** The number of transmissions waiting to be sent. */
+        val queuedTransmissions get() = outgoing.sumBy { it.size }
+        /** The number of packets waiting to be sent. */
+        val queuedPackets get() = outgoing.sumBy { queue -> queue.sumBy { it.packets.size } }
+        /** The number of packets sent so far. */
+        var packetsSent = 0
+            private set
+        /** The number of writes to the communication system so far, fewer than [packetsSent] when packets are batched. */
+        var writes = 0
+            private set
+        /** The time in milliseconds between queueing recent transmissions and sending their last packet. */
+        val latency = WindowedMean(32)
+        /** The number of packets sent again after receivers asked for them. */
+        var retransmissions = 0
+            private set
+        /**
+         * How long in milliseconds an incomplete reliable transmission has to go without new segments before the
+         * receiver asks for the missing ones, and then how long it waits before asking again.
+         */
+        var ackDelay = 3000L
+        /** The packets of the reliable transmissions sent recently, by transmission ID. */
+        private val retained = HashMap<Long, RetainedTransmission>()
+        /** The other clients heard from, by sender ID. */
+        private val peers = ConcurrentHashMap<Int, Peer>()
+        /** Whether a client was heard from that might not know the capabilities of this one yet. */
+        private var advertise = true
+        /** When a [CapabilityTransmission] was last sent, in milliseconds. */
+        private var lastAdvertised = 0L
+
+        /**
+         * The capabilities that every client heard from in the last [PEER_TIMEOUT] has.  None until one is heard
+         * from, as there may be older clients listening that haven't sent anything yet.
+         */
+        val peerCapabilities: Int get() {
+            val now = Time.millis()
+            var capabilities = -1
+            for (peer in peers.values) {
+                if (now - peer.lastHeard <= PEER_TIMEOUT) capabilities = capabilities and peer.capabilities
+            }
+            return if (capabilities == -1) 0 else capabilities
+        }
+
+        private class Peer(var lastHeard: Long) {
+            /** The capabilities it sent, none until it sends a [CapabilityTransmission]. */
+            var capabilities = 0
+        }
+
+        private class RetainedTransmission(val transmission: OutgoingTransmission, val packets: Array<Packet>) {
+            var retries = 0
+            /** When any of its packets was last sent, in milliseconds. */
+            var lastSent = Time.millis()
+            /** The packets being sent again, if any. */
+            var retransmission: OutgoingTransmission? = null
+        }
+
+        /**
+         * A transmission being received.  Segments are written straight into one buffer at their offsets as they come
+         * in, in any order.  Every segment but the last is the same size, so the buffer is allocated once the first of
+         * those arrives.
+         */
+        class IncomingTransmission(val sequenceCount: Int, val compression: Int, var expirationTime: Instant) {
+            private var buffer: ByteArray? = null
+            /** The size of every segment but the last, -1 until one of them arrives. */
+            private var stride = -1
+            /** The last segment if it arrived before [stride] was known. */
+            private var last: ByteArray? = null
+            private var lastLength = 0
+            private val received = BitSet(sequenceCount)
+            private var remaining = sequenceCount
+            /** Whether the sender wants to know about missing segments. */
+            var reliable = false
+            /** When the last new segment arrived or missing ones were last asked for, in milliseconds. */
+            var lastProgress = Time.millis()
+            var acks = 0
+
+            val isComplete get() = remaining == 0
+
+            /** A copy of the sequence numbers received so far. */
+            fun received() = received.clone() as BitSet
+
+            /**
+             * Copies [length] bytes of [source] starting at [offset] in as segment [index].  Returns false if that
+             * segment was already received.
+             */
+            fun add(index: Int, source: ByteArray, offset: Int, length: Int): Boolean {
+                if (received[index]) return false
+
+                val isLast = index == sequenceCount - 1
+                if (stride == -1) {
+                    if (isLast && sequenceCount > 1) {
+                        last = source.copyOfRange(offset, offset + length)
+                    } else {
+                        stride = length
+                        buffer = ByteArray(stride * sequenceCount)
+                        last?.let { write(sequenceCount - 1, it, 0, it.size) }
+                        last = null
+                    }
+                }
+                if (stride != -1) write(index, source, offset, length)
+                if (isLast) lastLength = length
+
+                received.set(index)
+                remaining--
+                return true
+            }
+
+            private fun write(index: Int, source: ByteArray, offset: Int, length: Int) {
+                if (if (index == sequenceCount - 1) length > stride else length != stride)
+                    throw IllegalArgumentException("Segment $index is $length bytes, other segments are $stride")
+                System.arraycopy(source, offset, buffer!!, index * stride, length)
+            }
+
+            /**
+             * Inflates the complete transmission with the [dictionary] of its type and frees the buffer, later
+             * duplicate segments are still ignored.
+             */
+            fun inflate(dictionary: ByteArray?): ByteArray {
+                val output = TransmissionCompression.inflate(buffer!!, 0, (sequenceCount - 1) * stride + lastLength, compression, dictionary)
+                buffer = null
+                return output
+            }
+        }
 
         init {
             communicationSystem.addListener(::handle)
@@ -137,30 +341,156 @@ object Packets {
 
         /** Updates sending.  Call once per tick. */
         fun update() {
-            if (lastSent.check(0, communicationSystem.RATE)) {
-                val toSend = outgoing.peek() ?: return // Return if there's nothing to send
-
-                // Gets the next packet in this transmission, if there are no more packets move to the next transmission
-                val packet = toSend.packets.poll() ?: run { outgoing.remove(toSend); toSend.onFinish?.invoke(); return }
-
+            if (advertise && Time.millis() - lastAdvertised >= ADVERTISE_INTERVAL) {
+                advertise = false
+                lastAdvertised = Time.millis()
+                send(CapabilityTransmission(CAPABILITIES))
+            }
+            if (lastSent.check(0, communicationSystem.RATE) && queuedTransmissions > 0) {
                 lastSent.reset(0, 0f) // Sending a packet, reset the timer fully
-                try { communicationSystem.send(packet.bytes()) } catch (e: Exception) { outgoing.remove(toSend); toSend.onError?.invoke() }
+                sendNext()
             }
+            val now = Time.millis()
             for (inc in incoming) {
                 if (inc.value.expirationTime.isBefore(Instant.now())) {
                     incoming.remove(inc.key)
+                } else if (inc.value.reliable && !inc.value.isComplete && inc.value.acks < MAX_RETRIES && now - inc.value.lastProgress >= ackDelay) {
+                    // Stalled, tell the sender what arrived so it can send the rest again
+                    inc.value.lastProgress = now
+                    inc.value.acks++
+                    send(AckTransmission(inc.key, inc.value.received()))
+                }
+            }
+            retained.values.removeAll { it.transmission.packets.isEmpty() && now - it.lastSent > RETAIN_TIME }
+            peers.values.removeAll { now - it.lastHeard > PEER_TIMEOUT }
+        }
+
+        /** Notes that [sender] is listening, and that it should be told the capabilities of this client if it is new. */
+        private fun heard(sender: Int) {
+            if (sender == communicationSystem.id) return
+            val peer = peers[sender]
+            if (peer == null) {
+                peers[sender] = Peer(Time.millis())
+                advertise = true
+            } else {
+                peer.lastHeard = Time.millis()
+            }
+        }
+
+        /** Queues the segments [ack] says are missing to be sent again, if they were sent by this client. */
+        private fun acknowledged(ack: AckTransmission) {
+            val entry = retained[ack.transmissionId] ?: return
+            if (entry.retries >= MAX_RETRIES) return
+
+            // Add to the retransmission that is still queued if there is one, multiple receivers may be missing segments
+            val queued = entry.retransmission?.takeIf { outgoing[it.priority].contains(it) }
+            val retransmission = queued ?: OutgoingTransmission(ack.transmissionId, LinkedList(), entry.transmission.priority, null, null)
+            var added = false
+            for (i in 0 until entry.transmission.sent) {
+                if (ack.received[i] || retransmission.packets.any { it.sequenceNumber == i }) continue
+                retransmission.packets.add(entry.packets[i])
+                added = true
+            }
+            if (!added) return
+
+            entry.retries++
+            entry.lastSent = Time.millis()
+            if (queued == null) {
+                entry.retransmission = retransmission
+                outgoing[retransmission.priority].add(retransmission)
+            }
+        }
+
+        /**
+         * Sends the next packet of the first transmission in the highest priority queue that has one, along with the
+         * next packets of as many transmissions after it as fit into the same write if every client listening reads
+         * batches.  Each of them then goes to the back of its queue so that transmissions of the same priority take
+         * turns.
+         */
+        private fun sendNext() {
+            val max = communicationSystem.MAX_LENGTH
+            val capabilities = peerCapabilities
+            val batching = capabilities and BATCHING != 0
+            val reliable = capabilities and RELIABLE != 0
+            var size = Int.SIZE_BYTES
+            batch.clear()
+            queues@ for (priority in MAX_PRIORITY downTo 0) {
+                for (transmission in outgoing[priority]) {
+                    val length = transmission.packets.peek().length
+                    if (batch.isEmpty() || batching && size + Short.SIZE_BYTES + length <= max) {
+                        batch.add(transmission)
+                        size += Short.SIZE_BYTES + length
+                    }
+                    if (!batching || size + Short.SIZE_BYTES + Header.HEADER_SIZE > max) break@queues  // Nothing else fits
+                }
+            }
+
+            val bytes = if (batch.size == 1) batch[0].packets.peek().bytes(reliable) else {
+                val buf = ByteBuffer.allocate(size)
+                buf.putInt(BATCH_MARKER)
+                for (transmission in batch) {
+                    val packet = transmission.packets.peek().bytes(reliable)
+                    buf.putShort(packet.size.toShort())
+                    buf.put(packet)
+                }
+                buf.array()
+            }
+
+            try {
+                communicationSystem.send(bytes)
+            } catch (e: Exception) {
+                for (transmission in batch) {
+                    outgoing[transmission.priority].remove(transmission)
+                    retained.remove(transmission.id)
+                    transmission.onError?.invoke()
+                }
+                return
+            }
+
+            writes++
+            packetsSent += batch.size
+            for (transmission in batch) {
+                val queue = outgoing[transmission.priority]
+                transmission.packets.poll()
+                transmission.sent++
+                val entry = retained[transmission.id]
+                entry?.lastSent = Time.millis()
+                val isRetransmission = entry != null && entry.transmission !== transmission
+                if (isRetransmission) retransmissions++
+
+                queue.remove(transmission)
+                if (transmission.packets.isNotEmpty()) {
+                    queue.add(transmission)
+                } else if (!isRetransmission) {
+                    latency.add((Time.millis() - transmission.queuedAt).toFloat())
+                    transmission.onFinish?.invoke()
                 }
             }
         }
 
-        /** Handles an incoming packet. */
+        /** Handles an incoming write, which is either a single packet or a batch of them. */
         private fun handle(input: ByteArray, sender: Int) {
 //            if (sender == communicationSystem.id) return
+            if (input.size < Int.SIZE_BYTES || input.buffer().getInt(0) != BATCH_MARKER) {
+                handlePacket(input.buffer(), sender)
+                return
+            }
+
             val buf = input.buffer()
+            buf.position(Int.SIZE_BYTES)
+            while (buf.remaining() >= Short.SIZE_BYTES) {
+                val length = buf.short.toInt() and 0xFFFF
+                if (length > buf.remaining()) { Log.debug("Truncated packet batch"); return }
+                handlePacket(ByteBuffer.wrap(input, buf.position(), length), sender)
+                buf.position(buf.position() + length)
+            }
+        }
 
+        /** Handles the packet between the position and limit of [buf]. */
+        private fun handlePacket(buf: ByteBuffer, sender: Int) {
+            val input = buf.array()
             try {
                 val header = Header(buf)
-                val content = buf.remainingBytes()
 
                 if (header.sequenceNumber >= header.sequenceCount)
                     throw IndexOutOfBoundsException("Packet sequence number ${header.sequenceNumber} " +
@@ -179,19 +509,39 @@ object Packets {
                     return
                 }
 
+                heard(sender)
+
                 val entry = incoming[header.transmissionId] ?: run {
                     if (incoming.size > 50) { Log.debug("Too many incoming transmissions"); return@run null }  // too many incoming connections
-                    incoming[header.transmissionId] = IncomingTransmission(MutableList(header.sequenceCount) { null }, Instant.now().plusSeconds(15))  // Create new incoming connection entry
+                    incoming[header.transmissionId] = IncomingTransmission(header.sequenceCount, header.compression, Instant.now().plusSeconds(15))  // Create new incoming connection entry
                     return@run incoming[header.transmissionId]
                 } ?: return
 
-                entry.segments[header.sequenceNumber] = content
+                if (header.sequenceCount != entry.sequenceCount || header.compression != entry.compression) throw IllegalArgumentException("Packet doesn't match the rest of its transmission!")
                 entry.expirationTime = Instant.now().plusSeconds(15)
+                try {
+                    if (!entry.add(header.sequenceNumber, input, buf.position(), buf.remaining())) return  // Duplicate
+                } catch (e: IllegalArgumentException) {
+                    incoming.remove(header.transmissionId)
+                    throw e
+                }
+                entry.reliable = header.reliable
+                entry.lastProgress = Time.millis()
 
-                if (!entry.segments.contains(null)) {
-                    val array = entry.segments.reduceRight { a, b -> a!! + b!! }!!  // Collapse the list of packet contents to the full byte array
-                    val inflated = array.inflate()  // Decompress the transmission
-                    val transmission = registeredTransmissionTypes[header.transmissionType].constructor(inflated, header.transmissionId)  // Deserialize the transmission
+                if (entry.isComplete) {
+                    val type = registeredTransmissionTypes[header.transmissionType]
+                    val inflated = entry.inflate(type.dictionary)  // Decompress the transmission
+                    val transmission = type.constructor(inflated, header.transmissionId)  // Deserialize the transmission
+
+                    if (transmission is AckTransmission) {
+                        acknowledged(transmission)
+                        return
+                    }
+
+                    if (transmission is CapabilityTransmission) {
+                        peers[sender]?.capabilities = transmission.capabilities
+                        return
+                    }
 
                     for (listener in listeners) {
                         listener(transmission, sender)
@@ -200,15 +550,22 @@ object Packets {
             } catch (e: Exception) { Log.err(e) }
         }
 
-        private data class OutgoingTransmission(val packets: Queue<Packet>, val onFinish: (() -> Unit)?, val onError: (() -> Unit)?)
+        private class OutgoingTransmission(val id: Long, val packets: Queue<Packet>, val priority: Int, val onFinish: (() -> Unit)?, val onError: (() -> Unit)?) {
+            /** When it was queued, in milliseconds. */
+            val queuedAt = Time.millis()
+            /** The number of packets sent so far. */
+            var sent = 0
+        }
 
         /**
          * Splits the transmission into packets and queues them for sending.
          * @param transmission The transmission to be sent.
          * @param onFinish A lambda that will be run once it is sent, null by default.
          * @param onError A lambda that will be run when no suitable message block is found.
+         * @param reliable Whether receivers should ask for the segments they missed, which are then sent again.  Only
+         * takes effect while every client listening has [RELIABLE], otherwise it is sent like any other.
          */
-        fun send(transmission: Transmission, onFinish: (() -> Unit)? = null, onError: (() -> Unit)? = null) {
+        fun send(transmission: Transmission, onFinish: (() -> Unit)? = null, onError: (() -> Unit)? = null, reliable: Boolean = false) {
             val type = registeredTransmissionTypes.indexOfFirst { it.type == transmission::class }
 
             if (type == -1)
@@ -216,15 +573,22 @@ object Packets {
 
             val usableBytesPerPacket = communicationSystem.MAX_LENGTH - Header.HEADER_SIZE
 
-            // Compress the transmission and chunk it so it
-            val batches = transmission.serialize().compress().toList().chunked(usableBytesPerPacket) { it.toByteArray() }
+            // Compress the transmission and chunk it so that each chunk fits in a packet
+            val registered = registeredTransmissionTypes[type]
+            val compressed = TransmissionCompression.compress(transmission.serialize(), peerCapabilities and COMPRESSION != 0, registered.dictionary)
+            val bytes = compressed.bytes
+            val count = max((bytes.size + usableBytesPerPacket - 1) / usableBytesPerPacket, 1)
 
             val packets = LinkedList<Packet>()
-            for ((index, content) in batches.withIndex()) {
-                packets.add(Packet(content, batches.size, index, transmission.id, type))
+            for (index in 0 until count) {
+                val content = bytes.copyOfRange(index * usableBytesPerPacket, min((index + 1) * usableBytesPerPacket, bytes.size))
+                packets.add(Packet(content, count, index, transmission.id, type, compressed.version, reliable))
             }
 
-            outgoing.add(OutgoingTransmission(packets, onFinish, onError))
+            val priority = registered.priority
+            val outgoingTransmission = OutgoingTransmission(transmission.id, packets, priority, onFinish, onError)
+            if (reliable) retained[transmission.id] = RetainedTransmission(outgoingTransmission, packets.toTypedArray())
+            outgoing[priority].add(outgoingTransmission)
         }
     }
 }
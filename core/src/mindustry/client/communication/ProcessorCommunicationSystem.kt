@@ -8,7 +8,6 @@ import mindustry.client.crypto.Base32768Coder
 import mindustry.client.utils.base32678
 import mindustry.game.EventType
 import mindustry.gen.Call
-import mindustry.gen.Groups
 import mindustry.logic.LExecutor
 import mindustry.world.blocks.logic.LogicBlock
 import java.io.IOException
@@ -24,15 +23,7 @@ object ProcessorCommunicationSystem : CommunicationSystem() {
     override val RATE = MessageBlockCommunicationSystem.RATE
     const val PREFIX = "end\nprint \"client networking, do not edit/remove\""
 
-    private fun findProcessor(): LogicBlock.LogicBuild? {
-        for (build in Groups.build) {
-            val b = build as? LogicBlock.LogicBuild ?: continue
-            if (b.code.startsWith(PREFIX)) {
-                return b
-            }
-        }
-        return null
-    }
+    private fun findProcessor() = RelayRegistry.processor()
 
     override fun send(bytes: ByteArray) {
         val processor = findProcessor() ?: throw IOException("No matching processor found!")
@@ -0,0 +1,119 @@
+package mindustry.client.communication
+
+import arc.*
+import arc.math.*
+import arc.struct.*
+import mindustry.Vars.*
+import mindustry.client.*
+import mindustry.game.*
+import mindustry.gen.*
+import mindustry.world.*
+import mindustry.world.blocks.logic.*
+
+/**
+ * The message blocks and processors each team has set up for client networking, kept up to date from build, destroy
+ * and config events instead of searching the map every time something is sent.  Relays are ranked by distance to the
+ * player, and ones that stopped being usable are dropped when they are looked up so the next one takes over.
+ */
+object RelayRegistry {
+    /** How far the player can move in world units before the relays are ranked again. */
+    private const val RERANK_DISTANCE = 8f * tilesize
+
+    private val byTeam = arrayOfNulls<Relays>(Team.all.size)
+
+    private class Relays {
+        val processors = Seq<LogicBlock.LogicBuild>()
+        val messages = Seq<MessageBlock.MessageBuild>()
+        /** Where the player was when these were last ranked, NaN when a relay was added since. */
+        var rankedX = Float.NaN
+        var rankedY = Float.NaN
+    }
+
+    fun init() {
+        Events.on(EventType.WorldLoadEvent::class.java) {
+            byTeam.fill(null)
+            for (build in Groups.build) update(build)
+        }
+
+        Events.on(EventType.BlockBuildEndEvent::class.java) {
+            if (it.breaking) remove(it.tile) else update(it.tile.build)
+        }
+
+        Events.on(EventType.BlockDestroyEvent::class.java) { remove(it.tile) }
+
+        Events.on(EventType.ConfigEvent::class.java) { update(it.tile) }
+    }
+
+    /** The closest processor of [team] set up for networking, if there is one. */
+    fun processor(team: Team = player.team()): LogicBlock.LogicBuild? {
+        val relays = ranked(team) ?: return null
+        return first(relays.processors) { it.team == team && isRelay(it) }
+    }
+
+    /** The closest message block of [team] set up for networking, if there is one. */
+    fun message(team: Team = player.team()): MessageBlock.MessageBuild? {
+        val relays = ranked(team) ?: return null
+        return first(relays.messages) { it.team == team && isRelay(it) }
+    }
+
+    fun isRelay(build: LogicBlock.LogicBuild) = build.code.startsWith(MessageBlockCommunicationSystem.LOGIC_PREFIX)
+
+    fun isRelay(build: MessageBlock.MessageBuild) = build.message.startsWith(ClientVars.MESSAGE_BLOCK_PREFIX)
+
+    /** Adds [build] if it is set up as a relay, or removes it if it no longer is. */
+    private fun update(build: Building?) {
+        build ?: return
+        when (build) {
+            is LogicBlock.LogicBuild -> {
+                val processors = relays(build.team).processors
+                if (!isRelay(build)) processors.remove(build, true)
+                else if (!processors.contains(build, true)) added(build.team, processors, build)
+            }
+            is MessageBlock.MessageBuild -> {
+                val messages = relays(build.team).messages
+                if (!isRelay(build)) messages.remove(build, true)
+                else if (!messages.contains(build, true)) added(build.team, messages, build)
+            }
+        }
+    }
+
+    private fun <T : Building> added(team: Team, seq: Seq<T>, build: T) {
+        seq.add(build)
+        relays(team).rankedX = Float.NaN
+    }
+
+    /** Removes whatever relay was on [tile], which by now may have been replaced by a construction site. */
+    private fun remove(tile: Tile) {
+        for (team in byTeam) {
+            team ?: continue
+            team.processors.removeAll { it.tile == tile }
+            team.messages.removeAll { it.tile == tile }
+        }
+    }
+
+    private fun relays(team: Team) = byTeam[team.id] ?: Relays().also { byTeam[team.id] = it }
+
+    /** The relays of [team], sorted by distance to the player if they were added to or the player moved far enough. */
+    private fun ranked(team: Team): Relays? {
+        val relays = byTeam[team.id] ?: return null
+        val x = player.x
+        val y = player.y
+        if (relays.rankedX.isNaN() || Mathf.dst2(x, y, relays.rankedX, relays.rankedY) > RERANK_DISTANCE * RERANK_DISTANCE) {
+            relays.processors.sort { it.dst2(x, y) }
+            relays.messages.sort { it.dst2(x, y) }
+            relays.rankedX = x
+            relays.rankedY = y
+        }
+        return relays
+    }
+
+    /** The first valid item of [seq], dropping any invalid ones in front of it. */
+    private inline fun <T : Building> first(seq: Seq<T>, valid: (T) -> Boolean): T? {
+        while (!seq.isEmpty) {
+            val build = seq.first()
+            if (build.isValid && valid(build)) return build
+            seq.remove(0)
+        }
+        return null
+    }
+}
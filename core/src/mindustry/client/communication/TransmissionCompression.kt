@@ -0,0 +1,131 @@
+package mindustry.client.communication
+
+import mindustry.client.utils.*
+import java.io.*
+import java.util.zip.*
+
+/**
+ * Compresses transmissions before they are split into packets.  Most transmissions are a few dozen bytes, where a
+ * zlib stream mostly adds its own overhead, so they are sent as raw deflate or not compressed at all when that doesn't
+ * make them smaller.  Types whose transmissions share bytes with each other also register a preset dictionary of them,
+ * which deflate can refer to from the first byte on.  The version used is sent in the header of every packet so the
+ * receiver knows how to inflate it.
+ * Clients from before there were versions only read [ZLIB], so the others are only sent once every client listening
+ * has [Packets.COMPRESSION].
+ */
+object TransmissionCompression {
+    /** zlib, what clients sent before there were versions. */
+    const val ZLIB = 0
+    /** Raw deflate, without the zlib header and checksum. */
+    const val DEFLATE = 1
+    /** Not compressed at all. */
+    const val STORED = 2
+    /** Raw deflate primed with the dictionary of the transmission type.  Changing a dictionary needs a new version. */
+    const val DICTIONARY = 3
+
+    /**
+     * The bytes around the rotations and empty configs of build plans as TypeIO.writeRequests writes them, trained with
+     * [train] on synthesized build queues like the ones in CompressionTests.  Signatures and encrypted messages have
+     * none, as all they share is the time they were sent, which a dictionary would only match for a while.
+     */
+    val buildQueueDictionary = byteArrayOf(1, 1, 0, 0, 0, 2, 1, 0, 1, 0, 2, 1, 0, 0, 0)
+
+    /** The most bytes a transmission may inflate to, as the input comes from other clients. */
+    const val MAX_INFLATED = 1 shl 20
+
+    /** Compressed bytes along with the version that inflates them. */
+    class Compressed(val bytes: ByteArray, val version: Int)
+
+    private val deflater = ThreadLocal.withInitial { Deflater(Deflater.BEST_COMPRESSION, true) }
+    private val inflater = ThreadLocal.withInitial { Inflater(true) }
+    private val zlibInflater = ThreadLocal.withInitial { Inflater() }
+    private val buffer = ThreadLocal.withInitial { ByteArray(4096) }
+
+    /**
+     * Compresses [input] as raw deflate, with and without [dictionary] if there is one, or stores it as is, whichever
+     * is smallest.  Only [ZLIB] if not [versioned].
+     */
+    fun compress(input: ByteArray, versioned: Boolean = true, dictionary: ByteArray? = null): Compressed {
+        if (!versioned) return Compressed(Compression.compress(input), ZLIB)
+
+        val deflated = deflate(input, null, input.size)
+        val primed = dictionary?.let { deflate(input, it, deflated?.size ?: input.size) }
+        return when {
+            primed != null -> Compressed(primed, DICTIONARY)
+            deflated != null -> Compressed(deflated, DEFLATE)
+            else -> Compressed(input, STORED)
+        }
+    }
+
+    /** Deflates [input] with [dictionary], or returns null if that takes [limit] bytes or more. */
+    private fun deflate(input: ByteArray, dictionary: ByteArray?, limit: Int): ByteArray? {
+        val deflater = deflater.get()
+        val buffer = buffer.get()
+        deflater.reset()
+        if (dictionary != null) deflater.setDictionary(dictionary)
+        deflater.setInput(input)
+        deflater.finish()
+
+        val output = ByteArrayOutputStream(input.size / 2 + 16)
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer))
+            if (output.size() >= limit) return null  // Not worth it
+        }
+        return output.toByteArray()
+    }
+
+    /**
+     * Builds a dictionary of at most [size] bytes for transmissions like [samples], out of the runs of [length] bytes
+     * that at least a quarter of them contain.  The runs most of them contain go last, where deflate refers to them
+     * with the shortest distances.  Deterministic, so the same samples always give the same dictionary.
+     */
+    fun train(samples: List<ByteArray>, size: Int, length: Int = 5): ByteArray {
+        // Latin-1 maps every byte to the char of the same value, so runs compare and hash by their bytes
+        val counts = HashMap<String, Int>()
+        for (sample in samples) {
+            val text = String(sample, Charsets.ISO_8859_1)
+            (0..sample.size - length).mapTo(HashSet()) { text.substring(it, it + length) }.forEach { counts[it] = (counts[it] ?: 0) + 1 }
+        }
+
+        var dictionary = ""
+        val common = counts.filter { it.value * 4 >= samples.size }.keys.sortedWith(compareBy({ -counts[it]!! }, { it }))
+        for (run in common) {
+            if (run in dictionary) continue
+            if (dictionary.length + length > size) break
+            dictionary = run + dictionary
+        }
+        return dictionary.toByteArray(Charsets.ISO_8859_1)
+    }
+
+    /**
+     * Inflates [length] bytes of [input] starting at [offset] that were compressed with [version], and with
+     * [dictionary] if that is [DICTIONARY].
+     */
+    @Throws(IOException::class)
+    fun inflate(input: ByteArray, offset: Int, length: Int, version: Int, dictionary: ByteArray? = null): ByteArray {
+        val inflater = when (version) {
+            ZLIB -> zlibInflater.get()
+            DEFLATE, DICTIONARY -> inflater.get()
+            STORED -> return input.copyOfRange(offset, offset + length)
+            else -> throw IOException("Unknown compression version $version")
+        }
+
+        val buffer = buffer.get()
+        inflater.reset()
+        if (version == DICTIONARY) inflater.setDictionary(dictionary ?: throw IOException("No dictionary for this transmission type"))
+        inflater.setInput(input, offset, length)
+
+        val output = ByteArrayOutputStream(length * 2)
+        try {
+            while (!inflater.finished()) {
+                val count = inflater.inflate(buffer)
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw IOException("Truncated transmission")
+                if (output.size() + count > MAX_INFLATED) throw IOException("Transmission inflates to more than $MAX_INFLATED bytes")
+                output.write(buffer, 0, count)
+            }
+        } catch (e: DataFormatException) {
+            throw IOException(e)
+        }
+        return output.toByteArray()
+    }
+}
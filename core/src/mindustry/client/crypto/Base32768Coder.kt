@@ -4,45 +4,113 @@ import mindustry.client.crypto.Base32768Coder.BITS
 import mindustry.client.utils.ceil
 import mindustry.client.utils.floor
 import java.io.IOException
-import java.math.BigInteger
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
 
 /** You've heard of base64, now get ready for... base32768.  Encodes 15 bits of data into each unicode character,
  * which so far has not caused any problems.  If it turns out to break stuff, the [BITS] constant can be changed
  * to a more sensible value.  Note that it is not just a base conversion, it also has a length prefix.
+ *
+ * The input is read as one big endian number with a 1 bit in front of it, which is written out [BITS] bits per
+ * character starting from the least significant end and followed by a character holding the input length.  Both
+ * directions are done in a single pass, a few bits at a time.
  * TODO: maybe move to arbitrary base?  It sucks that it can't be 16 bit just because it has to avoid a couple chars.
  */
 object Base32768Coder {
     private const val BITS = 15
+    private const val MASK = (1 shl BITS) - 1
+    /** Added to every character so that none of them are control characters. */
+    private const val OFFSET = 128
 
     fun availableBytes(length: Int) = ((length.toDouble() * BITS) / 8).floor()
 
     fun encodedLengthOf(bytes: Int) = ((bytes.toDouble() * 8) / BITS).ceil()
 
+    /** The exact number of chars [bytes] bytes encode into, including the length. */
+    fun encodedChars(bytes: Int) = (bytes * 8 + 1 + BITS - 1) / BITS + Character.charCount(bytes + OFFSET)
+
     fun encode(input: ByteArray): String {
-        var inp = BigInteger(byteArrayOf(1).plus(input))
-        val out = mutableListOf<Int>()
-        val andValue = 2.toBigInteger().pow(BITS) - 1.toBigInteger()
-        while (inp != BigInteger.ZERO) {
-            out.add((inp and andValue).toInt() + 128)
-            inp = inp shr BITS
+        val output = CharBuffer.allocate(encodedChars(input.size))
+        encodeTo(ByteBuffer.wrap(input), output)
+        return String(output.array())
+    }
+
+    /** Encodes the remaining bytes of [input] into [output], leaving the position of [input] where it was. */
+    fun encodeTo(input: ByteBuffer, output: CharBuffer) {
+        val start = input.position()
+        var bits = 0L
+        var count = 0
+
+        // Least significant first, so from the end of the input
+        for (i in input.limit() - 1 downTo start) {
+            bits = bits or ((input.get(i).toLong() and 0xFF) shl count)
+            count += 8
+            if (count >= BITS) {
+                output.put(((bits and MASK.toLong()).toInt() + OFFSET).toChar())
+                bits = bits ushr BITS
+                count -= BITS
+            }
+        }
+
+        // The leading 1 bit makes leading zero bytes count
+        bits = bits or (1L shl count)
+        count++
+        while (count > 0) {
+            output.put(((bits and MASK.toLong()).toInt() + OFFSET).toChar())
+            bits = bits ushr BITS
+            count -= BITS
         }
-        return String(out.toIntArray(), 0, out.size) + String(intArrayOf(input.size + 128), 0, 1)
+
+        output.put(Character.toChars(input.limit() - start + OFFSET))
+    }
+
+    /** The number of bytes [input] decodes into. */
+    @Throws(IOException::class)
+    fun decodedLength(input: CharSequence): Int {
+        if (input.isEmpty()) throw IOException("Empty input")
+        val length = Character.codePointAt(input, input.length - 1) - OFFSET
+        if (length < 0) throw IOException("Invalid length $length")
+        return length
     }
 
     @Throws(IOException::class)
     fun decode(input: String): ByteArray {
-        try {
-            val length = input.codePointAt(input.length - 1) - 128
-            var out = BigInteger("0")
+        val output = ByteBuffer.allocate(decodedLength(input))
+        decodeFrom(input, output)
+        return output.array()
+    }
 
-            for ((index, s) in input.dropLast(1).chunked(1).withIndex()) {
-                out += (s.codePointAt(0) - 128).toBigInteger() shl (index * BITS)
+    /**
+     * Decodes [input] into [output] starting at its position, which is advanced past the decoded bytes.
+     * Returns the number of bytes decoded.
+     */
+    @Throws(IOException::class)
+    fun decodeFrom(input: CharSequence, output: ByteBuffer): Int {
+        val length = decodedLength(input)
+        if (output.remaining() < length) throw IOException("Output has ${output.remaining()} bytes left, $length are needed")
+        val start = output.position()
+        val chars = input.length - Character.charCount(length + OFFSET)
+
+        var bits = 0L
+        var count = 0
+        var written = 0
+        for (i in 0 until chars) {
+            val value = input[i].toInt() - OFFSET
+            if (value < 0 || value > MASK) throw IOException("Invalid character at $i")
+            bits = bits or (value.toLong() shl count)
+            count += BITS
+            // Bytes come out least significant first, so they are written from the end
+            while (count >= 8 && written < length) {
+                output.put(start + length - 1 - written, bits.toByte())
+                bits = bits ushr 8
+                count -= 8
+                written++
             }
-            val outp = out.toByteArray().plus(0)
-            return outp.sliceArray(1..length)
-        } catch (e: Exception) {
-            throw IOException(e)
         }
+        if (written < length) throw IOException("Input is too short, $written of $length bytes found")
+
+        output.position(start + length)
+        return length
     }
 
     fun encode(string: String): String {
@@ -3,6 +3,12 @@ package mindustry.client.crypto
 import com.beust.klaxon.*
 
 data class KeyHolder(val keys: PublicKeyPair, val name: String, val official: Boolean = false, @Json(ignored = true) val messageCrypto: MessageCrypto) {
+    /**
+     * Agreed on when first used, as most keys never are in a session and there can be thousands of them.  Incoming
+     * messages try every key, which happens off the main thread.
+     */
     @Json(ignored = true)
-    val crypto = CryptoClient(messageCrypto.keyQuad).apply { generate(keys) }
+    val crypto by lazy { CryptoClient(messageCrypto.keyQuad).apply { generate(keys) } }
+    @Json(ignored = true)
+    val hint = SignatureTransmission.keyHint(keys)
 }
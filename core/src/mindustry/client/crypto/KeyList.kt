@@ -2,4 +2,14 @@ package mindustry.client.crypto
 
 import mindustry.client.Initializable
 
-interface KeyList : MutableSet<KeyHolder>, Initializable
+interface KeyList : MutableSet<KeyHolder>, Initializable {
+
+    /** The key holder for [keys], if there is one. */
+    fun find(keys: PublicKeyPair): KeyHolder? = find { it.keys == keys }
+
+    /** The key holder called [name], if there is one. */
+    fun named(name: String): KeyHolder? = find { it.name == name }
+
+    /** The key holders whose [KeyHolder.hint] is [hint], usually one at most. */
+    fun hinted(hint: Int): List<KeyHolder> = filter { it.hint == hint }
+}
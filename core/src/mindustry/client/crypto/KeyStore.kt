@@ -0,0 +1,194 @@
+package mindustry.client.crypto
+
+import arc.files.*
+import arc.util.*
+import com.beust.klaxon.*
+import mindustry.client.*
+import mindustry.client.utils.*
+
+/**
+ * Key holders indexed by their keys, names and hints, so that finding the ones that signed or sent a message doesn't
+ * go through all of them.  Changes are appended to a log next to the snapshot instead of rewriting it every time,
+ * and the log is compacted into the snapshot once it has more entries than there are keys.  Iterating goes over the
+ * keys as they were when it started without copying them, so it's safe to do from other threads or while changing it.
+ */
+class KeyStore : KeyList {
+    private val klaxon = Klaxon().converter(KeyHolderJson)
+    private val list = ArrayList<KeyHolder>()
+    /** The contents of [list], replaced instead of modified so that iterators can keep using the old one. */
+    @Volatile private var items = arrayOf<KeyHolder>()
+    private val byKeys = HashMap<PublicKeyPair, KeyHolder>()
+    private val byName = HashMap<String, KeyHolder>()
+    private val byHint = HashMap<Int, List<KeyHolder>>()
+
+    /** Where the keys are saved, null until [load] is called. */
+    private var snapshot: Fi? = null
+    private var log: Fi? = null
+    private var logged = 0
+
+    /** Loads the keys saved in [snapshot] along with the changes logged since, and saves any further changes there. */
+    fun load(snapshot: Fi) {
+        this.snapshot = snapshot
+        val log = snapshot.sibling(snapshot.name() + ".log")
+        this.log = log
+
+        if (snapshot.exists()) {
+            klaxon.parseArray<KeyHolder>(snapshot.readString())?.forEach { insert(it) }
+        }
+        if (log.exists()) {
+            val contents = log.readString()
+            for (line in contents.lineSequence()) {
+                if (line.isEmpty()) continue
+                try {
+                    replay(line)
+                    logged++
+                } catch (e: Exception) {
+                    Log.err("Skipping unreadable key log entry: @", e.message)  // Most likely cut off by a crash while writing
+                }
+            }
+            if (contents.isNotEmpty() && !contents.endsWith('\n')) log.writeString("\n", true)  // So that the next entry isn't appended to it
+        }
+        publish()
+        if (logged > compactThreshold()) compact()
+    }
+
+    override fun find(keys: PublicKeyPair) = byKeys[keys]
+
+    override fun named(name: String) = byName[name]
+
+    override fun hinted(hint: Int) = byHint[hint] ?: emptyList()
+
+    override val size: Int get() = items.size
+
+    override fun isEmpty() = items.isEmpty()
+
+    override fun contains(element: KeyHolder) = byKeys[element.keys] == element
+
+    override fun containsAll(elements: Collection<KeyHolder>) = elements.all { contains(it) }
+
+    /** Adds [element], replacing the holder of the same keys if there is one. */
+    override fun add(element: KeyHolder): Boolean {
+        if (!insert(element)) return false
+        append("+" + entry(element))
+        publish()
+        return true
+    }
+
+    override fun addAll(elements: Collection<KeyHolder>): Boolean {
+        val added = elements.filter { insert(it) }
+        added.forEach { append("+" + entry(it)) }
+        publish()
+        return added.isNotEmpty()
+    }
+
+    override fun remove(element: KeyHolder): Boolean {
+        if (!contains(element)) return false
+        delete(element)
+        append("-" + element.keys.serialize().base64())
+        publish()
+        return true
+    }
+
+    override fun removeAll(elements: Collection<KeyHolder>) = removeWhere { it in elements }
+
+    override fun retainAll(elements: Collection<KeyHolder>) = removeWhere { it !in elements }
+
+    private inline fun removeWhere(predicate: (KeyHolder) -> Boolean): Boolean {
+        val removed = items.filter(predicate)
+        removed.forEach { delete(it); append("-" + it.keys.serialize().base64()) }
+        publish()
+        return removed.isNotEmpty()
+    }
+
+    override fun clear() {
+        list.clear()
+        byKeys.clear()
+        byName.clear()
+        byHint.clear()
+        publish()
+        compact()
+    }
+
+    override fun iterator(): MutableIterator<KeyHolder> = KeyIterator(items)
+
+    private inner class KeyIterator(private val items: Array<KeyHolder>) : MutableIterator<KeyHolder> {
+        private var i = 0
+
+        override fun hasNext() = i < items.size
+
+        override fun next() = if (i < items.size) items[i++] else throw NoSuchElementException()
+
+        override fun remove() {
+            check(i > 0) { "next() has not been called" }
+            remove(items[i - 1])
+        }
+    }
+
+    /** Indexes [holder] unless it is already here, replacing any other holder of its keys. */
+    private fun insert(holder: KeyHolder): Boolean {
+        val existing = byKeys[holder.keys]
+        if (existing == holder) return false
+        if (existing != null) delete(existing)
+
+        list.add(holder)
+        byKeys[holder.keys] = holder
+        byName[holder.name] = holder
+        byHint[holder.hint] = (byHint[holder.hint] ?: emptyList()) + holder
+        return true
+    }
+
+    private fun delete(holder: KeyHolder) {
+        list.remove(holder)
+        byKeys.remove(holder.keys)
+        if (byName[holder.name] === holder) {
+            val other = list.lastOrNull { it.name == holder.name }
+            if (other == null) byName.remove(holder.name) else byName[holder.name] = other
+        }
+        val hinted = (byHint[holder.hint] ?: emptyList()) - holder
+        if (hinted.isEmpty()) byHint.remove(holder.hint) else byHint[holder.hint] = hinted
+    }
+
+    private fun publish() {
+        items = list.toTypedArray()
+    }
+
+    /** A log line is the keys, whether they're official and the name, or a minus and the keys when they were removed. */
+    private fun entry(holder: KeyHolder) =
+        "${holder.keys.serialize().base64()} ${if (holder.official) 1 else 0} ${holder.name.toByteArray().base64()}"
+
+    private fun replay(line: String) {
+        val parts = line.substring(1).split(' ')
+        val keys = PublicKeyPair(parts[0].base64()!!)
+        when (line[0]) {
+            '+' -> insert(KeyHolder(keys, parts[2].base64()!!.decodeToString(), parts[1] == "1", Main.messageCrypto))
+            '-' -> byKeys[keys]?.let { delete(it) }
+            else -> throw IllegalArgumentException("Unknown key log entry $line")
+        }
+    }
+
+    private fun append(line: String) {
+        val log = log ?: return
+        log.writeString(line + "\n", true)
+        if (++logged > compactThreshold()) compact()
+    }
+
+    private fun compactThreshold() = maxOf(list.size, MIN_COMPACT)
+
+    /**
+     * Writes every key to the snapshot and empties the log.  The snapshot is replaced in one move, and replaying the
+     * log again on top of it changes nothing, so a crash at any point here loses no keys.
+     */
+    private fun compact() {
+        val snapshot = snapshot ?: return
+        val temporary = snapshot.sibling(snapshot.name() + ".tmp")
+        temporary.writeString(klaxon.toJsonString(list))
+        temporary.moveTo(snapshot)
+        log?.delete()
+        logged = 0
+    }
+
+    companion object {
+        /** The log is not compacted before it has this many entries, even when there are fewer keys. */
+        private const val MIN_COMPACT = 64
+    }
+}
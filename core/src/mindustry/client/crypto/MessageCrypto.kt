@@ -3,6 +3,7 @@ package mindustry.client.crypto
 import arc.*
 import arc.graphics.*
 import arc.util.*
+import arc.util.async.*
 import arc.util.serialization.*
 import mindustry.*
 import mindustry.client.*
@@ -14,7 +15,10 @@ import mindustry.game.*
 import mindustry.gen.*
 import java.nio.*
 import java.time.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.*
 import java.util.zip.*
+import kotlin.math.*
 
 /** Provides the interface between [Crypto] and a [CommunicationSystem], and handles some UI stuff. */
 class MessageCrypto {
@@ -25,6 +29,8 @@ class MessageCrypto {
     private var received: ReceivedTriple? = null // Maps player ID to last sent message
     var keys: KeyList = KeyFolder
     val listeners = mutableListOf<(MessageCryptoEvent) -> Unit>()
+    /** The key each sender's signature last matched, tried before any others. */
+    private val affinity = ConcurrentHashMap<Int, KeyHolder>()
 
     private fun fire(event: MessageCryptoEvent) {
         listeners.forEach {
@@ -34,6 +40,9 @@ class MessageCrypto {
 
     companion object {
         private const val ENCRYPTION_VALIDITY = 0b10101010.toByte()
+        private val verifierThreads = max(Runtime.getRuntime().availableProcessors() - 1, 1)
+        /** Verifies signatures so that checking them against every key doesn't hold up the main thread. */
+        private val verifier = AsyncExecutor(verifierThreads)
 
         open class MessageCryptoEvent
 
@@ -121,14 +130,97 @@ class MessageCrypto {
             return
         }
 
-        for (key in keys) {
-            val match = verify(player.message, received.id, received.transmission.signature, key.keys, received.transmission.time.epochSecond)
-            if (match) {
-                event(player.id, key, player.message, true)
-                return
-            }
+        findSigner(player.message, received.id, received.transmission) { key ->
+            if (key != null) event(player.id, key, player.message, true)
+            else event()
         }
-        event()
+    }
+
+    /**
+     * Finds which of [keys] signed [message] on worker threads, and passes it to [done] on the main thread or null if
+     * none did.  The key that last matched the sender and the ones with the right hint are tried first, only if none
+     * of them match are the rest split between the workers.
+     */
+    fun findSigner(message: String, sender: Int, transmission: SignatureTransmission, done: (KeyHolder?) -> Unit) {
+        val likely = keys.hinted(transmission.keyHint).toMutableList()
+        val last = affinity[sender]
+        if (last != null && last in keys) {
+            likely.remove(last)
+            likely.add(0, last)
+        }
+        val candidates = keys  // Iterated on the workers, only if none of the likely ones match
+
+        val time = transmission.time.epochSecond
+        fun matches(key: KeyHolder) = verify(message, sender, transmission.signature, key.keys, time)
+        fun finish(key: KeyHolder?) {
+            if (key != null) affinity[sender] = key
+            post { done(key) }
+        }
+
+        verifier.submit(Runnable {
+            val match = likely.find { matches(it) }
+            val rest = if (match == null) candidates.filter { it !in likely } else emptyList()
+            if (match != null || rest.isEmpty()) {
+                finish(match)
+                return@Runnable
+            }
+
+            val chunks = rest.chunked(ceil(rest.size.toDouble() / verifierThreads).toInt())
+            val found = AtomicReference<KeyHolder?>()
+            val remaining = AtomicInteger(chunks.size)
+            for (chunk in chunks) {
+                verifier.submit(Runnable {
+                    for (key in chunk) {
+                        if (found.get() != null) break  // Another worker found it
+                        if (matches(key)) found.compareAndSet(null, key)
+                    }
+                    if (remaining.decrementAndGet() == 0) finish(found.get())
+                })
+            }
+        })
+    }
+
+    /**
+     * Tries every key on [input] on a worker thread, as trying a key for the first time agrees on a secret with it and
+     * there can be thousands.  The messages are passed to the listeners on the main thread.
+     */
+    private fun decrypt(input: EncryptedMessageTransmission, sender: Int) {
+        val candidates = keys
+        verifier.submit(Runnable {
+            for (key in candidates) {
+                val str = try {
+                    val decoded = key.crypto.decrypt(input.ciphertext)
+
+                    val buffer = ByteBuffer.wrap(decoded)
+                    val timeSent = buffer.long
+                    val validity = buffer.get()
+                    val plaintext = buffer.remainingBytes()
+
+                    if (validity != ENCRYPTION_VALIDITY) continue
+
+                    if (timeSent.toInstant().age() > 3 || input.timeSent.age() > 3) continue
+
+                    plaintext.inflate().decodeToString()
+                } catch (ignored: Exception) { continue }
+
+                post {
+                    fire(
+                        EncryptedMessageEvent(
+                            sender,
+                            key,
+                            str,
+                            if (sender == communicationClient.communicationSystem.id && Core.app?.isDesktop == true) Vars.player.name else key.name
+                        )
+                    )
+                }
+            }
+        })
+    }
+
+    /** Runs [runnable] on the main thread, or right away when there is none as in tests. */
+    private fun post(runnable: () -> Unit) {
+        val app = Core.app
+        if (app == null) runnable() else app.post { runnable() }
     }
 
     /**
@@ -144,9 +236,13 @@ class MessageCrypto {
 
     /** Signs an outgoing message.  Includes the sender ID and current time to prevent impersonation and replay attacks. */
     fun sign(message: String, key: KeyQuad) {
-        val time = Instant.now()
-        val signature = Crypto.sign(stringToSendable(message, communicationClient.communicationSystem.id, time.epochSecond), key.edPrivateKey)
-        communicationClient.send(SignatureTransmission(signature, time))
+        communicationClient.send(signature(message, communicationClient.communicationSystem.id, key))
+    }
+
+    /** Creates the [SignatureTransmission] for [message] as sent by [sender], hinting at the key it was signed with. */
+    fun signature(message: String, sender: Int, key: KeyQuad, time: Instant = Instant.now()): SignatureTransmission {
+        val signature = Crypto.sign(stringToSendable(message, sender, time.epochSecond), key.edPrivateKey)
+        return SignatureTransmission(signature, time, SignatureTransmission.keyHint(key.publicPair()))
     }
 
     fun encrypt(message: String, destination: KeyHolder) {
@@ -169,34 +265,7 @@ class MessageCrypto {
                     received = ReceivedTriple(sender, Instant.now().epochSecond, input)
                     check(player, received)
                 }
-                is EncryptedMessageTransmission -> {
-                    for (key in keys) {
-                        val crypto = key.crypto
-                        try {
-                            val decoded = crypto.decrypt(input.ciphertext)
-
-                            val buffer = ByteBuffer.wrap(decoded)
-                            val timeSent = buffer.long
-                            val validity = buffer.get()
-                            val plaintext = buffer.remainingBytes()
-
-                            if (validity != ENCRYPTION_VALIDITY) continue
-
-                            if (timeSent.toInstant().age() > 3 || input.timeSent.age() > 3) continue
-
-                            val str = plaintext.inflate().decodeToString()
-
-                            fire(
-                                EncryptedMessageEvent(
-                                    sender,
-                                    key,
-                                    str,
-                                    if (sender == communicationClient.communicationSystem.id && Core.app?.isDesktop == true) Vars.player.name else key.name
-                                )
-                            )
-                        } catch (ignored: Exception) {}
-                    }
-                }
+                is EncryptedMessageTransmission -> decrypt(input, sender)
             }
         } catch (e: Exception) { e.printStackTrace() }
     }
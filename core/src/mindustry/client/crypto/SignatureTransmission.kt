@@ -8,15 +8,34 @@ import kotlin.random.*
 
 class SignatureTransmission : Transmission {
 
+    companion object {
+        /** A short, non unique ID for [key], so receivers can try the keys it could be first. */
+        fun keyHint(key: PublicKeyPair) = key.edPublicKey.encoded.contentHashCode()
+    }
+
     override var id = Random.nextLong()
     val signature: ByteArray  // ED25519 signature
     val time: Instant  // Instant that it was signed at, required for validation
+    /**
+     * The [keyHint] of the signing key.  It is kept in the upper half of the [id] so that the serialized transmission
+     * stays the same for older clients, which read the id as random as they always did.
+     *
+     * The id is also what [Packets] reassembles transmissions by, so signature transmissions only have 32 random bits
+     * of it, shared with everything else signed by the same key.  Two of them would have to be in flight at once to
+     * collide, and even then one is dropped, not misread.  Transmissions from older clients have 64 random bits, so
+     * their hint is meaningless.  It is only an ordering hint, so that only costs trying the other keys first.
+     */
+    val keyHint get() = (id ushr 32).toInt()
 
     constructor(signature: ByteArray, time: Instant) {
         this.signature = signature
         this.time = time
     }
 
+    constructor(signature: ByteArray, time: Instant, keyHint: Int) : this(signature, time) {
+        id = (keyHint.toLong() shl 32) or (Random.nextInt().toLong() and 0xFFFFFFFFL)
+    }
+
     constructor(input: ByteArray, id: Long) {
         val buf = input.buffer()
         this.id = id
@@ -1,182 +1,157 @@
 package mindustry.client.navigation
 
 import arc.math.geom.*
-import arc.struct.*
 import arc.util.*
 import mindustry.Vars.tilesize
 import mindustry.core.*
 import kotlin.math.*
 
-// Taken from http://www.codebytes.in/2015/02/a-shortest-path-finding-algorithm.html
-// and modified
-
+/**
+ * A* over the tile grid.  All search state lives in flat arrays indexed by `x + y * tileWidth` that are kept between
+ * searches, a cell's state is only valid if its stamp matches the current [generation] so nothing has to be cleared
+ * before a search.  The open set is an [IndexedHeap] so costs can be lowered in place.
+ */
 object AStarNavigator : Navigator() {
-    private var grid: Array<Cell> = emptyArray()
-    private var gridSize = Pair(0, 0)
-    private var open = PQueue<Cell>()
+    private const val SQRT2 = 1.4142135f
+    /** Makes the heuristic prefer cells closer to the end when f is tied, a path at most 0.1% longer is fine. */
+    private const val TIEBREAK = 1.001f
+
+    private var tileWidth = 0
+    private var tileHeight = 0
     private var startX = 0
     private var startY = 0
     private var endX = 0
     private var endY = 0
-    private var tileWidth = 0
-    private var tileHeight = 0
-
-    private inline fun d8(cons: (x: Int, y: Int) -> Unit) {
-        cons(1, 0)
-        cons(1, 1)
-        cons(0, 1)
-        cons(-1, 1)
-        cons(-1, 0)
-        cons(-1, -1)
-        cons(0, -1)
-        cons(1, -1)
-    }
 
-    private fun cell(x: Int, y: Int) = grid[x + (y * tileWidth)]
-
-    private fun Int.clamp(min: Int, max: Int) = coerceIn(min, max)
+    private var generation = 0
+    /** The generation in which the cell was reached, [g] and [cameFrom] are only valid for that generation. */
+    private var seen = IntArray(0)
+    /** The generation in which the cell was expanded. */
+    private var closed = IntArray(0)
+    /** The generation in which `blocked` was called for the cell, and its result in [solid]. */
+    private var checked = IntArray(0)
+    private var solid = BooleanArray(0)
+    private var g = FloatArray(0)
+    private var cameFrom = IntArray(0)
+    /** The open set ordered by f, cells are pushed at most once per search since closed cells are never reopened. */
+    private val open = IndexedHeap()
 
     override fun init() {}
 
-    /** Calculates the distance heuristic for this cell */
-    private fun h(cell: Cell): Double {
-        val dx = abs(cell.x - endX)
-        val dy = abs(cell.y - endY)
-        return dx + dy - 1.414 * min(dx, dy)
-    }
-
-    private fun checkAndUpdateCost(current: Cell, t: Cell, cost: Double) {
-        if (!t.closed || cost < t.g) {
-            t.closed = true
-            t.g = cost
-            t.f = t.g + h(t)
-            t.cameFrom = current
-            open.add(t) // O(N)
-        }
-    }
-
-    private fun aStarSearch() {
-        //add the start location to open list.
-        startX = startX.clamp(0, tileWidth - 1)
-        startY = startY.clamp(0, tileHeight - 1)
-        open.add(cell(startX, startY))
-        cell(startX, startY).closed = true
-
-        endX = endX.clamp(0, tileWidth - 1)
-        endY = endY.clamp(0, tileHeight - 1)
-
-        var current: Cell
-        while (!open.empty()) {
-            current = open.poll() // Get a tile to explore
-            if (current == cell(endX, endY)) { // Made it to the finish
-                return
-            }
-
-            // Check surrounding tiles
-            d8 { x1, y1 ->
-                val x = current.x + x1
-                val y = current.y + y1
-
-                if (!Structs.inBounds(x, y, tileWidth, tileHeight)) {
-                    return@d8
-                }
-
-                // Add to the open list with calculated cost
-                checkAndUpdateCost(
-                        current,
-                        cell(x, y),
-                        current.g * (if (abs(x1) + abs(y1) == 1) 1.0 else 1.0000001) + cell(x, y).added * if (abs(x1) + abs(y1) == 1) 1.0 else 1.414 // Tiebreaker is needed to draw correct path
-                )
-            }
-        }
-    }
-
-
     override fun findPath(
         start: Vec2,
         end: Vec2,
-        obstacles: Array<Circle>,
+        obstacles: ObstacleField,
         width: Float,
         height: Float,
         blocked: (Int, Int) -> Boolean
     ): Array<Vec2> {
-
-        tileWidth = ceil(width / tilesize).toInt() + 1
-        tileHeight = ceil(height / tilesize).toInt() + 1
-
         start.clamp(0f, 0f, height, width)
         end.clamp(0f, 0f, height, width)
 
-        //Reset
-        startX = World.toTile(start.x)
-        startY = World.toTile(start.y)
-        endX = World.toTile(end.x)
-        endY = World.toTile(end.y)
+        expanded = 0
+        resize(ceil(width / tilesize).toInt() + 1, ceil(height / tilesize).toInt() + 1)
+        if (++generation == 0) reset()  // Stamps wrapped around, every cell would look current
 
-        if (gridSize != Pair(tileWidth, tileHeight)) {
-            grid = Array(tileWidth * tileHeight) { index -> Cell(index % tileWidth, index / tileWidth) }
-            gridSize = Pair(tileWidth, tileHeight)
-        }
+        startX = World.toTile(start.x).coerceIn(0, tileWidth - 1)
+        startY = World.toTile(start.y).coerceIn(0, tileHeight - 1)
+        endX = World.toTile(end.x).coerceIn(0, tileWidth - 1)
+        endY = World.toTile(end.y).coerceIn(0, tileHeight - 1)
 
-        open.clear()
+        if (!search(obstacles, blocked)) return emptyArray()
 
-        // Reset all cells
-        for (x in 0 until tileWidth) {
-            for (y in 0 until tileHeight) {
-                cell(x, y).g = 0.0
-                cell(x, y).cameFrom = null
-                cell(x, y).closed = blocked(x, y)
-                cell(x, y).added = 1
-            }
+        // Trace back the path, from the tile before the end to the start
+        val target = endX + endY * tileWidth
+        var length = 0
+        var current = target
+        while (current != startX + startY * tileWidth) {
+            current = cameFrom[current]
+            length++
         }
+        current = target
+        return Array(length) {
+            current = cameFrom[current]
+            Vec2(World.unconv((current % tileWidth).toFloat()), World.unconv((current / tileWidth).toFloat()))
+        }
+    }
 
-        for (turret in obstacles) {
-            val lowerXBound = ((turret.x - turret.radius) / tilesize).toInt()
-            val upperXBound = ((turret.x + turret.radius) / tilesize).toInt()
-            val lowerYBound = ((turret.y - turret.radius) / tilesize).toInt()
-            val upperYBound = ((turret.y + turret.radius) / tilesize).toInt()
-            for (x in lowerXBound..upperXBound) {
-                for (y in lowerYBound..upperYBound) {
-                    if (Structs.inBounds(x, y, tileWidth, tileHeight) && turret.contains(x * tilesize.toFloat(), y * tilesize.toFloat())) {
-                        cell(x, y).added += 100
-//                        cell(x, y).closed = true // The line above will always find a path, this line will do nothing if there is no path, add a hotkey to toggle
+    /** Runs the search, returns whether the end was reached. */
+    private fun search(obstacles: ObstacleField, blocked: (Int, Int) -> Boolean): Boolean {
+        val start = startX + startY * tileWidth
+        val end = endX + endY * tileWidth
+        open.reset(tileWidth * tileHeight)
+        seen[start] = generation
+        g[start] = 0f
+        open.push(start, h(startX, startY))
+
+        while (!open.isEmpty()) {
+            val current = open.pop()
+            if (current == end) return true
+            closed[current] = generation
+            if ((++expanded and 1023) == 0 && cancelled()) return false
+
+            val cx = current % tileWidth
+            val cy = current / tileWidth
+            for (dx in -1..1) {
+                for (dy in -1..1) {
+                    if (dx == 0 && dy == 0) continue
+                    val x = cx + dx
+                    val y = cy + dy
+                    if (!Structs.inBounds(x, y, tileWidth, tileHeight)) continue
+                    val next = x + y * tileWidth
+                    if (closed[next] == generation) continue
+
+                    // Only ask whether a tile is blocked once something tries to step onto it
+                    if (checked[next] != generation) {
+                        checked[next] = generation
+                        solid[next] = blocked(x, y)
+                    }
+                    if (solid[next]) continue
+
+                    val step = obstacles.cost(x, y)
+                    val total = g[current] + if (dx == 0 || dy == 0) step.toFloat() else step * SQRT2
+
+                    if (seen[next] != generation) {
+                        seen[next] = generation
+                        g[next] = total
+                        cameFrom[next] = current
+                        open.push(next, total + h(x, y))
+                    } else if (total < g[next]) {
+                        g[next] = total
+                        cameFrom[next] = current
+                        open.decrease(next, total + h(x, y))
                     }
                 }
             }
         }
-
-        aStarSearch()
-
-        return if (cell(endX, endY).closed) {
-            val points = mutableListOf<Vec2>()
-            //Trace back the path
-            var current: Cell? = cell(endX, endY)
-            while (current?.cameFrom != null) {
-                points.add(Vec2(World.unconv(current.cameFrom!!.x.toFloat()), World.unconv(current.cameFrom!!.y.toFloat())))
-                current = current.cameFrom
-            }
-            //            System.out.println("Time taken = " + (System.currentTimeMillis() - startTime) + " ms");
-            points.toTypedArray()
-            //            System.out.println();
-        } else {
-//            System.out.println("Time taken = " + (System.currentTimeMillis() - startTime) + " ms, no path found");
-            arrayOf()
-        }
+        return false
     }
 
-    class Cell(var x: Int, var y: Int) : Comparable<Cell> {
-        var g = 0.0 // cost so far
-        var f = Double.POSITIVE_INFINITY // g + h, estimate of total cost
-        var cameFrom: Cell? = null
-        var closed = false
-        var added = 1
+    /** Octile distance to the end, never more than the cost of getting there since every step costs at least 1. */
+    private fun h(x: Int, y: Int): Float {
+        val dx = abs(x - endX)
+        val dy = abs(y - endY)
+        return (max(dx, dy) + (SQRT2 - 1) * min(dx, dy)) * TIEBREAK
+    }
 
-        override fun toString(): String {
-            return "[$x, $y]"
-        }
+    private fun resize(width: Int, height: Int) {
+        if (width == tileWidth && height == tileHeight) return
+        tileWidth = width
+        tileHeight = height
+        val size = width * height
+        seen = IntArray(size)
+        closed = IntArray(size)
+        checked = IntArray(size)
+        solid = BooleanArray(size)
+        g = FloatArray(size)
+        cameFrom = IntArray(size)
+        generation = 0
+    }
 
-        override fun compareTo(other: Cell): Int { // lower f is better
-            return f.compareTo(other.f)
-        }
+    private fun reset() {
+        seen.fill(0)
+        closed.fill(0)
+        checked.fill(0)
+        generation = 1
     }
 }
@@ -0,0 +1,379 @@
+package mindustry.client.navigation
+
+import arc.*
+import arc.math.geom.*
+import arc.struct.*
+import mindustry.Vars.tilesize
+import mindustry.core.*
+import mindustry.game.*
+import kotlin.math.*
+
+/**
+ * Moving target D* Lite.  The search runs forwards from the start and is kept between calls, so when the end moves,
+ * tiles change or obstacles move, just the cells affected are reprocessed instead of searching again from scratch.
+ * Moves of the end only shift the keys by [km], which is what following a moving player mostly needs.  When the start
+ * moves, the cells reached through its new tile keep their costs, which are all off by the same amount, and the rest
+ * are searched again from them.  Only a start the previous search never reached starts a new search.
+ */
+object DStarLiteNavigator : Navigator() {
+    private const val SQRT2 = 1.4142135f
+    private const val INF = Float.POSITIVE_INFINITY
+    /** Costs grow by how far the start moves, past this they start over before floats lose precision. */
+    private const val MAX_OFFSET = 16384f
+
+    /** The number of searches that repaired the previous one. */
+    var repairs = 0
+        private set
+    /** The number of searches that had to start over. */
+    var fullSearches = 0
+        private set
+
+    private var tileWidth = 0
+    private var tileHeight = 0
+    private var start = -1
+    private var end = -1
+    /** How far the end has moved since the search began, added to keys instead of recomputing every one of them. */
+    private var km = 0f
+    private var blocked: (Int, Int) -> Boolean = { _, _ -> false }
+
+    private var generation = 0
+    /** The generation in which the cell was first touched, [g] and [rhs] are infinite until then. */
+    private var stamp = IntArray(0)
+    /** The cost from the start to each cell as of when it was last expanded, plus the cost the start had itself. */
+    private var g = FloatArray(0)
+    /** The cost from the start to each cell through its best neighbour, plus the cost the start had itself. */
+    private var rhs = FloatArray(0)
+    /** The neighbour [rhs] comes through, or -1. */
+    private var parent = IntArray(0)
+    /** The cells whose [parent] is this one, as a linked list through [nextSibling] and [previousSibling]. */
+    private var firstChild = IntArray(0)
+    private var nextSibling = IntArray(0)
+    private var previousSibling = IntArray(0)
+    /** The cells [reroot] forgets. */
+    private val forgotten = IntSeq()
+    /** The generation in which `blocked` was called for the cell, and its result in [solid]. */
+    private var checked = IntArray(0)
+    private var solid = BooleanArray(0)
+    /** Cells whose g and rhs differ, ordered by their key. */
+    private val open = IndexedHeap()
+    private val path = IntSeq()
+
+    /** Set from any thread when the search has to start over. */
+    @Volatile private var invalidated = false
+    /** Packed positions of the tiles changed since the last search, written to from the main thread. */
+    private val changed = IntSeq()
+    /** The bounds of the areas where obstacles changed since the last search, four ints each. */
+    private val changedAreas = IntSeq()
+
+    init {
+        obstacleField.listener = { minX, minY, maxX, maxY ->
+            changedAreas.add(minX, minY)
+            changedAreas.add(maxX, maxY)
+        }
+        Events.on(EventType.TileChangeEvent::class.java) { synchronized(changed) { changed.add(it.tile.pos()) } }
+        Events.on(EventType.WorldLoadEvent::class.java) { invalidated = true }
+    }
+
+    override fun init() {}
+
+    override fun blockedChanged() {
+        invalidated = true
+    }
+
+    override fun stats() = "${super.stats()}, $repairs repaired and $fullSearches full searches"
+
+    override fun findPath(
+        start: Vec2,
+        end: Vec2,
+        obstacles: ObstacleField,
+        width: Float,
+        height: Float,
+        blocked: (Int, Int) -> Boolean
+    ): Array<Vec2> {
+        start.clamp(0f, 0f, height, width)
+        end.clamp(0f, 0f, height, width)
+
+        expanded = 0
+        this.blocked = blocked
+        resize(ceil(width / tilesize).toInt() + 1, ceil(height / tilesize).toInt() + 1)
+        val startTile = World.toTile(start.x).coerceIn(0, tileWidth - 1) + World.toTile(start.y).coerceIn(0, tileHeight - 1) * tileWidth
+        val endTile = World.toTile(end.x).coerceIn(0, tileWidth - 1) + World.toTile(end.y).coerceIn(0, tileHeight - 1) * tileWidth
+
+        if (invalidated || rhs(startTile) == INF || rhs(startTile) > MAX_OFFSET) {
+            restart(startTile, endTile)
+            fullSearches++
+        } else {
+            repair(startTile, endTile, obstacles)
+            repairs++
+        }
+        computeShortestPath(obstacles)
+
+        // Walk down the costs from the end
+        if (cancelled() || g(this.end) == INF) return emptyArray()
+        path.clear()
+        var current = this.end
+        path.add(current)
+        while (current != this.start) {
+            var best = -1
+            var bestCost = INF
+            val step = cost(current, obstacles)
+            forNeighbours(current) { previous, diagonal ->
+                if (g(previous) == INF) return@forNeighbours
+                val cost = g(previous) + if (diagonal) step * SQRT2 else step
+                if (cost < bestCost) {
+                    best = previous
+                    bestCost = cost
+                }
+            }
+            if (best == -1 || path.size > tileWidth * tileHeight) return emptyArray()
+            current = best
+            path.add(current)
+        }
+
+        // From the tile before the end to the start
+        return Array(path.size - 1) {
+            val tile = path[it + 1]
+            Vec2(World.unconv((tile % tileWidth).toFloat()), World.unconv((tile / tileWidth).toFloat()))
+        }
+    }
+
+    private fun restart(start: Int, end: Int) {
+        invalidated = false
+        synchronized(changed) { changed.clear() }
+        changedAreas.clear()
+        if (++generation == 0) {
+            stamp.fill(0)
+            checked.fill(0)
+            generation = 1
+        }
+
+        this.start = start
+        this.end = end
+        km = 0f
+        open.reset(tileWidth * tileHeight)
+        touch(start)
+        rhs[start] = 0f
+        open.push(start, h(start, end), 0f)
+    }
+
+    /**
+     * Moves the end to [end] and the start to [start], which the previous search reached, and updates the cells around
+     * everything that changed since the last search.
+     */
+    private fun repair(start: Int, end: Int, obstacles: ObstacleField) {
+        km += h(this.end, end)
+        this.end = end
+        if (start != this.start) reroot(start, obstacles)
+
+        synchronized(changed) {
+            for (i in 0 until changed.size) {
+                val x = Point2.x(changed[i]).toInt()
+                val y = Point2.y(changed[i]).toInt()
+                val tile = x + y * tileWidth
+                if (x >= tileWidth || y >= tileHeight || checked[tile] != generation) continue  // Nothing relied on it yet
+
+                val now = blocked(x, y)
+                if (now == solid[tile]) continue
+                solid[tile] = now
+                affect(x, y, x, y, obstacles)
+            }
+            changed.clear()
+        }
+
+        for (i in 0 until changedAreas.size step 4) {
+            affect(changedAreas[i], changedAreas[i + 1], changedAreas[i + 2], changedAreas[i + 3], obstacles)
+        }
+        changedAreas.clear()
+    }
+
+    /**
+     * Makes [start] the root of the search.  The cells whose best path passes through it keep their costs, which are
+     * all off by the cost of [start] itself, so it keeps that cost instead of 0.  The rest of the tree hanging off the
+     * old root is forgotten and reached again from those, no other cell is looked at.
+     */
+    private fun reroot(start: Int, obstacles: ObstacleField) {
+        val old = this.start
+        this.start = start
+        setParent(start, -1)
+
+        forgotten.clear()
+        forgotten.add(old)
+        var i = 0
+        while (i < forgotten.size) {
+            var child = firstChild[forgotten[i++]]
+            while (child != -1) {
+                forgotten.add(child)
+                child = nextSibling[child]
+            }
+        }
+
+        for (j in 0 until forgotten.size) {
+            val tile = forgotten[j]
+            g[tile] = INF
+            rhs[tile] = INF
+            parent[tile] = -1
+            firstChild[tile] = -1
+            nextSibling[tile] = -1
+            previousSibling[tile] = -1
+            if (tile in open) open.remove(tile)
+        }
+        for (j in 0 until forgotten.size) updateVertex(forgotten[j], obstacles)
+    }
+
+    /** Moves [tile] from the children of its parent to those of [parent]. */
+    private fun setParent(tile: Int, parent: Int) {
+        val previous = this.parent[tile]
+        if (previous == parent) return
+        if (previous != -1) {
+            val before = previousSibling[tile]
+            val after = nextSibling[tile]
+            if (before == -1) firstChild[previous] = after else nextSibling[before] = after
+            if (after != -1) previousSibling[after] = before
+        }
+        this.parent[tile] = parent
+        previousSibling[tile] = -1
+        nextSibling[tile] = -1
+        if (parent != -1) {
+            val first = firstChild[parent]
+            nextSibling[tile] = first
+            if (first != -1) previousSibling[first] = tile
+            firstChild[parent] = tile
+        }
+    }
+
+    /** Updates the cells that can step onto the ones between ([minX], [minY]) and ([maxX], [maxY]) inclusive. */
+    private fun affect(minX: Int, minY: Int, maxX: Int, maxY: Int, obstacles: ObstacleField) {
+        for (y in max(minY - 1, 0)..min(maxY + 1, tileHeight - 1)) {
+            for (x in max(minX - 1, 0)..min(maxX + 1, tileWidth - 1)) {
+                // Cells the search never reached have no reached neighbours, so nothing changes for them
+                if (stamp[x + y * tileWidth] == generation) updateVertex(x + y * tileWidth, obstacles)
+            }
+        }
+    }
+
+    private fun computeShortestPath(obstacles: ObstacleField) {
+        while (!open.isEmpty()) {
+            if ((expanded and 1023) == 1023 && cancelled()) return  // Picks up where it left off next time
+            val endKey = key(end)
+            val endTie = tie(end)
+            val topKey = open.peekKey()
+            val topTie = open.peekTie()
+            if (!(topKey < endKey || topKey == endKey && topTie < endTie) && rhs(end) <= g(end)) break
+
+            val u = open.peek()
+            val newKey = key(u)
+            val newTie = tie(u)
+            if (topKey < newKey || topKey == newKey && topTie < newTie) {  // Its key is stale since the end moved
+                open.update(u, newKey, newTie)
+            } else if (g(u) > rhs(u)) {
+                expanded++
+                g[u] = rhs[u]
+                open.remove(u)
+                forNeighbours(u) { next, _ -> updateVertex(next, obstacles) }
+            } else {
+                expanded++
+                g[u] = INF
+                updateVertex(u, obstacles)
+                forNeighbours(u) { next, _ -> updateVertex(next, obstacles) }
+            }
+        }
+    }
+
+    private fun updateVertex(u: Int, obstacles: ObstacleField) {
+        touch(u)
+        if (u != start) {
+            var best = INF
+            var bestParent = -1
+            val step = cost(u, obstacles)
+            if (step != INF) {
+                forNeighbours(u) { previous, diagonal ->
+                    if (g(previous) == INF) return@forNeighbours
+                    val cost = g(previous) + if (diagonal) step * SQRT2 else step
+                    if (cost < best) {
+                        best = cost
+                        bestParent = previous
+                    }
+                }
+            }
+            rhs[u] = best
+            setParent(u, bestParent)
+        }
+
+        val queued = u in open
+        if (g[u] != rhs[u]) {
+            if (queued) open.update(u, key(u), tie(u)) else open.push(u, key(u), tie(u))
+        } else if (queued) {
+            open.remove(u)
+        }
+    }
+
+    /** The cost of stepping straight onto [tile]. */
+    private fun cost(tile: Int, obstacles: ObstacleField): Float {
+        val x = tile % tileWidth
+        val y = tile / tileWidth
+        if (checked[tile] != generation) {
+            checked[tile] = generation
+            solid[tile] = blocked(x, y)
+        }
+        if (solid[tile]) return INF
+        return obstacles.cost(x, y).toFloat()
+    }
+
+    private inline fun forNeighbours(tile: Int, cons: (next: Int, diagonal: Boolean) -> Unit) {
+        val cx = tile % tileWidth
+        val cy = tile / tileWidth
+        for (dx in -1..1) {
+            for (dy in -1..1) {
+                if (dx == 0 && dy == 0) continue
+                val x = cx + dx
+                val y = cy + dy
+                if (x < 0 || y < 0 || x >= tileWidth || y >= tileHeight) continue
+                cons(x + y * tileWidth, dx != 0 && dy != 0)
+            }
+        }
+    }
+
+    private fun touch(tile: Int) {
+        if (stamp[tile] == generation) return
+        stamp[tile] = generation
+        g[tile] = INF
+        rhs[tile] = INF
+        parent[tile] = -1
+        firstChild[tile] = -1
+        nextSibling[tile] = -1
+        previousSibling[tile] = -1
+    }
+
+    private fun g(tile: Int) = if (stamp[tile] == generation) g[tile] else INF
+
+    private fun rhs(tile: Int) = if (stamp[tile] == generation) rhs[tile] else INF
+
+    private fun key(tile: Int) = min(g(tile), rhs(tile)) + h(tile, end) + km
+
+    private fun tie(tile: Int) = min(g(tile), rhs(tile))
+
+    /** Octile distance, never more than the cost since every step costs at least 1. */
+    private fun h(a: Int, b: Int): Float {
+        val dx = abs(a % tileWidth - b % tileWidth)
+        val dy = abs(a / tileWidth - b / tileWidth)
+        return max(dx, dy) + (SQRT2 - 1) * min(dx, dy)
+    }
+
+    private fun resize(width: Int, height: Int) {
+        if (width == tileWidth && height == tileHeight) return
+        tileWidth = width
+        tileHeight = height
+        val size = width * height
+        stamp = IntArray(size)
+        g = FloatArray(size)
+        rhs = FloatArray(size)
+        parent = IntArray(size)
+        firstChild = IntArray(size)
+        nextSibling = IntArray(size)
+        previousSibling = IntArray(size)
+        checked = IntArray(size)
+        solid = BooleanArray(size)
+        generation = 0
+        invalidated = true
+    }
+}
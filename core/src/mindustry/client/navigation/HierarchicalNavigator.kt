@@ -0,0 +1,416 @@
+package mindustry.client.navigation
+
+import arc.*
+import arc.math.geom.*
+import arc.struct.*
+import mindustry.Vars.tilesize
+import mindustry.core.*
+import mindustry.game.*
+import kotlin.math.*
+
+/**
+ * Hierarchical A* (HPA*).  The map is split into square clusters, the open tiles on either side of each cluster border
+ * become transition nodes and the costs between the transitions of each cluster are precomputed.  Paths are planned
+ * over those transitions and only the first leg is refined at full resolution, the rest of the path is returned as the
+ * transitions it passes through and gets refined as the path is navigated again.  Clusters are only rebuilt once the
+ * tiles or obstacles in them change.
+ */
+object HierarchicalNavigator : Navigator() {
+    private const val CLUSTER_SIZE = 16
+    /** Open stretches of a border at least this long get a transition at each end instead of one in the middle. */
+    private const val LONG_ENTRANCE = 6
+    private const val SQRT2 = 1.4142135f
+
+    private var tileWidth = 0
+    private var tileHeight = 0
+    private var clustersX = 0
+    private var clustersY = 0
+
+    private var solid = BooleanArray(0)
+    private var dirty = BooleanArray(0)
+    private var anyDirty = false
+    /** Set from any thread when every cluster has to be rebuilt. */
+    @Volatile private var invalidated = false
+    /** Packed positions of the tiles changed since the last search, written to from the main thread. */
+    private val changed = IntSeq()
+
+    /** The transitions on the right and top border of each cluster, their counterpart is one tile right or up. */
+    private var right = emptyArray<IntSeq>()
+    private var top = emptyArray<IntSeq>()
+    /** The transitions in each cluster. */
+    private var nodes = emptyArray<IntSeq>()
+    private val edges = IntMap<Edges>()
+
+    private class Edges {
+        val to = IntSeq(8)
+        val cost = FloatSeq(8)
+
+        fun add(node: Int, cost: Float) {
+            to.add(node)
+            this.cost.add(cost)
+        }
+    }
+
+    // Searches within a single cluster
+    private var localGeneration = 0
+    private var localSeen = IntArray(0)
+    private var localClosed = IntArray(0)
+    private var localG = FloatArray(0)
+    private var localFrom = IntArray(0)
+
+    // The search over the transitions
+    private var generation = 0
+    private var seen = IntArray(0)
+    private var closed = IntArray(0)
+    private var g = FloatArray(0)
+    /** The transition each one was reached from, or -1 for ones reached straight from the start. */
+    private var cameFrom = IntArray(0)
+    private var endX = 0
+    private var endY = 0
+    /** The transitions in the cluster of the end that can reach it, and what it costs them. */
+    private val goalNodes = IntSeq()
+    private val goalCosts = FloatSeq()
+    /** The transitions on the planned path, from the last to the first. */
+    private val route = IntSeq()
+
+    private val open = IndexedHeap()
+
+    init {
+        obstacleField.listener = ::markDirty
+        Events.on(EventType.TileChangeEvent::class.java) { synchronized(changed) { changed.add(it.tile.pos()) } }
+        Events.on(EventType.WorldLoadEvent::class.java) { invalidated = true }
+    }
+
+    override fun init() {}
+
+    override fun blockedChanged() {
+        invalidated = true
+    }
+
+    override fun findPath(
+        start: Vec2,
+        end: Vec2,
+        obstacles: ObstacleField,
+        width: Float,
+        height: Float,
+        blocked: (Int, Int) -> Boolean
+    ): Array<Vec2> {
+        start.clamp(0f, 0f, height, width)
+        end.clamp(0f, 0f, height, width)
+
+        resize(ceil(width / tilesize).toInt() + 1, ceil(height / tilesize).toInt() + 1)
+        if (invalidated) {
+            invalidated = false
+            markDirty(0, 0, tileWidth - 1, tileHeight - 1)
+        }
+        synchronized(changed) {
+            for (i in 0 until changed.size) {
+                val x = Point2.x(changed[i]).toInt()
+                val y = Point2.y(changed[i]).toInt()
+                markDirty(x, y, x, y)
+            }
+            changed.clear()
+        }
+        if (anyDirty) rebuild(obstacles, blocked)
+        expanded = 0
+
+        val startTile = World.toTile(start.x).coerceIn(0, tileWidth - 1) + World.toTile(start.y).coerceIn(0, tileHeight - 1) * tileWidth
+        endX = World.toTile(end.x).coerceIn(0, tileWidth - 1)
+        endY = World.toTile(end.y).coerceIn(0, tileHeight - 1)
+        val endTile = endX + endY * tileWidth
+        if (solid[endTile]) return emptyArray()
+
+        // What it costs to get from the transitions of the end's cluster to the end, searching backwards from it
+        val endCluster = cluster(endTile)
+        local(endTile, endCluster, obstacles, true)
+        goalNodes.clear()
+        goalCosts.clear()
+        val ends = nodes[endCluster]
+        for (i in 0 until ends.size) {
+            if (localSeen[ends[i]] != localGeneration) continue
+            goalNodes.add(ends[i])
+            goalCosts.add(localG[ends[i]])
+        }
+
+        // What it costs to get from the start to the transitions of its cluster, this search is refined into the first leg
+        local(startTile, cluster(startTile), obstacles, false)
+        if (!search(startTile, endTile)) return emptyArray()
+
+        route.clear()
+        var current = endTile
+        while (cameFrom[current] != -1) {
+            current = cameFrom[current]
+            route.add(current)
+        }
+
+        // The transitions from the last one back to the first, then the tiles from there back to the start
+        val first = current
+        var length = route.size
+        while (current != startTile) {
+            current = localFrom[current]
+            length++
+        }
+        current = first
+        return Array(length) {
+            val tile = if (it < route.size) route[it] else localFrom[current].also { from -> current = from }
+            Vec2(World.unconv((tile % tileWidth).toFloat()), World.unconv((tile / tileWidth).toFloat()))
+        }
+    }
+
+    /** A* over the transitions, seeded with the results of the local search from [start]. */
+    private fun search(start: Int, end: Int): Boolean {
+        if (++generation == 0) {
+            seen.fill(0)
+            closed.fill(0)
+            generation = 1
+        }
+        open.reset(tileWidth * tileHeight)
+
+        val starts = nodes[cluster(start)]
+        for (i in 0 until starts.size) {
+            if (localSeen[starts[i]] == localGeneration) relax(starts[i], localG[starts[i]], -1)
+        }
+        if (localSeen[end] == localGeneration) relax(end, localG[end], -1)  // In the same cluster as the start
+
+        val endCluster = cluster(end)
+        while (!open.isEmpty()) {
+            val current = open.pop()
+            if (current == end) return true
+            closed[current] = generation
+            if ((++expanded and 1023) == 0 && cancelled()) return false
+
+            val out = edges[current] ?: continue
+            for (i in 0 until out.to.size) relax(out.to[i], g[current] + out.cost[i], current)
+            if (cluster(current) == endCluster) {
+                val i = goalNodes.indexOf(current)
+                if (i != -1) relax(end, g[current] + goalCosts[i], current)
+            }
+        }
+        return false
+    }
+
+    private fun relax(node: Int, cost: Float, from: Int) {
+        if (closed[node] == generation) return
+        if (seen[node] != generation) {
+            seen[node] = generation
+            g[node] = cost
+            cameFrom[node] = from
+            open.push(node, cost + h(node))
+        } else if (cost < g[node]) {
+            g[node] = cost
+            cameFrom[node] = from
+            open.decrease(node, cost + h(node))
+        }
+    }
+
+    /** Octile distance to the end. */
+    private fun h(tile: Int): Float {
+        val dx = abs(tile % tileWidth - endX)
+        val dy = abs(tile / tileWidth - endY)
+        return max(dx, dy) + (SQRT2 - 1) * min(dx, dy)
+    }
+
+    /**
+     * Dijkstra from [source] without leaving [cluster].  When [reverse] is set the costs are those of getting from each
+     * tile to [source] rather than the other way around.
+     */
+    private fun local(source: Int, cluster: Int, obstacles: ObstacleField, reverse: Boolean) {
+        if (++localGeneration == 0) {
+            localSeen.fill(0)
+            localClosed.fill(0)
+            localGeneration = 1
+        }
+        val minX = cluster % clustersX * CLUSTER_SIZE
+        val minY = cluster / clustersX * CLUSTER_SIZE
+        val maxX = min(minX + CLUSTER_SIZE, tileWidth) - 1
+        val maxY = min(minY + CLUSTER_SIZE, tileHeight) - 1
+
+        open.reset(tileWidth * tileHeight)
+        localSeen[source] = localGeneration
+        localG[source] = 0f
+        localFrom[source] = source
+        open.push(source, 0f)
+
+        while (!open.isEmpty()) {
+            val current = open.pop()
+            localClosed[current] = localGeneration
+            expanded++
+
+            val cx = current % tileWidth
+            val cy = current / tileWidth
+            for (dx in -1..1) {
+                for (dy in -1..1) {
+                    if (dx == 0 && dy == 0) continue
+                    val x = cx + dx
+                    val y = cy + dy
+                    if (x < minX || y < minY || x > maxX || y > maxY) continue
+                    val next = x + y * tileWidth
+                    if (localClosed[next] == localGeneration || solid[next]) continue
+
+                    val step = if (reverse) obstacles.cost(cx, cy) else obstacles.cost(x, y)
+                    val total = localG[current] + if (dx == 0 || dy == 0) step.toFloat() else step * SQRT2
+                    if (localSeen[next] != localGeneration) {
+                        localSeen[next] = localGeneration
+                        localG[next] = total
+                        localFrom[next] = current
+                        open.push(next, total)
+                    } else if (total < localG[next]) {
+                        localG[next] = total
+                        localFrom[next] = current
+                        open.decrease(next, total)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun cluster(tile: Int) = tile % tileWidth / CLUSTER_SIZE + tile / tileWidth / CLUSTER_SIZE * clustersX
+
+    /** Marks the clusters overlapping the tiles between ([minX], [minY]) and ([maxX], [maxY]) inclusive for rebuilding. */
+    private fun markDirty(minX: Int, minY: Int, maxX: Int, maxY: Int) {
+        if (clustersX == 0) return  // Everything is dirty once the clusters are created anyways
+        for (cy in max(minY / CLUSTER_SIZE, 0)..min(maxY / CLUSTER_SIZE, clustersY - 1)) {
+            for (cx in max(minX / CLUSTER_SIZE, 0)..min(maxX / CLUSTER_SIZE, clustersX - 1)) {
+                dirty[cx + cy * clustersX] = true
+                anyDirty = true
+            }
+        }
+    }
+
+    private fun rebuild(obstacles: ObstacleField, blocked: (Int, Int) -> Boolean) {
+        for (c in dirty.indices) {
+            if (!dirty[c]) continue
+            val minX = c % clustersX * CLUSTER_SIZE
+            val minY = c / clustersX * CLUSTER_SIZE
+            for (y in minY until min(minY + CLUSTER_SIZE, tileHeight)) {
+                for (x in minX until min(minX + CLUSTER_SIZE, tileWidth)) {
+                    solid[x + y * tileWidth] = blocked(x, y)
+                }
+            }
+        }
+
+        // Both sides of a border decide where its transitions are
+        for (c in dirty.indices) {
+            if (!dirty[c]) continue
+            rightTransitions(c)
+            topTransitions(c)
+            if (c % clustersX > 0) rightTransitions(c - 1)
+            if (c / clustersX > 0) topTransitions(c - clustersX)
+        }
+
+        // So the neighbours of dirty clusters may have different transitions now too
+        for (c in dirty.indices) {
+            val cx = c % clustersX
+            val cy = c / clustersX
+            if (dirty[c] || cx > 0 && dirty[c - 1] || cx < clustersX - 1 && dirty[c + 1] ||
+                cy > 0 && dirty[c - clustersX] || cy < clustersY - 1 && dirty[c + clustersX]) connect(c, obstacles)
+        }
+
+        dirty.fill(false)
+        anyDirty = false
+    }
+
+    private fun rightTransitions(cluster: Int) {
+        val transitions = right[cluster].apply { clear() }
+        if (cluster % clustersX == clustersX - 1) return
+        val x = (cluster % clustersX + 1) * CLUSTER_SIZE - 1
+        val minY = cluster / clustersX * CLUSTER_SIZE
+        transitions(transitions, minY, min(minY + CLUSTER_SIZE, tileHeight) - 1, 1) { y -> x + y * tileWidth }
+    }
+
+    private fun topTransitions(cluster: Int) {
+        val transitions = top[cluster].apply { clear() }
+        if (cluster / clustersX == clustersY - 1) return
+        val y = (cluster / clustersX + 1) * CLUSTER_SIZE - 1
+        val minX = cluster % clustersX * CLUSTER_SIZE
+        transitions(transitions, minX, min(minX + CLUSTER_SIZE, tileWidth) - 1, tileWidth) { x -> x + y * tileWidth }
+    }
+
+    /** Adds a transition to [output] for each open stretch of a border, the tile across from each is [offset] after it. */
+    private inline fun transitions(output: IntSeq, from: Int, to: Int, offset: Int, tile: (Int) -> Int) {
+        var runStart = -1
+        for (i in from..to + 1) {
+            val open = i <= to && !solid[tile(i)] && !solid[tile(i) + offset]
+            if (open) {
+                if (runStart == -1) runStart = i
+                continue
+            }
+            if (runStart == -1) continue
+            val runEnd = i - 1
+            if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                output.add(tile(runStart))
+                output.add(tile(runEnd))
+            } else {
+                output.add(tile((runStart + runEnd) / 2))
+            }
+            runStart = -1
+        }
+    }
+
+    /** Recreates the transitions of [cluster] and the edges leaving them. */
+    private fun connect(cluster: Int, obstacles: ObstacleField) {
+        val list = nodes[cluster]
+        for (i in 0 until list.size) edges.remove(list[i])
+        list.clear()
+
+        val cx = cluster % clustersX
+        val cy = cluster / clustersX
+        val left = if (cx > 0) right[cluster - 1] else null
+        val below = if (cy > 0) top[cluster - clustersX] else null
+        for (i in 0 until right[cluster].size) addNode(list, right[cluster][i])
+        for (i in 0 until top[cluster].size) addNode(list, top[cluster][i])
+        if (left != null) for (i in 0 until left.size) addNode(list, left[i] + 1)
+        if (below != null) for (i in 0 until below.size) addNode(list, below[i] + tileWidth)
+
+        for (i in 0 until list.size) {
+            val node = list[i]
+            val x = node % tileWidth
+            val y = node / tileWidth
+            val out = Edges()
+            edges.put(node, out)
+
+            if (right[cluster].contains(node)) out.add(node + 1, obstacles.cost(x + 1, y).toFloat())
+            if (top[cluster].contains(node)) out.add(node + tileWidth, obstacles.cost(x, y + 1).toFloat())
+            if (left != null && left.contains(node - 1)) out.add(node - 1, obstacles.cost(x - 1, y).toFloat())
+            if (below != null && below.contains(node - tileWidth)) out.add(node - tileWidth, obstacles.cost(x, y - 1).toFloat())
+
+            local(node, cluster, obstacles, false)
+            for (j in 0 until list.size) {
+                if (j != i && localSeen[list[j]] == localGeneration) out.add(list[j], localG[list[j]])
+            }
+        }
+    }
+
+    private fun addNode(list: IntSeq, tile: Int) {
+        if (!list.contains(tile)) list.add(tile)
+    }
+
+    private fun resize(width: Int, height: Int) {
+        if (width == tileWidth && height == tileHeight) return
+        tileWidth = width
+        tileHeight = height
+        clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE
+        clustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE
+        val size = width * height
+        val clusters = clustersX * clustersY
+
+        solid = BooleanArray(size)
+        dirty = BooleanArray(clusters) { true }
+        anyDirty = true
+        right = Array(clusters) { IntSeq() }
+        top = Array(clusters) { IntSeq() }
+        nodes = Array(clusters) { IntSeq() }
+        edges.clear()
+
+        localSeen = IntArray(size)
+        localClosed = IntArray(size)
+        localG = FloatArray(size)
+        localFrom = IntArray(size)
+        localGeneration = 0
+        seen = IntArray(size)
+        closed = IntArray(size)
+        g = FloatArray(size)
+        cameFrom = IntArray(size)
+        generation = 0
+    }
+}
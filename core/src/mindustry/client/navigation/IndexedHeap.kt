@@ -0,0 +1,115 @@
+package mindustry.client.navigation
+
+/**
+ * A binary min-heap of the ints in `0 until capacity` ordered by float keys, ties broken by a second key.  Since the
+ * heap knows where each element is, keys can be changed and elements removed in place.
+ */
+internal class IndexedHeap {
+    private var heap = IntArray(0)
+    private var index = IntArray(0)
+    private var keys = FloatArray(0)
+    private var ties = FloatArray(0)
+    var size = 0
+        private set
+
+    fun isEmpty() = size == 0
+
+    /** Empties the heap and makes room for elements up to [capacity]. */
+    fun reset(capacity: Int) {
+        size = 0
+        if (heap.size == capacity) return
+        heap = IntArray(capacity)
+        index = IntArray(capacity)
+        keys = FloatArray(capacity)
+        ties = FloatArray(capacity)
+    }
+
+    /** Whether [element] is in the heap, works without clearing [index] since stale entries point at other elements. */
+    operator fun contains(element: Int): Boolean {
+        val i = index[element]
+        return i in 0 until size && heap[i] == element
+    }
+
+    /** Adds [element], which must not be in the heap already. */
+    fun push(element: Int, key: Float, tie: Float = 0f) {
+        keys[element] = key
+        ties[element] = tie
+        heap[size] = element
+        index[element] = size
+        up(size++)
+    }
+
+    /** Lowers the key of [element], which must be in the heap. */
+    fun decrease(element: Int, key: Float, tie: Float = 0f) {
+        keys[element] = key
+        ties[element] = tie
+        up(index[element])
+    }
+
+    /** Changes the key of [element] either way, it must be in the heap. */
+    fun update(element: Int, key: Float, tie: Float = 0f) {
+        keys[element] = key
+        ties[element] = tie
+        up(index[element])
+        down(index[element])
+    }
+
+    fun remove(element: Int) {
+        val i = index[element]
+        val last = heap[--size]
+        if (i == size) return
+        heap[i] = last
+        index[last] = i
+        up(i)
+        down(index[last])
+    }
+
+    fun peek() = heap[0]
+
+    fun peekKey() = keys[heap[0]]
+
+    fun peekTie() = ties[heap[0]]
+
+    fun pop(): Int {
+        val top = heap[0]
+        val last = heap[--size]
+        if (size > 0) {
+            heap[0] = last
+            index[last] = 0
+            down(0)
+        }
+        return top
+    }
+
+    private fun less(a: Int, b: Int) = keys[a] < keys[b] || keys[a] == keys[b] && ties[a] < ties[b]
+
+    private fun up(start: Int) {
+        var i = start
+        val element = heap[i]
+        while (i > 0) {
+            val parent = (i - 1) shr 1
+            if (!less(element, heap[parent])) break
+            heap[i] = heap[parent]
+            index[heap[i]] = i
+            i = parent
+        }
+        heap[i] = element
+        index[element] = i
+    }
+
+    private fun down(start: Int) {
+        var i = start
+        val element = heap[i]
+        while (true) {
+            var child = (i shl 1) + 1
+            if (child >= size) break
+            if (child + 1 < size && less(heap[child + 1], heap[child])) child++
+            if (!less(heap[child], element)) break
+            heap[i] = heap[child]
+            index[heap[i]] = i
+            i = child
+        }
+        heap[i] = element
+        index[element] = i
+    }
+}
@@ -24,6 +24,12 @@ public class Navigation {
     public static Navigator navigator;
     private static final Interval timer = new Interval();
 
+    /** Switches to the navigator picked in the settings. */
+    public static void selectNavigator() {
+        navigator = Core.settings.getBool("hierarchicalpathing") ? HierarchicalNavigator.INSTANCE :
+            Core.settings.getBool("repairpathing") ? DStarLiteNavigator.INSTANCE : AStarNavigator.INSTANCE;
+    }
+
     public static void follow(Path path, boolean repeat) {
         stopFollowing();
         if (path == null) return;
@@ -40,7 +46,7 @@ public class Navigation {
     public static void update() {
         if (timer.get(600)) obstacles.clear(); // Refresh all obstacles every 600s since sometimes they don't get removed properly for whatever reason TODO: Check if this happens because it still runs update even when dead, if so just the removal of the obstacle
 
-        if (targetPos != null && clientThread.taskQueue.size() == 0) { // must be navigating, TODO: dejank
+        if (targetPos != null && !PathfindingExecutor.INSTANCE.pending(Navigation.class)) { // must be navigating, TODO: dejank
             navigateTo(targetPos);
         }
 
@@ -59,6 +65,7 @@ public class Navigation {
         currentlyFollowing = null;
         state = NavigationState.NONE;
         targetPos = null;
+        PathfindingExecutor.INSTANCE.cancel(Navigation.class);
     }
 
     public static boolean isFollowing() {
@@ -101,23 +108,21 @@ public class Navigation {
         }
 
         targetPos = new Vec2(drawX, drawY);
-        clientThread.taskQueue.post(() -> {
-            synchronized (obstacles) {
-                Vec2[] points = navigator.navigate(new Vec2(player.x, player.y), new Vec2(drawX, drawY), obstacles.toArray(new TurretPathfindingEntity[0]));
-                Seq<PositionWaypoint> waypoints = new Seq<>();
-                for (Vec2 point : points) {
-                    waypoints.add(new PositionWaypoint(point.x, point.y));
-                }
-                waypoints.reverse();
-
-                if (waypoints.any()) {
-                    while (waypoints.size > 1 && waypoints.min(wp -> wp.dst(player)) != waypoints.first()) waypoints.remove(0);
-                    if (waypoints.size > 1) waypoints.remove(0);
-                    if (targetPos != null && targetPos.x == drawX && targetPos.y == drawY) { // Don't create new path if stopFollowing has been run
-                        follow(new WaypointPath<>(waypoints));
-                        targetPos = new Vec2(drawX, drawY);
-                        currentlyFollowing.setShow(true);
-                    }
+        Vec2 start = new Vec2(player.x, player.y), end = new Vec2(drawX, drawY);
+        PathfindingExecutor.INSTANCE.submit(Navigation.class, token -> navigator.navigate(start, end, obstacles, token), points -> {
+            Seq<PositionWaypoint> waypoints = new Seq<>();
+            for (Vec2 point : points) {
+                waypoints.add(new PositionWaypoint(point.x, point.y));
+            }
+            waypoints.reverse();
+
+            if (waypoints.any()) {
+                while (waypoints.size > 1 && waypoints.min(wp -> wp.dst(player)) != waypoints.first()) waypoints.remove(0);
+                if (waypoints.size > 1) waypoints.remove(0);
+                if (targetPos != null && targetPos.x == drawX && targetPos.y == drawY) { // Don't create new path if stopFollowing has been run
+                    follow(new WaypointPath<>(waypoints));
+                    targetPos = new Vec2(drawX, drawY);
+                    currentlyFollowing.setShow(true);
                 }
             }
         });
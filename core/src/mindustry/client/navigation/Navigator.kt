@@ -3,57 +3,91 @@ package mindustry.client.navigation
 import arc.math.geom.*
 import mindustry.Vars.*
 import mindustry.game.*
+import mindustry.type.*
 
 /** An abstract class for a navigation algorithm, i.e. A*.  */
 abstract class Navigator {
     /** Called once upon client loading.  */
     abstract fun init()
 
+    /** The number of nodes the last search expanded, for comparing navigators. */
+    var expanded = 0
+        protected set
+
+    /** The tiles covered by obstacles, kept between calls to [navigate]. */
+    protected val obstacleField = ObstacleField()
+    private var spawns = emptyArray<Circle>()
+    private var lastUnitType: UnitType? = null
+    private var lastFlood = false
+    /** The request being searched for, if it came through the [PathfindingExecutor]. */
+    private var token: PathfindingExecutor.Token? = null
+
     /**
-     * Finds a path between the start and end points provided an array of circular obstacles.
-     * May return null if no path is found.
+     * Finds a path between the start and end points avoiding the tiles covered in [obstacles].
+     * Returns an empty array if no path is found.
      */
-    protected abstract fun findPath(
+    abstract fun findPath(
         start: Vec2,
         end: Vec2,
-        obstacles: Array<Circle>,
+        obstacles: ObstacleField,
         width: Float,
         height: Float,
         blocked: (Int, Int) -> Boolean
     ): Array<Vec2>
 
-    fun navigate(start: Vec2, end: Vec2, obstacles: Array<TurretPathfindingEntity>): Array<Vec2> {
+    /** A summary of the work done by the last search. */
+    open fun stats() = "$expanded nodes expanded"
+
+    /** Whether the request being searched for was superseded, searches should check this every so often and give up. */
+    protected fun cancelled() = token?.cancelled == true
+
+    /** Called before [findPath] when the tiles `blocked` considers blocked may have changed. */
+    open fun blockedChanged() {}
+
+    /** Finds a path for the player, one search at a time since navigators keep their state between searches. */
+    @JvmOverloads
+    fun navigate(start: Vec2, end: Vec2, obstacles: Collection<TurretPathfindingEntity>, token: PathfindingExecutor.Token? = null): Array<Vec2> = synchronized(this) {
+        this.token = token
+        try {
+            search(start, end, obstacles)
+        } finally {
+            this.token = null
+        }
+    }
+
+    private fun search(start: Vec2, end: Vec2, obstacles: Collection<TurretPathfindingEntity>): Array<Vec2> {
         start.clamp(0f, 0f, world.unitHeight().toFloat(), world.unitWidth().toFloat())
         end.clamp(0f, 0f, world.unitHeight().toFloat(), world.unitWidth().toFloat())
-        val realObstacles = mutableListOf<Circle>()
         val additionalRadius =
             if (player.unit().formation == null) player.unit().hitSize / 2
             else player.unit().formation().pattern.radius() + player.unit().formation.pattern.spacing / 2
-        for (turret in obstacles) {
-            if (turret.canHitPlayer && turret.canShoot) realObstacles.add(
-                Circle(
-                    turret.x,
-                    turret.y,
-                    turret.radius + additionalRadius
-                )
-            )
-        }
-        if (state.hasSpawns()) { // TODO: These should really be weighed less than turrets...
-            for (spawn in spawner.spawns) {
-                realObstacles.add(
-                    Circle(
-                        spawn.worldx(),
-                        spawn.worldy(),
-                        state.rules.dropZoneRadius + additionalRadius
-                    )
-                )
+        if (spawnsChanged()) {
+            spawns = if (!state.hasSpawns()) emptyArray() else Array(spawner.spawns.size) {
+                Circle(spawner.spawns[it].worldx(), spawner.spawns[it].worldy(), state.rules.dropZoneRadius)
             }
         }
+        obstacleField.resize(world.width(), world.height())
+        synchronized(obstacles) { obstacleField.update(obstacles, spawns, additionalRadius) } // TODO: Spawns should really be weighed less than turrets...
         val flood = ui.join.lastHost != null && (ui.join.lastHost.modeName ?: false) == "Flood"
+        if (flood != lastFlood || player.unit().type != lastUnitType) {
+            lastFlood = flood
+            lastUnitType = player.unit().type
+            blockedChanged()
+        }
         return findPath(
-            start, end, realObstacles.toTypedArray(), world.unitWidth().toFloat(), world.unitHeight().toFloat()
+            start, end, obstacleField, world.unitWidth().toFloat(), world.unitHeight().toFloat()
         ) { x, y ->
             flood && world.tiles.getc(x, y).team() == Team.blue || player.unit().type != null && !player.unit().type.canBoost && player.unit().solidity()?.solid(x, y) ?: false
         }
     }
-}
\ No newline at end of file
+
+    private fun spawnsChanged(): Boolean {
+        val count = if (state.hasSpawns()) spawner.spawns.size else 0
+        if (count != spawns.size) return true
+        for (i in 0 until count) {
+            val spawn = spawner.spawns[i]
+            if (spawns[i].x != spawn.worldx() || spawns[i].y != spawn.worldy() || spawns[i].radius != state.rules.dropZoneRadius) return true
+        }
+        return false
+    }
+}
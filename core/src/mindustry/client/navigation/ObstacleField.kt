@@ -0,0 +1,113 @@
+package mindustry.client.navigation
+
+import arc.math.geom.*
+import arc.struct.*
+import mindustry.Vars.tilesize
+import kotlin.math.*
+
+/**
+ * The number of obstacles covering each tile.  Obstacles are diffed against what was rasterized last time in [update],
+ * so only the ones that appeared, disappeared, moved or changed radius touch the grid.
+ */
+class ObstacleField {
+    companion object {
+        /** Added to the cost of stepping onto a tile for each obstacle covering it. */
+        const val OBSTACLE_COST = 100
+    }
+
+    var width = 0
+        private set
+    var height = 0
+        private set
+    private var counts = IntArray(0)
+    /** Every obstacle currently rasterized into [counts] by id. */
+    private val placed = LongMap<Placed>()
+    private var extraRadius = 0f
+    private var stamp = 0
+    /** Called with the bounds of every area whose counts change, inclusive. */
+    var listener: ((minX: Int, minY: Int, maxX: Int, maxY: Int) -> Unit)? = null
+
+    private class Placed(var x: Float, var y: Float, var radius: Float, var stamp: Int)
+
+    /** How many obstacles cover the tile at ([x], [y]), 0 outside of the field. */
+    fun count(x: Int, y: Int) = if (x < 0 || y < 0 || x >= width || y >= height) 0 else counts[x + y * width]
+
+    /** The cost of stepping onto the tile at ([x], [y]) orthogonally. */
+    fun cost(x: Int, y: Int) = 1 + count(x, y) * OBSTACLE_COST
+
+    /** Clears the field if it isn't [width] by [height] tiles. */
+    fun resize(width: Int, height: Int) {
+        if (width == this.width && height == this.height) return
+        this.width = width
+        this.height = height
+        counts = IntArray(width * height)
+        placed.clear()
+        listener?.invoke(0, 0, width - 1, height - 1)
+    }
+
+    fun clear() {
+        counts.fill(0)
+        placed.clear()
+        listener?.invoke(0, 0, width - 1, height - 1)
+    }
+
+    /**
+     * Brings the field up to date with [obstacles] that can hurt the player and [spawns], every circle grown by
+     * [extraRadius].  Obstacles that are no longer in either are removed.
+     */
+    fun update(obstacles: Collection<TurretPathfindingEntity>, spawns: Array<Circle>, extraRadius: Float) {
+        if (extraRadius != this.extraRadius) {  // Every circle changes size
+            clear()
+            this.extraRadius = extraRadius
+        }
+        stamp++
+
+        for (obstacle in obstacles) {
+            if (obstacle.canHitPlayer && obstacle.canShoot) place(obstacle.id, obstacle.x, obstacle.y, obstacle.radius + extraRadius)
+        }
+        // Negative ids never collide with entity ids
+        for (i in spawns.indices) place(-1L - i, spawns[i].x, spawns[i].y, spawns[i].radius + extraRadius)
+
+        val entries = placed.entries().iterator()
+        while (entries.hasNext()) {
+            val entry = entries.next()
+            if (entry.value.stamp == stamp) continue
+            rasterize(entry.value, -1)
+            entries.remove()
+        }
+    }
+
+    private fun place(id: Long, x: Float, y: Float, radius: Float) {
+        val existing = placed.get(id)
+        if (existing == null) {
+            rasterize(Placed(x, y, radius, stamp).also { placed.put(id, it) }, 1)
+            return
+        }
+
+        existing.stamp = stamp
+        if (existing.x == x && existing.y == y && existing.radius == radius) return
+        rasterize(existing, -1)
+        existing.x = x
+        existing.y = y
+        existing.radius = radius
+        rasterize(existing, 1)
+    }
+
+    /** Adds [amount] to every tile whose corner lies within [circle]. */
+    private fun rasterize(circle: Placed, amount: Int) {
+        val minX = max(((circle.x - circle.radius) / tilesize).toInt(), 0)
+        val maxX = min(((circle.x + circle.radius) / tilesize).toInt(), width - 1)
+        val minY = max(((circle.y - circle.radius) / tilesize).toInt(), 0)
+        val maxY = min(((circle.y + circle.radius) / tilesize).toInt(), height - 1)
+        if (minX > maxX || minY > maxY) return
+        listener?.invoke(minX, minY, maxX, maxY)
+        val radius2 = circle.radius * circle.radius
+        for (y in minY..maxY) {
+            for (x in minX..maxX) {
+                val dx = x * tilesize - circle.x
+                val dy = y * tilesize - circle.y
+                if (dx * dx + dy * dy <= radius2) counts[x + y * width] += amount
+            }
+        }
+    }
+}
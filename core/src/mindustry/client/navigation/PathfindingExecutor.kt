@@ -0,0 +1,58 @@
+package mindustry.client.navigation
+
+import arc.*
+import arc.func.*
+import arc.util.*
+import arc.util.async.*
+import java.util.concurrent.*
+
+/**
+ * Runs path searches off the main thread.  Each follower has at most one search that matters at a time, a new request
+ * cancels the one before it, and results are handed back on the main thread.  There is a single worker, as navigators
+ * keep their state between searches and so only search one at a time anyway.
+ */
+object PathfindingExecutor {
+    private val executor = AsyncExecutor(1)
+    /** The latest request of each follower, until its result is delivered. */
+    private val latest = ConcurrentHashMap<Any, Token>()
+
+    /** Checked by searches while they run, they give up as soon as it is cancelled. */
+    class Token {
+        @Volatile var cancelled = false
+            private set
+
+        fun cancel() {
+            cancelled = true
+        }
+    }
+
+    /**
+     * Runs [search] on a worker thread and passes its result to [done] on the main thread, unless [follower] submits
+     * another request or is cancelled first.  Must be called from the main thread.
+     */
+    fun <T> submit(follower: Any, search: Func<Token, T>, done: Cons<T>): Token {
+        val token = Token()
+        latest.put(follower, token)?.cancel()
+
+        executor.submit(Runnable {
+            if (token.cancelled) return@Runnable
+            val result = try {
+                search.get(token)
+            } catch (e: Exception) {
+                Log.err(e)
+                null
+            }
+            Core.app.post {
+                if (latest.remove(follower, token) && !token.cancelled && result != null) done.get(result)
+            }
+        })
+        return token
+    }
+
+    /** Whether [follower] has a request that hasn't been delivered yet. */
+    fun pending(follower: Any) = latest.containsKey(follower)
+
+    fun cancel(follower: Any) {
+        latest.remove(follower)?.cancel()
+    }
+}
@@ -55,7 +55,7 @@ class KeyShareDialog(private val messageCrypto: MessageCrypto) : BaseDialog("@cl
                     nameInput.maxLength = 30
                     nameInput.messageText = "@client.name"
                     nameInput.setFilter { _, c -> c != ' '}
-                    nameInput.setValidator { n -> n.length >= 2 && n !in messageCrypto.keys.map { it.name }.also { name = n } }
+                    nameInput.setValidator { n -> n.length >= 2 && (messageCrypto.keys.named(n) == null).also { name = n } }
                     cont.row(nameInput).width(400f)
 
                     val keyInput = TextField("")
@@ -4,26 +4,35 @@ import arc.struct.*;
 
 public class Autocomplete {
     public static Seq<Autocompleter> autocompleters = new Seq<>();
+    /** How well an item has to match the input to be suggested. */
+    public static final float threshold = 0.5f;
+    /** How many items are suggested at most. */
+    public static final int suggestions = 4;
 
     public static void initialize() {
         autocompleters.forEach(Autocompleter::initialize);
     }
 
     public static String getCompletion(String input) {
-        return closest(input).peek().getCompletion(input);
+        Seq<Autocompleteable> closest = closest(input);
+        return closest.isEmpty() ? input : closest.peek().getCompletion(input);
     }
 
     public static String getHover(String input) {
-        return closest(input).peek().getHover(input);
+        Seq<Autocompleteable> closest = closest(input);
+        return closest.isEmpty() ? input : closest.peek().getHover(input);
     }
 
     public static boolean matches(String input) {
-        return closest(input).peek().matches(input) > 0.5f;
+        return closest(input).any();
     }
 
+    /** The best suggestions for the input, sorted from the worst to the best match. */
     public static Seq<Autocompleteable> closest(String input) {
-        Seq<Autocompleteable> all = autocompleters.reduce(new Seq<>(), (a, b) -> a.closest(input).addAll(b));
-        if (all == null) return null;
-        return all.sort(item -> item.matches(input));
+        Seq<Autocompleteable> all = new Seq<>();
+        for (Autocompleter autocompleter : autocompleters) all.addAll(autocompleter.closest(input, threshold, suggestions));
+        all.sort(item -> item.matches(input));
+        while (all.size > suggestions) all.remove(0);
+        return all;
     }
 }
@@ -9,5 +9,6 @@ public interface Autocompleter {
 
     boolean matches(String input);
 
-    Seq<Autocompleteable> closest(String input);
+    /** The items that match the input better than threshold, at most count of them, sorted from the worst to the best match. */
+    Seq<Autocompleteable> closest(String input, float threshold, int count);
 }
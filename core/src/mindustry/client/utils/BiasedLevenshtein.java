@@ -1,36 +1,99 @@
 package mindustry.client.utils;
 
+/**
+ * Edit distances biased towards prefixes and substrings, for fuzzy matching while typing.  Only two rows of the
+ * distance matrix are kept, in buffers reused by each thread, and the bounded versions give up as soon as the result
+ * can't be within the bound.
+ */
 public class BiasedLevenshtein {
+    private static final ThreadLocal<int[]> rows = ThreadLocal.withInitial(() -> new int[64]);
 
     public static float biasedLevenshtein(String x, String y) {
-        int[][] dp = new int[x.length() + 1][y.length() + 1];
-
-        for(int i = 0; i <= x.length(); i++){
-            for(int j = 0; j <= y.length(); j++){
-                if(i == 0){
-                    dp[i][j] = j;
-                }else if(j == 0){
-                    dp[i][j] = i;
-                }else{
-                    dp[i][j] = Math.min(Math.min(dp[i - 1][j - 1]
-                                    + (x.charAt(i - 1) == y.charAt(j - 1) ? 0 : 1),
-                            dp[i - 1][j] + 1),
-                            dp[i][j - 1] + 1);
-                }
+        return biasedLevenshtein(x, y, Float.POSITIVE_INFINITY);
+    }
+
+    /** The biased distance between x and y if it is at most max, or some larger number if it isn't. */
+    public static float biasedLevenshtein(String x, String y, float max) {
+        return biased(x, y, max, false);
+    }
+
+    public static float biasedLevenshteinInsensitive(String x, String y) {
+        return biasedLevenshteinInsensitive(x, y, Float.POSITIVE_INFINITY);
+    }
+
+    /** The case insensitive biased distance between x and y if it is at most max, or some larger number if it isn't. */
+    public static float biasedLevenshteinInsensitive(String x, String y, float max) {
+        // Lowercasing a character at a time only matches lowercasing the whole string for ASCII
+        if (!ascii(x) || !ascii(y)) return biased(x.toLowerCase(), y.toLowerCase(), max, false);
+        return biased(x, y, max, true);
+    }
+
+    /** The plain edit distance between x and y, without the bias towards prefixes and substrings. */
+    public static int levenshtein(String x, String y) {
+        return levenshtein(x, y, Math.max(x.length(), y.length()), false);
+    }
+
+    /** The plain edit distance between x and y if it is at most limit, or limit + 1 if it isn't. */
+    public static int levenshtein(String x, String y, int limit) {
+        return levenshtein(x, y, limit, false);
+    }
+
+    private static float biased(String x, String y, float max, boolean ignoreCase) {
+        // The bias is known before the distance, so the bound can be scaled by it
+        float divisor = startsWith(y, x, ignoreCase) || startsWith(x, y, ignoreCase) ? 3f : contains(y, x, ignoreCase) || contains(x, y, ignoreCase) ? 1.5f : 1f;
+        int limit = (int)Math.min(max * divisor, Math.max(x.length(), y.length()));
+        return levenshtein(x, y, limit, ignoreCase) / divisor;
+    }
+
+    private static int levenshtein(String x, String y, int limit, boolean ignoreCase) {
+        int n = x.length(), m = y.length();
+        if (Math.abs(n - m) > limit) return limit + 1;
+
+        int[] rows = BiasedLevenshtein.rows.get();
+        if (rows.length < 2 * (m + 1)) BiasedLevenshtein.rows.set(rows = new int[2 * (m + 1) * 3 / 2]);
+        int previous = 0, current = m + 1;
+        for (int j = 0; j <= m; j++) rows[j] = j;
+
+        for (int i = 1; i <= n; i++) {
+            // Cells further than limit from the diagonal are over the limit, so only the band around it is computed
+            int from = Math.max(1, i - limit), to = Math.min(m, i + limit);
+            rows[current + from - 1] = from == 1 ? i : limit + 1;
+            int min = rows[current + from - 1];
+            char c = x.charAt(i - 1);
+
+            for (int j = from; j <= to; j++) {
+                char d = y.charAt(j - 1);
+                boolean same = c == d || ignoreCase && Character.toLowerCase(c) == Character.toLowerCase(d);
+                int value = Math.min(Math.min(rows[previous + j - 1] + (same ? 0 : 1), rows[previous + j] + 1), rows[current + j - 1] + 1);
+                rows[current + j] = value;
+                if (value < min) min = value;
             }
-        }
+            if (to < m) rows[current + to + 1] = limit + 1;  // Read by the next row at the edge of its band
+            if (min > limit) return limit + 1;
 
-        int output = dp[x.length()][y.length()];
-        if (y.startsWith(x) || x.startsWith(y)) {
-            return output / 3f;
+            int swap = previous;
+            previous = current;
+            current = swap;
         }
-        if (y.contains(x) || x.contains(y)) {
-            return output / 1.5f;
+        return Math.min(rows[previous + m], limit + 1);
+    }
+
+    private static boolean startsWith(String string, String prefix, boolean ignoreCase) {
+        return string.regionMatches(ignoreCase, 0, prefix, 0, prefix.length());
+    }
+
+    private static boolean contains(String string, String part, boolean ignoreCase) {
+        if (!ignoreCase) return string.contains(part);
+        for (int i = 0; i <= string.length() - part.length(); i++) {
+            if (string.regionMatches(true, i, part, 0, part.length())) return true;
         }
-        return output;
+        return false;
     }
 
-    public static float biasedLevenshteinInsensitive(String x, String y) {
-        return biasedLevenshtein(x.toLowerCase(), y.toLowerCase());
+    private static boolean ascii(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) >= 128) return false;
+        }
+        return true;
     }
 }
@@ -6,34 +6,38 @@ import mindustry.ui.*;
 
 public class BlockEmotes implements Autocompleter {
 
-    private final Seq<BlockEmote> emotes = new Seq<>();
+    private final CompletionIndex<BlockEmote> emotes = new CompletionIndex<>();
     public void initialize() {
-        Fonts.stringIcons.each((name, ch) -> emotes.add(new BlockEmotes.BlockEmote(ch, name)));
+        Fonts.stringIcons.each((name, ch) -> add(new BlockEmotes.BlockEmote(ch, name)));
 
         for (ObjectIntMap.Entry<String> entry : Iconc.codes) {
-            emotes.add(new BlockEmote(Character.toString((char)entry.value), entry.key));
+            add(new BlockEmote(Character.toString((char)entry.value), entry.key));
         }
     }
 
+    private void add(BlockEmote emote) {
+        emotes.add(emote.name, emote);
+    }
+
     public Autocompleteable getCompletion(String input) {
         return bestMatch(input);
     }
 
-    private BlockEmote bestMatch(String input) {
-        return emotes.max(e -> e.matches(input));
+    private Autocompleteable bestMatch(String input) {
+        Seq<Autocompleteable> closest = closest(input, Autocomplete.threshold, 1);
+        return closest.isEmpty() ? null : closest.first();
     }
 
     @Override
     public boolean matches(String input) {
-        Autocompleteable match = bestMatch(input);
-        if (match == null) {
-            return false;
-        }
-        return match.matches(input) > 0.5f;
+        return bestMatch(input) != null;
     }
 
-    public Seq<Autocompleteable> closest(String input) {
-        return emotes.sort(item -> item.matches(input)).map(item -> item);
+    public Seq<Autocompleteable> closest(String input, float threshold, int count) {
+        Seq<Autocompleteable> out = new Seq<>();
+        String text = BlockEmote.getLast(input);
+        if (text != null) emotes.closest(text, threshold, count, null, out);
+        return out;
     }
 
     private static class BlockEmote implements Autocompleteable {
@@ -46,7 +50,15 @@ public class BlockEmotes implements Autocompleter {
 
         @Override
         public float matches(String input) {
-            if (!input.contains(":")) return 0f;
+            String text = getLast(input);
+            if (text == null) return 0f;
+
+            return CompletionIndex.score(text, name);
+        }
+
+        /** The text after the last unclosed colon, or null if every colon is closed. */
+        private static String getLast(String input) {
+            if (!input.contains(":")) return null;
 
             int count = 0;
             for (char c : input.toCharArray()) {
@@ -54,16 +66,11 @@ public class BlockEmotes implements Autocompleter {
                     count++;
                 }
             }
-            if (count % 2 == 0) return 0f;
+            if (count % 2 == 0) return null;
 
             Seq<String> items = new Seq<>(input.split(":"));
-            if (items.size == 0) return 0f;
-            String text = items.peek();
-            float dst = BiasedLevenshtein.biasedLevenshteinInsensitive(text, name);
-            dst *= -1;
-            dst += name.length();
-            dst /= name.length();
-            return dst;
+            if (items.size == 0) return null;
+            return items.peek();
         }
 
         @Override
@@ -6,16 +6,33 @@ import mindustry.*;
 import mindustry.client.*;
 
 public class CommandCompletion implements Autocompleter {
-    private final Seq<CommandCompletable> commands = new Seq<>();
+    private final CompletionIndex<CommandCompletable> commands = new CompletionIndex<>();
+    /** How many commands each handler had when they were last indexed. */
+    private int serverCommands = -1, clientCommands = -1;
 
     @Override
     public void initialize() {
-        String prefix = Reflect.get(Vars.netServer.clientCommands, "prefix");
-        String finalPrefix = prefix;
-        commands.addAll(Vars.netServer.clientCommands.getCommandList().map(inp -> new CommandCompletable(inp.text, inp.text + " " + inp.paramText, finalPrefix)));
-        prefix = Reflect.get(ClientVars.clientCommandHandler, "prefix");
-        String finalPrefix1 = prefix;
-        commands.addAll(ClientVars.clientCommandHandler.getCommandList().map(inp -> new CommandCompletable(inp.text, inp.text + " " + inp.paramText, finalPrefix1)));
+        update();
+    }
+
+    /** Indexes the commands again if any were registered or removed since last time. */
+    private void update() {
+        Seq<CommandHandler.Command> server = Vars.netServer.clientCommands.getCommandList(), client = ClientVars.clientCommandHandler.getCommandList();
+        if (server.size == serverCommands && client.size == clientCommands) return;
+        serverCommands = server.size;
+        clientCommands = client.size;
+
+        commands.clear();
+        add(Vars.netServer.clientCommands, server);
+        add(ClientVars.clientCommandHandler, client);
+    }
+
+    private void add(CommandHandler handler, Seq<CommandHandler.Command> list) {
+        String prefix = Reflect.get(handler, "prefix");
+        for (CommandHandler.Command command : list) {
+            CommandCompletable completable = new CommandCompletable(command.text, command.text + " " + command.paramText, prefix);
+            commands.add(completable.command, completable);
+        }
     }
 
     @Override
@@ -24,20 +41,27 @@ public class CommandCompletion implements Autocompleter {
     }
 
     private Autocompleteable bestMatch(String input) {
-        return commands.max(e -> e.matches(input));
+        Seq<Autocompleteable> closest = closest(input, Autocomplete.threshold, 1);
+        return closest.isEmpty() ? null : closest.first();
     }
 
     @Override
     public boolean matches(String input) {
-        return closest(input).any();
+        return bestMatch(input) != null;
     }
 
     @Override
-    public Seq<Autocompleteable> closest(String input) {
-        return commands.sort(item -> item.matches(input)).map(item -> item);
+    public Seq<Autocompleteable> closest(String input, float threshold, int count) {
+        Seq<Autocompleteable> out = new Seq<>();
+        if (input == null || input.isEmpty() || input.split("\\s").length > 1) return out;
+
+        update();
+        char first = input.charAt(0);
+        commands.closest(input, threshold, count, command -> command.command.charAt(0) == first, out);
+        return out;
     }
 
-    private class CommandCompletable implements Autocompleteable {
+    private static class CommandCompletable implements Autocompleteable {
         private final String command;
         private final String usage;
 
@@ -52,11 +76,7 @@ public class CommandCompletion implements Autocompleter {
             if (input.split("\\s").length > 1) return 0f;
             if (!input.startsWith(String.valueOf(command.charAt(0)))) return 0f;
 
-            float dst = BiasedLevenshtein.biasedLevenshteinInsensitive(input, command);
-            dst *= -1;
-            dst += command.length();
-            dst /= command.length();
-            return dst;
+            return CompletionIndex.score(input, command);
         }
 
         @Override
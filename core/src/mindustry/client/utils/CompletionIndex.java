@@ -0,0 +1,245 @@
+package mindustry.client.utils;
+
+import arc.func.*;
+import arc.struct.*;
+import arc.util.*;
+
+/**
+ * Finds the items whose names best match some text without scoring every item.  Names containing the text or
+ * contained in it are found in a trie of every substring of the names, and the rest that could still score above the
+ * threshold in a BK-tree over their edit distances.  Items can be added and removed at any time.
+ */
+public class CompletionIndex<T> {
+    private final ObjectMap<T, Entry<T>> entries = new ObjectMap<>();
+    private final TrieNode<T> trie = new TrieNode<>();
+    private BkNode<T> bkRoot;
+    /** BK-tree nodes whose items have all been removed, which only stay to keep the tree searchable. */
+    private int deadNodes, liveNodes;
+    private int stamp;
+
+    private final Seq<Entry<T>> candidates = new Seq<>();
+    private final Seq<Entry<T>> best = new Seq<>();
+    private final FloatSeq bestScores = new FloatSeq();
+    private final Seq<BkNode<T>> stack = new Seq<>();
+
+    /** How well text matches name on a scale from 0-1, as every {@link Autocompleteable} scores it. */
+    public static float score(String text, String name) {
+        float dst = BiasedLevenshtein.biasedLevenshteinInsensitive(text, name);
+        dst *= -1;
+        dst += name.length();
+        dst /= name.length();
+        return dst;
+    }
+
+    /** Adds item under name, replacing the name it had if it was already added. */
+    public void add(String name, T item) {
+        remove(item);
+        Entry<T> entry = new Entry<>(item, name);
+        entries.put(item, entry);
+
+        String key = entry.key;
+        trie.within.add(entry);
+        for (int i = 0; i < key.length(); i++) {
+            TrieNode<T> node = trie;
+            for (int j = i; j < key.length(); j++) {
+                TrieNode<T> child = node.children.get(key.charAt(j));
+                if (child == null) node.children.put(key.charAt(j), child = new TrieNode<>());
+                node = child;
+                // The same substring can occur more than once, but it is only added once in a row
+                if (node.within.isEmpty() || node.within.peek() != entry) node.within.add(entry);
+            }
+            if (i == 0) node.ends.add(entry);
+        }
+
+        insert(entry);
+    }
+
+    /** Removes item, returning whether it was added. */
+    public boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) return false;
+
+        String key = entry.key;
+        trie.within.remove(entry, true);
+        for (int i = 0; i < key.length(); i++) {
+            TrieNode<T> node = trie;
+            for (int j = i; j < key.length(); j++) {
+                TrieNode<T> child = node.children.get(key.charAt(j));
+                if (child == null) break;  // Already removed along with an earlier suffix
+                child.within.remove(entry, true);
+                if (i == 0 && j == key.length() - 1) child.ends.remove(entry, true);
+                if (child.within.isEmpty()) {
+                    node.children.remove(key.charAt(j));  // Nothing is left below it either
+                    break;
+                }
+                node = child;
+            }
+        }
+
+        BkNode<T> bk = entry.bk;
+        bk.entries.remove(entry, true);
+        if (bk.entries.isEmpty()) {
+            deadNodes++;
+            liveNodes--;
+            if (deadNodes > liveNodes) rebuild();
+        }
+        return true;
+    }
+
+    public void clear() {
+        entries.clear();
+        trie.within.clear();
+        trie.children.clear();
+        bkRoot = null;
+        deadNodes = liveNodes = 0;
+    }
+
+    public int size() {
+        return entries.size;
+    }
+
+    /**
+     * Adds the items that score higher than threshold against text and pass filter to out, at most count of them.
+     * They are sorted from the worst to the best match, like a sort by score would.
+     */
+    public void closest(String text, float threshold, int count, @Nullable Boolf<T> filter, Seq<? super T> out) {
+        if (count <= 0 || entries.isEmpty()) return;
+        String lower = text.toLowerCase();
+        stamp++;
+        candidates.clear();
+
+        if (threshold <= 0f) {
+            for (Entry<T> entry : entries.values()) candidates.add(entry);
+        } else {
+            // Names that contain the text
+            TrieNode<T> node = trie;
+            for (int i = 0; i < lower.length() && node != null; i++) node = node.children.get(lower.charAt(i));
+            if (node != null) addCandidates(node.within);
+
+            // Names that the text contains
+            for (int i = 0; i < lower.length(); i++) {
+                node = trie;
+                for (int j = i; j < lower.length(); j++) {
+                    node = node.children.get(lower.charAt(j));
+                    if (node == null) break;
+                    addCandidates(node.ends);
+                }
+            }
+
+            // Any other name is at least as far from the text as the difference in length, so with d < (1 - threshold) * length
+            // needed to pass, only those closer than (1 - threshold) / threshold * text length are worth scoring
+            int radius = (int)Math.ceil((1f - threshold) / threshold * lower.length()) - 1;
+            if (radius >= 0 && bkRoot != null) search(lower, radius);
+        }
+
+        best.clear();
+        bestScores.clear();
+        for (Entry<T> entry : candidates) {
+            if (filter != null && !filter.get(entry.item)) continue;
+            // Anything further than this scores below the threshold, so there's no need to know by how much
+            float max = (1f - threshold) * entry.name.length() + 1f;
+            float score = (entry.name.length() - BiasedLevenshtein.biasedLevenshtein(lower, entry.key, max)) / entry.name.length();
+            if (!(score > threshold)) continue;
+            if (best.size == count && score <= bestScores.first()) continue;
+
+            // Insertion into the few best so far, kept from worst to best
+            int index = 0;
+            while (index < best.size && bestScores.get(index) < score) index++;
+            best.insert(index, entry);
+            bestScores.insert(index, score);
+            if (best.size > count) {
+                best.remove(0);
+                bestScores.removeIndex(0);
+            }
+        }
+        for (Entry<T> entry : best) out.add(entry.item);
+    }
+
+    private void addCandidates(Seq<Entry<T>> entries) {
+        for (Entry<T> entry : entries) {
+            if (entry.stamp == stamp) continue;
+            entry.stamp = stamp;
+            candidates.add(entry);
+        }
+    }
+
+    private void search(String text, int radius) {
+        stack.clear();
+        stack.add(bkRoot);
+        while (!stack.isEmpty()) {
+            BkNode<T> node = stack.pop();
+            int distance = BiasedLevenshtein.levenshtein(text, node.key);
+            if (distance <= radius) addCandidates(node.entries);
+            for (int i = Math.max(distance - radius, 0); i <= distance + radius; i++) {
+                BkNode<T> child = node.children.get(i);
+                if (child != null) stack.add(child);
+            }
+        }
+    }
+
+    private void insert(Entry<T> entry) {
+        BkNode<T> node = bkRoot;
+        boolean created = false;
+        if (node == null) {
+            node = bkRoot = new BkNode<>(entry.key);
+            created = true;
+        }
+
+        while (!created) {
+            int distance = BiasedLevenshtein.levenshtein(entry.key, node.key);
+            if (distance == 0) break;
+            BkNode<T> child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, child = new BkNode<>(entry.key));
+                created = true;
+            }
+            node = child;
+        }
+
+        if (created) liveNodes++;
+        else if (node.entries.isEmpty()) {  // Left behind by a removed item with the same name
+            deadNodes--;
+            liveNodes++;
+        }
+        node.entries.add(entry);
+        entry.bk = node;
+    }
+
+    /** Builds the BK-tree again without the nodes left behind by removed items. */
+    private void rebuild() {
+        bkRoot = null;
+        deadNodes = liveNodes = 0;
+        for (Entry<T> entry : entries.values()) insert(entry);
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final String name, key;
+        BkNode<T> bk;
+        int stamp;
+
+        Entry(T item, String name) {
+            this.item = item;
+            this.name = name;
+            this.key = name.toLowerCase();
+        }
+    }
+
+    private static class TrieNode<T> {
+        final IntMap<TrieNode<T>> children = new IntMap<>();
+        /** Every entry whose name contains the substring leading here. */
+        final Seq<Entry<T>> within = new Seq<>(false, 4);
+        /** The entries whose whole name is the substring leading here. */
+        final Seq<Entry<T>> ends = new Seq<>(false, 1);
+    }
+
+    private static class BkNode<T> {
+        final String key;
+        final IntMap<BkNode<T>> children = new IntMap<>();
+        final Seq<Entry<T>> entries = new Seq<>(false, 1);
+
+        BkNode(String key) {
+            this.key = key;
+        }
+    }
+}
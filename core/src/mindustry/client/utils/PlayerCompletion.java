@@ -5,6 +5,8 @@ import arc.util.*;
 import mindustry.gen.*;
 
 public class PlayerCompletion implements Autocompleter {
+    private final CompletionIndex<PlayerMatcher> index = new CompletionIndex<>();
+    private final ObjectMap<Player, PlayerMatcher> matchers = new ObjectMap<>();
 
     public Autocompleteable getCompletion(String input) {
         return bestMatch(input);
@@ -12,30 +14,64 @@ public class PlayerCompletion implements Autocompleter {
 
     @Override
     public boolean matches(String input) {
-        Autocompleteable match = bestMatch(input);
-        if (match == null) {
-            return false;
-        }
-        return match.matches(input) > 0.5f;
+        return bestMatch(input) != null;
     }
 
     private Autocompleteable bestMatch(String input) {
-        Seq<Autocompleteable> completions = closest(input);
+        Seq<Autocompleteable> completions = closest(input, Autocomplete.threshold, 1);
         if (completions.isEmpty()) return null;
-        return closest(input).first();
+        return completions.first();
     }
 
-    public Seq<Autocompleteable> closest(String input) {
-        Seq<Player> all =  Groups.player.array.copy();
-        if (all == null) return null;
-        return all.sort(item -> (new PlayerMatcher(item)).matches(input)).map(PlayerMatcher::new);
+    public Seq<Autocompleteable> closest(String input, float threshold, int count) {
+        Seq<Autocompleteable> out = new Seq<>();
+        String text = getLast(input);
+        if (text == null) return out;
+
+        update();
+        index.closest(text, threshold, count, null, out);
+        return out;
+    }
+
+    /** Indexes the players that joined or were renamed since last time, and removes the ones that left. */
+    private void update() {
+        for (Player player : Groups.player) {
+            PlayerMatcher matcher = matchers.get(player);
+            if (matcher != null && matcher.rawName.equals(player.name)) continue;
+
+            if (matcher != null) index.remove(matcher);
+            matcher = new PlayerMatcher(player);
+            matchers.put(player, matcher);
+            index.add(matcher.matchName, matcher);
+        }
+
+        // Every player is indexed by now, so any others have left
+        if (matchers.size > Groups.player.size()) {
+            Seq<Player> left = new Seq<>();
+            for (Player player : matchers.keys()) {
+                if (!player.isAdded()) left.add(player);
+            }
+            for (Player player : left) index.remove(matchers.remove(player));
+        }
+    }
+
+    private static String getLast(String input) {
+        Seq<String> strings = new Seq<>(input.split("\\s"));
+        if (strings.isEmpty()) {
+            return null;
+        }
+        String text = strings.peek();
+        if (!text.startsWith("@")) return null;
+        return text.replaceAll("@", "");
     }
 
     private static class PlayerMatcher implements Autocompleteable {
+        private final String rawName;
         private final String name;
         private final String matchName;
 
         public PlayerMatcher(Player player) {
+            rawName = player.name;
             name = Strings.stripColors(player.name);
             matchName = Strings.stripColors(player.name.replaceAll("\\s", ""));
         }
@@ -45,11 +81,7 @@ public class PlayerCompletion implements Autocompleter {
             String text = getLast(input);
             if (text == null) return 0f;
 
-            float dst = BiasedLevenshtein.biasedLevenshteinInsensitive(text, matchName);
-            dst *= -1;
-            dst += matchName.length();
-            dst /= matchName.length();
-            return dst;
+            return CompletionIndex.score(text, matchName);
         }
 
         @Override
@@ -67,15 +99,5 @@ public class PlayerCompletion implements Autocompleter {
 
             return input.replace("@" + text, name);
         }
-
-        private String getLast(String input) {
-            Seq<String> strings = new Seq<>(input.split("\\s"));
-            if (strings.isEmpty()) {
-                return null;
-            }
-            String text = strings.peek();
-            if (!text.startsWith("@")) return null;
-            return text.replaceAll("@", "");
-        }
     }
 }
@@ -87,8 +87,11 @@ object Compression {
         return output
     }
 
-    fun inflate(input: ByteArray): ByteArray {
-        val inflater = InflaterInputStream(input.inputStream())
+    fun inflate(input: ByteArray) = inflate(input, 0, input.size)
+
+    /** Inflates [length] bytes of [input] starting at [offset] without copying them out first. */
+    fun inflate(input: ByteArray, offset: Int, length: Int): ByteArray {
+        val inflater = InflaterInputStream(ByteArrayInputStream(input, offset, length))
         val output = inflater.readBytes()
         inflater.close()
         return output
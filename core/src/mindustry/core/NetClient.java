@@ -59,6 +59,12 @@ public class NetClient implements ApplicationListener{
     /** Byte stream for reading in snapshots. */
     private ReusableByteInStream byteStream = new ReusableByteInStream();
     private DataInputStream dataStream = new DataInputStream(byteStream);
+    /** The last few entity snapshots received, which delta snapshots are differences from. */
+    private SnapshotFrame[] deltaFrames = SnapshotFrame.ring();
+    /** An entity of each type to read fields of delta snapshots into, to find where they end. */
+    private IntMap<Syncc> syncPrototypes = new IntMap<>();
+    private ReusableByteInStream frameStream = new ReusableByteInStream();
+    private Reads frameRead = new Reads(new DataInputStream(frameStream));
     /** Packet handlers for custom types of messages. */
     private ObjectMap<String, Seq<Cons<String>>> customPacketHandlers = new ObjectMap<>();
 
@@ -423,6 +429,7 @@ public class NetClient implements ApplicationListener{
     public static void worldDataBegin(){
         Groups.clear();
         netClient.removed.clear();
+        netClient.resetDeltaFrames();
         logic.reset();
         netClient.connecting = true;
 
@@ -452,50 +459,119 @@ public class NetClient implements ApplicationListener{
         Groups.player.removeByID(playerid);
     }
 
+    /**
+     * Entities missing from a snapshot are never removed here: servers leave entities far from the view out of most
+     * snapshots, so removal only comes from the remote calls that remove them.
+     */
     @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true)
     public static void entitySnapshot(short amount, short dataLen, byte[] data){
         try{
-            netClient.byteStream.setBytes(net.decompressSnapshot(data, dataLen));
+            byte[] bytes = net.decompressSnapshot(data, dataLen);
+            netClient.byteStream.setBytes(bytes);
             DataInputStream input = netClient.dataStream;
 
+            //delta snapshots have the complement of their entity count as the amount
+            if(amount < 0){
+                netClient.readDeltaSnapshot(~amount, bytes);
+                return;
+            }
+
             for(int j = 0; j < amount; j++){
                 int id = input.readInt();
                 byte typeID = input.readByte();
 
-                Syncc entity = Groups.sync.getByID(id);
-                boolean add = false, created = false;
+                readEntity(id, typeID, Reads.get(input));
+            }
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
 
-                if(entity == null && id == player.id()){
-                    entity = player;
-                    add = true;
-                }
+    /** Reads the sync data of an entity, creating it if it doesn't exist yet. */
+    private static void readEntity(int id, byte typeID, Reads read){
+        Syncc entity = Groups.sync.getByID(id);
+        boolean add = false, created = false;
 
-                //entity must not be added yet, so create it
-                if(entity == null){
-                    entity = (Syncc)EntityMapping.map(typeID).get();
-                    entity.id(id);
-                    if(!netClient.isEntityUsed(entity.id())){
-                        add = true;
-                    }
-                    created = true;
-                }
+        if(entity == null && id == player.id()){
+            entity = player;
+            add = true;
+        }
 
-                //read the entity
-                entity.readSync(Reads.get(input));
+        //entity must not be added yet, so create it
+        if(entity == null){
+            entity = (Syncc)EntityMapping.map(typeID).get();
+            entity.id(id);
+            if(!netClient.isEntityUsed(entity.id())){
+                add = true;
+            }
+            created = true;
+        }
 
-                if(created){
-                    //snap initial starting position
-                    entity.snapSync();
-                }
+        //read the entity
+        entity.readSync(read);
 
-                if(add){
-                    entity.add();
-                    netClient.addRemovedEntity(entity.id());
-                    if (entity instanceof Player p) Events.fire(new PlayerJoin(p));
-                }
+        if(created){
+            //snap initial starting position
+            entity.snapSync();
+        }
+
+        if(add){
+            entity.add();
+            netClient.addRemovedEntity(entity.id());
+            if (entity instanceof Player p) Events.fire(new PlayerJoin(p));
+        }
+    }
+
+    /**
+     * Reads a part of a delta snapshot, taking the fields that weren't sent from the snapshot it is a difference from,
+     * and acknowledges the snapshot once every part of it has been read whole.
+     */
+    private void readDeltaSnapshot(int amount, byte[] bytes) throws IOException{
+        DataInputStream input = dataStream;
+        int sequence = input.readInt(), baseSequence = input.readInt();
+        int part = input.readShort(), parts = input.readShort();
+
+        SnapshotFrame frame = deltaFrames[sequence % SnapshotFrame.kept];
+        if(frame.sequence != sequence){
+            //a newer snapshot has taken its place already
+            if(frame.sequence > sequence) return;
+            frame.reset(sequence);
+        }
+        if(frame.received.get(part)) return;
+
+        SnapshotFrame base = baseSequence < 0 ? null : deltaFrames[baseSequence % SnapshotFrame.kept];
+        if(base != null && base.sequence != baseSequence) base = null;
+
+        for(int j = 0; j < amount; j++){
+            int id = input.readInt();
+            byte typeID = input.readByte();
+
+            Syncc prototype = syncPrototypes.get(typeID);
+            if(prototype == null) syncPrototypes.put(typeID, prototype = (Syncc)EntityMapping.map(typeID).get());
+
+            int index = frame.readDelta(id, typeID, prototype, bytes, input, base);
+            if(index == -1){
+                //the fields that weren't sent are gone, so the entity waits for the next snapshot sent whole
+                frame.incomplete = true;
+                continue;
             }
-        }catch(IOException e){
-            throw new RuntimeException(e);
+
+            frameStream.setBytes(frame.stream.getBytes());
+            frameStream.skip(frame.fieldStart(index, 0));
+            readEntity(id, typeID, frameRead);
+        }
+
+        frame.received.set(part);
+        frame.receivedParts++;
+        frame.parts = parts;
+        if(frame.receivedParts == parts && !frame.incomplete){
+            Call.serverPacketUnreliable("deltaack", String.valueOf(sequence));
+        }
+    }
+
+    private void resetDeltaFrames(){
+        for(SnapshotFrame frame : deltaFrames){
+            frame.reset(-1);
         }
     }
 
@@ -595,6 +671,8 @@ public class NetClient implements ApplicationListener{
         ui.join.hide();
         net.setClientLoaded(true);
         Core.app.post(Call::connectConfirm);
+        //servers that don't know about delta snapshots ignore this
+        Core.app.post(() -> Call.serverPacketReliable("deltasnapshots", ""));
         Time.runTask(40f, platform::updateRPC);
         Core.app.post(ui.loadfrag::hide);
     }
@@ -602,6 +680,7 @@ public class NetClient implements ApplicationListener{
     private void reset(){
         net.setClientLoaded(false);
         removed.clear();
+        resetDeltaFrames();
         timeoutTime = 0f;
         connecting = true;
         quietReset = false;
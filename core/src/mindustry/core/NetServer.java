@@ -28,6 +28,7 @@ import mindustry.world.blocks.storage.CoreBlock.*;
 import java.io.*;
 import java.net.*;
 import java.nio.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 import static arc.util.Log.*;
@@ -37,9 +38,21 @@ public class NetServer implements ApplicationListener{
     /** note that snapshots are compressed, so the max snapshot size here is above the typical UDP safe limit */
     private static final int maxSnapshotSize = 800, timerBlockSync = 0, serverSyncTime = 200;
     private static final float blockSyncTime = 60 * 6;
+    /**
+     * How many block syncs it takes to send every synced building, changed or not. Buildings that wrote something else
+     * since they were last sent go out every sync, this only catches up clients that missed or dropped a snapshot.
+     */
+    private static final int blockRefreshSyncs = 10;
     private static final FloatBuffer fbuffer = FloatBuffer.allocate(20);
     private static final Vec2 vector = new Vec2();
-    private static final Rect viewport = new Rect();
+    private static final Rect viewport = new Rect(), ring = new Rect();
+    /** Entities this far out of a player's view are still synced at the full rate. */
+    private static final float viewPadding = tilesize * 8f;
+    /** Entities within this distance of the padded view are synced every few syncs, the rest only every so often. */
+    private static final float ringSize = tilesize * 40f;
+    private static final int ringInterval = 3, heartbeatInterval = 15;
+    /** Threads that snapshots are encoded and compressed on, along with the main thread. */
+    private static final int snapshotThreads = Math.max(OS.cores - 1, 1);
     /** If a player goes away of their server-side coordinates by this distance, they get teleported back. */
     private static final float correctDist = tilesize * 14f;
 
@@ -75,6 +88,42 @@ public class NetServer implements ApplicationListener{
     private ReusableByteOutStream syncStream = new ReusableByteOutStream();
     /** Data stream for writing player sync data to. */
     private DataOutputStream dataStream = new DataOutputStream(syncStream);
+    /** Stream for writing a single building to, before it's known whether it needs to be sent. */
+    private ReusableByteOutStream blockStream = new ReusableByteOutStream(127);
+    /** Data stream for writing a single building to. */
+    private DataOutputStream blockData = new DataOutputStream(blockStream);
+    /** Entity sync data of the last few syncs, each written once and shared by every player synced in it. */
+    private SnapshotFrame[] frames = SnapshotFrame.ring();
+    /** The frame of the current sync. */
+    private SnapshotFrame frame = frames[0];
+    /** Indices of the entities sent to every player, those that are placed by position, and those due for a heartbeat. */
+    private IntSeq alwaysSynced = new IntSeq(), positionSynced = new IntSeq(), heartbeats = new IntSeq();
+    /** How many times snapshots have been written, which decides when far entities are due. */
+    private int syncs;
+    /** How many times block snapshots have been written, which decides which unchanged buildings are refreshed. */
+    private int blockSyncs;
+    /** The snapshots of each player being synced, and the snapshots of every entity that players without a view share. */
+    private Seq<SnapshotEncoder> encoders = new Seq<>();
+    private SnapshotEncoder shared = new SnapshotEncoder();
+    /** Uncompressed block snapshots, along with how many buildings are in each, and the same ones compressed. */
+    private Seq<byte[]> blockSnapshots = new Seq<>();
+    private IntSeq blockSnapshotCounts = new IntSeq();
+    private byte[][] compressedBlockSnapshots = {};
+    /** Snapshot work of this sync, run on the snapshot threads and this one. */
+    private Seq<SnapshotTask> snapshotTasks = new Seq<>();
+    private Seq<Future<?>> snapshotFutures = new Seq<>();
+    private ExecutorService snapshotExecutor = Executors.newFixedThreadPool(snapshotThreads, r -> {
+        Thread thread = new Thread(r, "Snapshot-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Compressed core state, sent along with the entity snapshots. */
+    private byte[] stateSnapshot;
+    private short stateSnapshotLength;
+    /** When every player was last sent snapshots. */
+    private long lastSyncTime;
+    /** Players whose snapshots are due in the current sync. */
+    private Seq<Player> syncing = new Seq<>();
     /** Packet handlers for custom types of messages. */
     private ObjectMap<String, Seq<Cons2<Player, String>>> customPacketHandlers = new ObjectMap<>();
 
@@ -270,6 +319,16 @@ public class NetServer implements ApplicationListener{
             }
         });
 
+        //clients that support delta snapshots ask for them, and acknowledge each snapshot they receive whole
+        addPacketHandler("deltasnapshots", (player, contents) -> player.con.deltaSnapshots = true);
+
+        addPacketHandler("deltaack", (player, contents) -> {
+            int sequence = Strings.parseInt(contents, -1);
+            if(sequence > player.con.deltaAcked && sequence <= syncs){
+                player.con.deltaAcked = sequence;
+            }
+        });
+
         registerCommands();
     }
 
@@ -508,6 +567,9 @@ public class NetServer implements ApplicationListener{
     }
 
     public void sendWorldData(Player player){
+        //clients forget the entities they had, so there's nothing to send differences from
+        player.con.deltaAcked = -1;
+
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
         DeflaterOutputStream def = new FastDeflaterOutputStream(stream);
         NetworkIO.writeWorld(player, def);
@@ -832,36 +894,139 @@ public class NetServer implements ApplicationListener{
         }
     }
 
-    /** Sends a block snapshot to all players. */
+    /** Sends a block snapshot to all players, of the synced buildings that changed since the last one and a share of the rest. */
     public void writeBlockSnapshots() throws IOException{
         syncStream.reset();
+        blockSyncs++;
+        blockSnapshots.clear();
+        blockSnapshotCounts.clear();
 
-        short sent = 0;
+        int sent = 0;
         for(Building entity : Groups.build){
             if(!entity.block.sync) continue;
+
+            //written on its own first, so that it's only sent when the bytes changed or it's this building's turn to be refreshed
+            blockStream.reset();
+            entity.writeAll(Writes.get(blockData));
+            byte[] bytes = blockStream.getBytes();
+            int hash = 0;
+            for(int i = 0; i < blockStream.size(); i++){
+                hash = 31 * hash + bytes[i];
+            }
+
+            if(!entity.syncChanged(hash) && entity.id % blockRefreshSyncs != blockSyncs % blockRefreshSyncs) continue;
             sent ++;
 
             dataStream.writeInt(entity.pos());
             dataStream.writeShort(entity.block.id);
-            entity.writeAll(Writes.get(dataStream));
+            dataStream.write(bytes, 0, blockStream.size());
 
             if(syncStream.size() > maxSnapshotSize){
-                dataStream.close();
-                byte[] stateBytes = syncStream.toByteArray();
-                Call.blockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+                blockSnapshots.add(syncStream.toByteArray());
+                blockSnapshotCounts.add(sent);
                 sent = 0;
                 syncStream.reset();
             }
         }
 
         if(sent > 0){
-            dataStream.close();
-            byte[] stateBytes = syncStream.toByteArray();
-            Call.blockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+            blockSnapshots.add(syncStream.toByteArray());
+            blockSnapshotCounts.add(sent);
+        }
+
+        //only compression is left, which doesn't touch the game
+        if(compressedBlockSnapshots.length < blockSnapshots.size) compressedBlockSnapshots = new byte[blockSnapshots.size][];
+        int threads = Math.min(blockSnapshots.size, snapshotThreads + 1);
+        for(int i = 0; i < threads; i++){
+            int thread = i;
+            snapshotTasks.add(() -> {
+                for(int j = thread; j < blockSnapshots.size; j += threads){
+                    compressedBlockSnapshots[j] = net.compressSnapshot(blockSnapshots.get(j));
+                }
+            });
+        }
+        runSnapshotTasks();
+
+        for(int i = 0; i < blockSnapshots.size; i++){
+            Call.blockSnapshot((short)blockSnapshotCounts.get(i), (short)blockSnapshots.get(i).length, compressedBlockSnapshots[i]);
+            compressedBlockSnapshots[i] = null;
         }
     }
 
     public void writeEntitySnapshot(Player player) throws IOException{
+        writeEntitySnapshots(Seq.with(player));
+    }
+
+    /**
+     * Writes the state and every entity once, and sends each of the players the entities they are interested in.
+     * What each player is sent is chosen on the main thread, then cut into snapshots and compressed on the snapshot
+     * threads, and sent in the same order as the players once every player's snapshots are done.
+     */
+    public void writeEntitySnapshots(Seq<Player> players) throws IOException{
+        if(players.isEmpty()) return;
+
+        encodeSnapshot();
+
+        shared.reset(null);
+        shared.all = true;
+        while(encoders.size < players.size) encoders.add(new SnapshotEncoder());
+        for(int i = 0; i < players.size; i++){
+            select(players.get(i), encoders.get(i));
+        }
+
+        if(shared.needed) snapshotTasks.add(shared::encode);
+        for(int i = 0; i < players.size; i++){
+            SnapshotEncoder encoder = encoders.get(i);
+            if(encoder.source == encoder) snapshotTasks.add(encoder::encode);
+        }
+        runSnapshotTasks();
+
+        for(int i = 0; i < players.size; i++){
+            NetConnection con = players.get(i).con;
+            SnapshotEncoder source = encoders.get(i).source;
+
+            //write basic state data.
+            Call.stateSnapshot(con, state.wavetime, state.wave, state.enemies, state.serverPaused, state.gameOver, universe.seconds(), stateSnapshotLength, stateSnapshot);
+
+            for(int j = 0; j < source.snapshots.size; j++){
+                Call.entitySnapshot(con, (short)source.amounts.get(j), (short)source.lengths.get(j), source.snapshots.get(j));
+            }
+        }
+    }
+
+    /** Runs the snapshot tasks on the snapshot threads, and the last one on this thread alongside them, and waits for all of them. */
+    private void runSnapshotTasks() throws IOException{
+        try{
+            for(int i = 0; i < snapshotTasks.size - 1; i++){
+                SnapshotTask task = snapshotTasks.get(i);
+                snapshotFutures.add(snapshotExecutor.submit(() -> {
+                    task.run();
+                    return null;
+                }));
+            }
+            if(snapshotTasks.any()) snapshotTasks.peek().run();
+        }finally{
+            snapshotTasks.clear();
+            try{
+                for(Future<?> future : snapshotFutures){
+                    future.get();
+                }
+            }catch(InterruptedException e){
+                throw new RuntimeException(e);
+            }catch(ExecutionException e){
+                if(e.getCause() instanceof IOException io) throw io;
+                throw new RuntimeException(e.getCause());
+            }finally{
+                snapshotFutures.clear();
+            }
+        }
+    }
+
+    private interface SnapshotTask{
+        void run() throws IOException;
+    }
+
+    private void encodeSnapshot() throws IOException{
         syncStream.reset();
         int sum = state.teams.present.sum(t -> t.cores.size);
 
@@ -876,40 +1041,250 @@ public class NetServer implements ApplicationListener{
 
         dataStream.close();
         byte[] stateBytes = syncStream.toByteArray();
+        stateSnapshotLength = (short)stateBytes.length;
+        stateSnapshot = net.compressSnapshot(stateBytes);
 
-        //write basic state data.
-        Call.stateSnapshot(player.con, state.wavetime, state.wave, state.enemies, state.serverPaused, state.gameOver, universe.seconds(), (short)stateBytes.length, net.compressSnapshot(stateBytes));
+        alwaysSynced.clear();
+        positionSynced.clear();
+        heartbeats.clear();
+        syncs++;
+        frame = frames[syncs % SnapshotFrame.kept];
+        frame.reset(syncs);
 
-        viewport.setSize(player.con.viewWidth, player.con.viewHeight).setCenter(player.con.viewX, player.con.viewY);
+        int index = 0;
+        for(Syncc entity : Groups.sync){
+            //write all entities now, with their id and type
+            frame.write(entity);
 
-        syncStream.reset();
+            //units are found through their quadtree, players are few enough to always be synced and weather is global
+            if(!(entity instanceof Unit)){
+                if(entity instanceof Posc && !(entity instanceof Player) && !(entity instanceof WeatherState)){
+                    positionSynced.add(index);
+                }else{
+                    alwaysSynced.add(index);
+                }
+            }
+            if(due(entity.id(), heartbeatInterval)) heartbeats.add(index);
+            index++;
+        }
+    }
 
-        int sent = 0;
+    /** Whether an entity far from the view is synced in this sync.  Entities are spread out over the interval by their ID. */
+    private boolean due(int id, int interval){
+        return (syncs + id) % interval == 0;
+    }
 
-        for(Syncc entity : Groups.sync){
-            //write all entities now
-            dataStream.writeInt(entity.id()); //write id
-            dataStream.writeByte(entity.classId()); //write type ID
-            entity.writeSync(Writes.get(dataStream)); //write entity
+    /** Chooses the entities the player is sent, and how. Everything that depends on the game is read here, on the main thread. */
+    private void select(Player player, SnapshotEncoder encoder){
+        var con = player.con;
+        boolean deltas = con.deltaSnapshots && Config.deltaSnapshots.bool();
+        //without a view yet or with interest management off, the player gets everything
+        boolean everything = con.viewWidth <= 0 || con.viewHeight <= 0 || !Config.interestManagement.bool();
+
+        //which is the same for every player that isn't sent deltas
+        if(everything && !deltas){
+            encoder.source = shared;
+            shared.needed = true;
+            return;
+        }
 
-            sent++;
+        encoder.reset(con);
+        encoder.all = everything;
+        if(deltas) encoder.selectBase();
+        if(everything) return;
 
-            if(syncStream.size() > maxSnapshotSize){
-                dataStream.close();
-                byte[] syncBytes = syncStream.toByteArray();
-                Call.entitySnapshot(player.con, (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
-                sent = 0;
-                syncStream.reset();
+        viewport.setSize(con.viewWidth, con.viewHeight).setCenter(con.viewX, con.viewY).grow(viewPadding * 2f);
+        ring.set(viewport).grow(ringSize * 2f);
+
+        for(int i = 0; i < alwaysSynced.size; i++) encoder.select(alwaysSynced.get(i));
+        if(player.unit() != null && !player.dead()) encoder.select(frame.indices.get(player.unit().id, -1));
+
+        Groups.unit.intersect(ring.x, ring.y, ring.width, ring.height, unit -> {
+            if(viewport.contains(unit.x, unit.y) || due(unit.id, ringInterval)){
+                encoder.select(frame.indices.get(unit.id, -1));
+            }
+        });
+
+        Seq<Syncc> all = Groups.sync.array;
+        for(int i = 0; i < positionSynced.size; i++){
+            int index = positionSynced.get(i);
+            Posc entity = (Posc)all.get(index);
+            if(viewport.contains(entity.x(), entity.y()) || (ring.contains(entity.x(), entity.y()) && due(entity.id(), ringInterval))){
+                encoder.select(index);
             }
         }
 
-        if(sent > 0){
-            dataStream.close();
+        //the rest are sent every so often, so they are still created and updated on the client
+        for(int i = 0; i < heartbeats.size; i++) encoder.select(heartbeats.get(i));
+    }
+
+    /**
+     * Cuts the entity snapshots of a player, or those shared by every player that isn't sent deltas, from the frame of
+     * this sync and compresses them. Each has its own buffers, so they can be encoded at the same time; they only read
+     * the frames and write to the delta state of their own connection.
+     */
+    private class SnapshotEncoder{
+        /** The connection the snapshots are for, or null for the shared ones. */
+        @Nullable NetConnection con;
+        /** The encoder whose snapshots are sent to the player; itself unless they are the shared ones. */
+        SnapshotEncoder source = this;
+        /** Whether the shared snapshots are sent to any player. */
+        boolean needed;
+        /** Whether the player is sent every entity instead of the selected ones. */
+        boolean all;
+        /** Indices of the entities sent to the player. */
+        final IntSeq selection = new IntSeq();
+        final Bits selected = new Bits(), changed = new Bits();
+
+        /** The snapshot deltas are a difference from, with the entities the player was sent in it. */
+        @Nullable SnapshotFrame base;
+        @Nullable Bits baseSent;
+        /** Entities the player is sent in this sync, for later deltas. */
+        @Nullable Bits sent;
+
+        /** Compressed snapshots, along with the amount and the uncompressed length of each. */
+        final Seq<byte[]> snapshots = new Seq<>();
+        final IntSeq amounts = new IntSeq(), lengths = new IntSeq();
+
+        final ReusableByteOutStream stream = new ReusableByteOutStream();
+        final DataOutputStream data = new DataOutputStream(stream);
+        /** Parts of a delta snapshot, along with how many entities are in each, before their headers. */
+        final Seq<byte[]> parts = new Seq<>();
+        final IntSeq counts = new IntSeq();
+        final ReusableByteOutStream partStream = new ReusableByteOutStream();
+        final DataOutputStream partData = new DataOutputStream(partStream);
+
+        void reset(@Nullable NetConnection con){
+            this.con = con;
+            source = this;
+            needed = all = false;
+            selection.clear();
+            selected.clear();
+            base = null;
+            baseSent = null;
+            sent = null;
+        }
+
+        void select(int index){
+            if(index < 0 || selected.get(index)) return;
+            selected.set(index);
+            selection.add(index);
+        }
+
+        /** Finds the snapshot deltas are sent as differences from: the last the player acknowledged receiving whole, if it is still kept. */
+        void selectBase(){
+            if(con.deltaSent == null){
+                con.deltaSent = new Bits[SnapshotFrame.kept];
+                con.deltaSentSequences = new int[SnapshotFrame.kept];
+                for(int i = 0; i < SnapshotFrame.kept; i++){
+                    con.deltaSent[i] = new Bits();
+                    con.deltaSentSequences[i] = -1;
+                }
+            }
 
-            byte[] syncBytes = syncStream.toByteArray();
-            Call.entitySnapshot(player.con, (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
+            //it must also be known which entities the player was sent in it
+            int acked = con.deltaAcked, baseSlot = acked % SnapshotFrame.kept;
+            if(acked >= 0 && syncs - acked < SnapshotFrame.kept && frames[baseSlot].sequence == acked && con.deltaSentSequences[baseSlot] == acked){
+                base = frames[baseSlot];
+                baseSent = con.deltaSent[baseSlot];
+            }
+
+            int slot = syncs % SnapshotFrame.kept;
+            sent = con.deltaSent[slot];
+            con.deltaSentSequences[slot] = syncs;
         }
 
+        void encode() throws IOException{
+            snapshots.clear();
+            amounts.clear();
+            lengths.clear();
+
+            if(sent != null){
+                writeDeltas();
+            }else{
+                writeEntities();
+            }
+        }
+
+        /** Cuts the entities from the frame into snapshots of about the max size. */
+        void writeEntities(){
+            stream.reset();
+            int count = all ? frame.size() : selection.size, amount = 0;
+            byte[] bytes = frame.stream.getBytes();
+
+            for(int i = 0; i < count; i++){
+                int index = all ? i : selection.get(i);
+                int start = frame.start(index);
+                stream.write(bytes, start, frame.end(index) - start);
+                amount++;
+
+                if(stream.size() > maxSnapshotSize){
+                    add(stream.toByteArray(), amount);
+                    amount = 0;
+                    stream.reset();
+                }
+            }
+
+            if(amount > 0){
+                add(stream.toByteArray(), amount);
+            }
+        }
+
+        /**
+         * Writes the entities as the fields that changed since the base snapshot. Entities that weren't in it are sent whole.
+         * The snapshot is cut into parts of about the max size, each starting with the sequence numbers of the snapshot and
+         * the one it is a difference from (or -1), its index and the number of parts. Their amount is the bitwise
+         * complement of how many entities are in them, which tells clients that they are delta snapshots.
+         */
+        void writeDeltas() throws IOException{
+            sent.clear();
+            parts.clear();
+            counts.clear();
+            stream.reset();
+            int count = all ? frame.size() : selection.size, amount = 0;
+
+            for(int i = 0; i < count; i++){
+                int index = all ? i : selection.get(i);
+                sent.set(index);
+
+                int baseIndex = base == null ? -1 : base.indices.get(frame.id(index), -1);
+                //the ID may belong to some other entity now
+                if(baseIndex != -1 && (!baseSent.get(baseIndex) || base.type(baseIndex) != frame.type(index))) baseIndex = -1;
+
+                frame.writeDelta(index, baseIndex == -1 ? null : base, baseIndex, data, changed);
+                amount++;
+
+                if(stream.size() > maxSnapshotSize){
+                    parts.add(stream.toByteArray());
+                    counts.add(amount);
+                    amount = 0;
+                    stream.reset();
+                }
+            }
+
+            //even without entities, a part is sent so the snapshot can be acknowledged
+            if(amount > 0 || parts.isEmpty()){
+                parts.add(stream.toByteArray());
+                counts.add(amount);
+            }
+
+            for(int i = 0; i < parts.size; i++){
+                partStream.reset();
+                partData.writeInt(syncs);
+                partData.writeInt(base == null ? -1 : base.sequence);
+                partData.writeShort(i);
+                partData.writeShort(parts.size);
+                partData.write(parts.get(i));
+
+                add(partStream.toByteArray(), ~counts.get(i));
+            }
+        }
+
+        void add(byte[] syncBytes, int amount){
+            snapshots.add(net.compressSnapshot(syncBytes));
+            amounts.add(amount);
+            lengths.add(syncBytes.length);
+        }
     }
 
     String fixName(String name){
@@ -963,6 +1338,10 @@ public class NetServer implements ApplicationListener{
 
     void sync(){
         try{
+            syncing.clear();
+            boolean syncDue = Time.timeSinceMillis(lastSyncTime) >= serverSyncTime;
+            if(syncDue) lastSyncTime = Time.millis();
+
             Groups.player.each(p -> !p.isLocal(), player -> {
                 if(player.con == null || !player.con.isConnected()){
                     onDisconnect(player, "disappeared");
@@ -971,17 +1350,19 @@ public class NetServer implements ApplicationListener{
 
                 var connection = player.con;
 
-                if(Time.timeSinceMillis(connection.syncTime) < serverSyncTime || !connection.hasConnected) return;
+                //everyone is synced at once, so that the snapshots only have to be written once
+                if(!syncDue || !connection.hasConnected) return;
 
                 connection.syncTime = Time.millis();
-
-                try{
-                    writeEntitySnapshot(player);
-                }catch(IOException e){
-                    e.printStackTrace();
-                }
+                syncing.add(player);
             });
 
+            try{
+                writeEntitySnapshots(syncing);
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+
             if(Groups.player.size() > 0 && Core.settings.getBool("blocksync") && timer.get(timerBlockSync, blockSyncTime)){
                 writeBlockSnapshots();
             }
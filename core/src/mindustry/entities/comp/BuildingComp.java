@@ -77,6 +77,8 @@ abstract class BuildingComp implements Posc, Teamc, Healthc, Buildingc, Timerc,
     private transient boolean sleeping;
     private transient float sleepTime;
     private transient boolean initialized;
+    /** The hash of what this wrote when it was last sent in a block snapshot, or a value no hash has if it never was. */
+    private transient long syncedHash = Long.MIN_VALUE;
 
     /** Sets this tile entity data to this and adds it if necessary. */
     public Building init(Tile tile, Team team, boolean shouldAdd, int rotation){
@@ -156,6 +158,13 @@ abstract class BuildingComp implements Posc, Teamc, Healthc, Buildingc, Timerc,
         if(cons != null) cons.write(write);
     }
 
+    /** @return whether this wrote something that hashes to something else when it was last sent in a block snapshot; it counts as sent afterwards */
+    public boolean syncChanged(int hash){
+        boolean changed = hash != syncedHash;
+        syncedHash = hash;
+        return changed;
+    }
+
     public final void readBase(Reads read){
         health = read.f();
         byte rot = read.b();
@@ -18,9 +18,16 @@ abstract class SyncComp implements Entityc{
     void writeSync(Writes write){}
     void readSyncManual(FloatBuffer buffer){}
     void writeSyncManual(FloatBuffer buffer){}
+    //single fields of writeSync, in the same order; read straight into the fields without interpolation
+    void readSyncField(Reads read, int field){}
+    void writeSyncField(Writes write, int field){}
     void afterSync(){}
     void interpolate(){}
 
+    /** @return how many fields are written by writeSync, one at a time by writeSyncField */
+    @InternalImpl
+    abstract int syncFields();
+
     @Override
     public void update(){
         //interpolate the player if:
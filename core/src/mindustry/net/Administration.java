@@ -475,6 +475,8 @@ public class Administration{
         socketInputAddress("The bind address for socket input.", "localhost", () -> Events.fire(Trigger.socketConfigChanged)),
         allowCustomClients("Whether custom clients are allowed to connect.", !headless, "allow-custom"),
         whitelist("Whether the whitelist is used.", false),
+        interestManagement("Whether units far from a player's view are synced to them less often.", true),
+        deltaSnapshots("Whether clients that support it are sent only the parts of entities that changed since a snapshot they received.", true),
         motd("The message displayed to people on connection.", "off"),
         autosave("Whether the periodically save the map when playing.", false),
         autosaveAmount("The maximum amount of autosaves. Older ones get replaced.", 10),
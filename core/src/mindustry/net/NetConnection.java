@@ -32,6 +32,13 @@ public abstract class NetConnection{
     public boolean hasConnected, hasBegunConnecting, hasDisconnected;
     public float viewWidth, viewHeight, viewX, viewY;
 
+    /** Whether this client is sent entity snapshots as differences from one it has received, and the newest one it has received whole. */
+    public boolean deltaSnapshots;
+    public int deltaAcked = -1;
+    /** Which entities were sent in each of the last few snapshots, and the sequence numbers of those snapshots. */
+    public @Nullable Bits[] deltaSent;
+    public @Nullable int[] deltaSentSequences;
+
     public NetConnection(String address){
         this.address = address;
     }
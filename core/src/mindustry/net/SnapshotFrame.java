@@ -0,0 +1,204 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.*;
+import arc.util.io.*;
+import mindustry.gen.*;
+
+import java.io.*;
+
+/**
+ * The sync data of the entities in one entity snapshot, split up by field. Servers and clients keep the last few of
+ * these, so that snapshots can be sent as the fields that changed since one the client is known to have received.
+ */
+public class SnapshotFrame{
+    /** How many frames are kept, and so how many snapshots old a snapshot can be sent as a difference from. */
+    public static final int kept = 8;
+
+    /** Sequence number of the snapshot in this frame, or -1 if there is none. */
+    public int sequence = -1;
+    /** Entities one after another, each as their ID, type and sync fields. */
+    public final ReusableByteOutStream stream = new ReusableByteOutStream();
+    public final DataOutputStream data = new DataOutputStream(stream);
+    /** Where the data of each entity ends. */
+    public final IntSeq ends = new IntSeq();
+    /** Where each field of every entity ends, and the index of each entity's first field in it. */
+    public final IntSeq fieldEnds = new IntSeq(), firstFields = new IntSeq();
+    /** Index of each entity by ID. Entities that couldn't be read whole are left out. */
+    public final IntIntMap indices = new IntIntMap();
+
+    /** Parts of the snapshot received so far, out of how many there are. Only used by clients. */
+    public final Bits received = new Bits();
+    public int receivedParts, parts;
+    /** Whether some entity was left out of this frame, so it can't be acknowledged. Only used by clients. */
+    public boolean incomplete;
+
+    private final Bits changed = new Bits();
+
+    public static SnapshotFrame[] ring(){
+        SnapshotFrame[] frames = new SnapshotFrame[kept];
+        for(int i = 0; i < kept; i++){
+            frames[i] = new SnapshotFrame();
+        }
+        return frames;
+    }
+
+    public void reset(int sequence){
+        this.sequence = sequence;
+        stream.reset();
+        ends.clear();
+        fieldEnds.clear();
+        firstFields.clear();
+        indices.clear();
+        received.clear();
+        receivedParts = parts = 0;
+        incomplete = false;
+    }
+
+    /** Writes an entity whole, one field at a time. The bytes are the same as its ID and type followed by {@link Syncc#writeSync}. */
+    public void write(Syncc entity) throws IOException{
+        begin(entity.id(), (byte)entity.classId());
+        Writes write = Writes.get(data);
+        for(int i = 0, fields = entity.syncFields(); i < fields; i++){
+            entity.writeSyncField(write, i);
+            fieldEnds.add(stream.size());
+        }
+        ends.add(stream.size());
+    }
+
+    /**
+     * Writes the entity at index as its ID, type, a bit for each field that is set if the field follows, and the
+     * fields that are different from the entity at baseIndex in base. With no base, every field is written.
+     */
+    public void writeDelta(int index, @Nullable SnapshotFrame base, int baseIndex, DataOutputStream out) throws IOException{
+        writeDelta(index, base, baseIndex, out, changed);
+    }
+
+    /**
+     * {@link #writeDelta(int, SnapshotFrame, int, DataOutputStream)} with the bits it keeps the changed fields in, so
+     * that several threads can write deltas from the same frames at once.
+     */
+    public void writeDelta(int index, @Nullable SnapshotFrame base, int baseIndex, DataOutputStream out, Bits changed) throws IOException{
+        byte[] bytes = stream.getBytes();
+        int start = start(index), fields = fields(index);
+        out.write(bytes, start, 5);
+
+        changed.clear();
+        for(int i = 0; i < fields; i++){
+            if(base == null || !base.same(baseIndex, i, this, index)){
+                changed.set(i);
+            }
+        }
+        for(int i = 0; i < fields; i += 8){
+            int mask = 0;
+            for(int j = 0; j < 8 && i + j < fields; j++){
+                if(changed.get(i + j)) mask |= 1 << j;
+            }
+            out.writeByte(mask);
+        }
+        for(int i = 0; i < fields; i++){
+            if(changed.get(i)){
+                out.write(bytes, fieldStart(index, i), fieldEnd(index, i) - fieldStart(index, i));
+            }
+        }
+    }
+
+    /**
+     * Reads an entity written by {@link #writeDelta} after its ID and type into this frame, taking the fields that
+     * weren't sent from base. The fields that were are read into prototype, any entity of the same type, to find
+     * where they end.
+     * @param bytes the array that in is reading from
+     * @return the index of the entity in this frame, or -1 if a field that wasn't sent isn't in base either
+     */
+    public int readDelta(int id, byte type, Syncc prototype, byte[] bytes, DataInputStream in, @Nullable SnapshotFrame base) throws IOException{
+        int fields = prototype.syncFields();
+        changed.clear();
+        for(int i = 0; i < fields; i += 8){
+            int mask = in.readUnsignedByte();
+            for(int j = 0; j < 8 && i + j < fields; j++){
+                if((mask & (1 << j)) != 0) changed.set(i + j);
+            }
+        }
+
+        int baseIndex = base == null ? -1 : base.indices.get(id, -1);
+        boolean whole = true;
+        int index = ends.size;
+        begin(id, type);
+
+        Reads read = Reads.get(in);
+        for(int i = 0; i < fields; i++){
+            if(changed.get(i)){
+                int start = bytes.length - in.available();
+                prototype.readSyncField(read, i);
+                stream.write(bytes, start, bytes.length - in.available() - start);
+            }else if(baseIndex != -1){
+                int start = base.fieldStart(baseIndex, i);
+                stream.write(base.stream.getBytes(), start, base.fieldEnd(baseIndex, i) - start);
+            }else{
+                whole = false;
+            }
+            fieldEnds.add(stream.size());
+        }
+        ends.add(stream.size());
+
+        if(!whole){
+            indices.remove(id, -1);
+            return -1;
+        }
+        return index;
+    }
+
+    /** Whether a field of the entity at index is the same as that of the entity at otherIndex in other. */
+    public boolean same(int index, int field, SnapshotFrame other, int otherIndex){
+        int start = fieldStart(index, field), length = fieldEnd(index, field) - start;
+        int otherStart = other.fieldStart(otherIndex, field);
+        if(other.fieldEnd(otherIndex, field) - otherStart != length) return false;
+
+        byte[] bytes = stream.getBytes(), otherBytes = other.stream.getBytes();
+        for(int i = 0; i < length; i++){
+            if(bytes[start + i] != otherBytes[otherStart + i]) return false;
+        }
+        return true;
+    }
+
+    public int size(){
+        return ends.size;
+    }
+
+    public int start(int index){
+        return index == 0 ? 0 : ends.get(index - 1);
+    }
+
+    public int end(int index){
+        return ends.get(index);
+    }
+
+    public int id(int index){
+        byte[] bytes = stream.getBytes();
+        int start = start(index);
+        return (bytes[start] & 0xff) << 24 | (bytes[start + 1] & 0xff) << 16 | (bytes[start + 2] & 0xff) << 8 | (bytes[start + 3] & 0xff);
+    }
+
+    public byte type(int index){
+        return stream.getBytes()[start(index) + 4];
+    }
+
+    public int fields(int index){
+        return (index + 1 < firstFields.size ? firstFields.get(index + 1) : fieldEnds.size) - firstFields.get(index);
+    }
+
+    public int fieldStart(int index, int field){
+        return field == 0 ? start(index) + 5 : fieldEnds.get(firstFields.get(index) + field - 1);
+    }
+
+    public int fieldEnd(int index, int field){
+        return fieldEnds.get(firstFields.get(index) + field);
+    }
+
+    private void begin(int id, byte type) throws IOException{
+        indices.put(id, ends.size);
+        firstFields.add(fieldEnds.size);
+        data.writeInt(id);
+        data.writeByte(type);
+    }
+}
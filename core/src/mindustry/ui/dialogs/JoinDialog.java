@@ -36,8 +36,8 @@ public class JoinDialog extends BaseDialog{
     int refreshes;
     boolean showHidden;
 
-    String lastIp;
-    int lastPort;
+    public String lastIp;
+    public int lastPort;
     @Nullable public Host lastHost;
     Task ping;
 
@@ -15,6 +15,7 @@ import arc.struct.*;
 import arc.util.*;
 import arc.util.io.*;
 import mindustry.*;
+import mindustry.client.navigation.*;
 import mindustry.content.*;
 import mindustry.content.TechTree.*;
 import mindustry.core.GameState.*;
@@ -338,6 +339,8 @@ public class SettingsMenuDialog extends SettingsDialog{
         client.checkPref("instantturn", true);
         client.checkPref("autoboost", false);
         client.checkPref("assumeunstrict", false);
+        client.checkPref("hierarchicalpathing", false, i -> Navigation.selectNavigator());
+        client.checkPref("repairpathing", false, i -> Navigation.selectNavigator());
 
         client.category("graphics");
         client.sliderPref("minzoom", 0, 0, 100, s -> Strings.fixed(Mathf.pow(10, 0.0217f * s) / 100f, 2) + "x");
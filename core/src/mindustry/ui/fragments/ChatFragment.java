@@ -20,7 +20,6 @@ import mindustry.gen.Call;
 import mindustry.input.Binding;
 import mindustry.ui.Fonts;
 
-import java.util.Arrays;
 
 import static arc.Core.*;
 import static mindustry.Vars.*;
@@ -89,13 +88,11 @@ public class ChatFragment extends Table{
                     nextMode();
                 }
                 scrollPos = (int)Mathf.clamp(scrollPos + input.axis(Binding.chat_scroll), 0, Math.max(0, messages.size - messagesShown));
-                if (Autocomplete.matches(chatfield.getText())) {
-                    Seq<Autocompleteable> oldCompletion = completion.copy();
-                    completion = Autocomplete.closest(chatfield.getText()).filter(item -> item.matches(chatfield.getText()) > 0.5f);
-                    completion.reverse();
-                    completion.truncate(4);
-                    completion.reverse();
-                    if (!Arrays.equals(completion.items, oldCompletion.items)) {
+                Seq<Autocompleteable> closest = Autocomplete.closest(chatfield.getText());
+                if (closest.any()) {
+                    Seq<Autocompleteable> oldCompletion = completion;
+                    completion = closest;
+                    if (!completion.equals(oldCompletion)) {
                         completionPos = completion.size - 1;
                     }
                 } else {
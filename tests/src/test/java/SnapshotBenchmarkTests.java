@@ -0,0 +1,607 @@
+import arc.func.*;
+import arc.math.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.io.*;
+import mindustry.content.*;
+import mindustry.core.GameState.*;
+import mindustry.game.*;
+import mindustry.game.Teams.*;
+import mindustry.gen.*;
+import mindustry.net.*;
+import mindustry.net.Administration.*;
+import mindustry.net.Net.*;
+import mindustry.net.Packets.*;
+import mindustry.world.*;
+import mindustry.world.blocks.storage.CoreBlock.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+
+import static mindustry.Vars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Measures writing snapshots for a full server, on the same headless application as {@link ApplicationTests}. */
+public class SnapshotBenchmarkTests{
+    static final int players = 40, units = 2000, runs = 20;
+
+    @BeforeAll
+    static void launchApplication(){
+        ApplicationTests.launchApplication();
+    }
+
+    @AfterEach
+    void resetWorld(){
+        Config.interestManagement.set(true);
+        Reflect.set(net, "server", false);
+        Reflect.set(net, "active", false);
+        logic.reset();
+        state.set(State.menu);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkEntitySnapshots() throws IOException{
+        world.loadMap(ApplicationTests.testMap);
+        state.set(State.playing);
+        Rand rand = new Rand(0);
+
+        Seq<Player> connected = new Seq<>();
+        for(int i = 0; i < players; i++){
+            Player player = Player.create();
+            player.name = "player" + i;
+            CountingConnection con = new CountingConnection();
+            con.player = player;
+            con.hasConnected = true;
+            player.con = con;
+            player.add();
+            connected.add(player);
+        }
+        for(int i = 0; i < units; i++){
+            UnitTypes.dagger.spawn(Team.sharded, rand.random(world.unitWidth()), rand.random(world.unitHeight()));
+        }
+
+        //snapshots are only sent by servers
+        Reflect.set(net, "server", true);
+        Reflect.set(net, "active", true);
+        //without interest management every player gets every entity, like before
+        Config.interestManagement.set(false);
+
+        for(int i = 0; i < 3; i++){ //warm up
+            for(Player player : connected) writePerPlayer(player);
+            netServer.writeEntitySnapshots(connected);
+        }
+
+        connected.each(p -> ((CountingConnection)p.con).sent = 0);
+        long start = Time.nanos();
+        for(int i = 0; i < runs; i++){
+            for(Player player : connected) writePerPlayer(player);
+        }
+        long perPlayer = Time.timeSinceNanos(start) / runs;
+        int perPlayerSent = ((CountingConnection)connected.first().con).sent;
+
+        connected.each(p -> ((CountingConnection)p.con).sent = 0);
+        start = Time.nanos();
+        for(int i = 0; i < runs; i++){
+            netServer.writeEntitySnapshots(connected);
+        }
+        long shared = Time.timeSinceNanos(start) / runs;
+
+        //every player still gets the same snapshots
+        for(Player player : connected){
+            assertEquals(perPlayerSent, ((CountingConnection)player.con).sent);
+        }
+
+        Log.info("Snapshots for @ players and @ entities: @ms per sync written for each player, @ms written once (@x)",
+            players, Groups.sync.size(), Strings.fixed(perPlayer / 1e6f, 2), Strings.fixed(shared / 1e6f, 2), Strings.fixed(perPlayer / (float)shared, 1));
+
+        //with their views somewhere on the map, players only get the entities near them at the full rate
+        Config.interestManagement.set(true);
+        for(Player player : connected){
+            player.con.viewX = rand.random(world.unitWidth());
+            player.con.viewY = rand.random(world.unitHeight());
+            player.con.viewWidth = 480f;
+            player.con.viewHeight = 270f;
+        }
+        netServer.writeEntitySnapshots(connected);
+
+        connected.each(p -> ((CountingConnection)p.con).sent = 0);
+        start = Time.nanos();
+        for(int i = 0; i < runs; i++){
+            netServer.writeEntitySnapshots(connected);
+        }
+        long interest = Time.timeSinceNanos(start) / runs;
+        int interestSent = 0;
+        for(Player player : connected){
+            interestSent += ((CountingConnection)player.con).sent;
+        }
+
+        assertTrue(interestSent < perPlayerSent * players, "Far entities should be sent less often");
+        Log.info("With interest management: @ms per sync, @ packets instead of @",
+            Strings.fixed(interest / 1e6f, 2), interestSent, perPlayerSent * players);
+    }
+
+    /** Players with their views somewhere on the map have to be sent fewer packets than ones that get every entity every sync. */
+    @Test
+    void testInterestManagement() throws IOException{
+        world.loadMap(ApplicationTests.testMap);
+        state.set(State.playing);
+        Rand rand = new Rand(6);
+
+        Seq<Player> connected = new Seq<>();
+        for(int i = 0; i < 4; i++){
+            Player player = Player.create();
+            CountingConnection con = new CountingConnection();
+            con.player = player;
+            con.hasConnected = true;
+            con.viewX = rand.random(world.unitWidth());
+            con.viewY = rand.random(world.unitHeight());
+            con.viewWidth = 480f;
+            con.viewHeight = 270f;
+            player.con = con;
+            player.add();
+            connected.add(player);
+        }
+        for(int i = 0; i < units; i++){
+            UnitTypes.dagger.spawn(Team.sharded, rand.random(world.unitWidth()), rand.random(world.unitHeight()));
+        }
+
+        Reflect.set(net, "server", true);
+        Reflect.set(net, "active", true);
+
+        int[] sent = new int[2];
+        for(int pass = 0; pass < 2; pass++){
+            Config.interestManagement.set(pass == 1);
+            netServer.writeEntitySnapshots(connected);
+            connected.each(p -> ((CountingConnection)p.con).sent = 0);
+            for(int i = 0; i < 10; i++){
+                netServer.writeEntitySnapshots(connected);
+            }
+            for(Player player : connected){
+                assertTrue(((CountingConnection)player.con).sent > 0, "Every player has to be sent something");
+                sent[pass] += ((CountingConnection)player.con).sent;
+            }
+        }
+
+        assertTrue(sent[1] < sent[0], "Far entities should be sent less often");
+    }
+
+    /** Weather has a position, but it is global and has to reach players wherever they look. */
+    @Test
+    void testGlobalEntities() throws IOException{
+        world.loadMap(ApplicationTests.testMap);
+        state.set(State.playing);
+        WeatherState weather = Weathers.rain.create();
+
+        Player player = Player.create();
+        CountingConnection con = new CountingConnection();
+        con.player = player;
+        con.hasConnected = true;
+        con.viewX = world.unitWidth() - 100f;
+        con.viewY = world.unitHeight() - 100f;
+        con.viewWidth = 480f;
+        con.viewHeight = 270f;
+        player.con = con;
+        player.add();
+
+        Reflect.set(net, "server", true);
+        Reflect.set(net, "active", true);
+        netServer.writeEntitySnapshots(Seq.with(player));
+
+        SnapshotFrame frame = Reflect.get(netServer, "frame");
+        IntSeq alwaysSynced = Reflect.get(netServer, "alwaysSynced");
+        assertTrue(alwaysSynced.contains(frame.indices.get(weather.id(), -1)), "Weather should be sent to every player every sync");
+    }
+
+    /** Snapshots encoded on the snapshot threads have to reach every player the same and in the same order as when they were written for each player. */
+    @Test
+    void testParallelSnapshotOrder() throws IOException{
+        world.loadMap(ApplicationTests.testMap);
+        state.set(State.playing);
+        Rand rand = new Rand(5);
+
+        Seq<Player> connected = new Seq<>();
+        for(int i = 0; i < players; i++){
+            Player player = Player.create();
+            CountingConnection con = new CountingConnection();
+            con.packets = new Seq<>();
+            con.player = player;
+            con.hasConnected = true;
+            player.con = con;
+            player.add();
+            connected.add(player);
+        }
+        for(int i = 0; i < units; i++){
+            UnitTypes.dagger.spawn(Team.sharded, rand.random(world.unitWidth()), rand.random(world.unitHeight()));
+        }
+
+        Reflect.set(net, "server", true);
+        Reflect.set(net, "active", true);
+        Config.interestManagement.set(false);
+
+        Seq<Seq<byte[]>> expected = new Seq<>();
+        for(Player player : connected){
+            writePerPlayer(player);
+            expected.add(((CountingConnection)player.con).packets);
+            ((CountingConnection)player.con).packets = new Seq<>();
+        }
+        netServer.writeEntitySnapshots(connected);
+
+        for(int i = 0; i < connected.size; i++){
+            Seq<byte[]> packets = ((CountingConnection)connected.get(i).con).packets;
+            assertEquals(expected.get(i).size, packets.size);
+            for(int j = 0; j < packets.size; j++){
+                assertArrayEquals(expected.get(i).get(j), packets.get(j));
+            }
+        }
+    }
+
+    /** Entities written a field at a time have to come out the same as before, and the same after going through a delta. */
+    @Test
+    void testDeltaFrames() throws IOException{
+        world.loadMap(ApplicationTests.testMap);
+        state.set(State.playing);
+        Rand rand = new Rand(2);
+        for(int i = 0; i < 200; i++){
+            UnitTypes.dagger.spawn(Team.sharded, rand.random(world.unitWidth()), rand.random(world.unitHeight()));
+        }
+        Player.create().add();
+
+        SnapshotFrame first = frame(1);
+        for(int i = 0; i < first.size(); i++){
+            Syncc entity = Groups.sync.getByID(first.id(i));
+            syncStream.reset();
+            entity.writeSync(Writes.get(dataStream));
+            byte[] whole = syncStream.toByteArray();
+            assertEquals(whole.length, first.end(i) - first.fieldStart(i, 0), entity.toString());
+            for(int j = 0; j < whole.length; j++){
+                assertEquals(whole[j], first.stream.getBytes()[first.fieldStart(i, 0) + j], entity.toString());
+            }
+        }
+
+        //some units move, some are removed and others are added
+        Time.setDeltaProvider(() -> 12f);
+        for(int i = 0; i < 5; i++){
+            Time.update();
+            Groups.unit.update();
+        }
+        for(int i = 0; i < 20; i++){
+            Groups.unit.index(rand.random(Groups.unit.size() - 1)).remove();
+            UnitTypes.flare.spawn(Team.sharded, rand.random(world.unitWidth()), rand.random(world.unitHeight()));
+        }
+        Groups.unit.update();
+        SnapshotFrame second = frame(2);
+
+        //the client only has what it was sent whole
+        SnapshotFrame received = new SnapshotFrame(), secondReceived = new SnapshotFrame();
+        received.reset(1);
+        secondReceived.reset(2);
+        int fullSize = readDeltas(first, null, received, null);
+        assertFramesEqual(first, received);
+        int deltaSize = readDeltas(second, first, secondReceived, received);
+        assertFramesEqual(second, secondReceived);
+        assertTrue(deltaSize < fullSize, "Deltas should be smaller than whole entities");
+
+        //fields that weren't sent can't be found without the base
+        SnapshotFrame missing = new SnapshotFrame();
+        missing.reset(2);
+        readDeltas(second, first, missing, null);
+        assertTrue(missing.indices.size < second.indices.size);
+    }
+
+    /** Measures how many bytes a simulated game takes to sync, to players sent deltas and to the same players sent everything. */
+    @Test
+    @Tag("benchmark")
+    void benchmarkDeltaBandwidth() throws IOException{
+        world.loadMap(ApplicationTests.testMap);
+        state.set(State.playing);
+        Rand rand = new Rand(3);
+
+        Seq<Player> connected = new Seq<>();
+        for(int i = 0; i < players; i++){
+            float x = rand.random(world.unitWidth()), y = rand.random(world.unitHeight());
+            //a player sent deltas and one sent everything, with the same view
+            for(int j = 0; j < 2; j++){
+                Player player = Player.create();
+                CountingConnection con = new CountingConnection();
+                con.player = player;
+                con.hasConnected = true;
+                con.deltaSnapshots = j == 0;
+                con.viewX = x;
+                con.viewY = y;
+                con.viewWidth = 480f;
+                con.viewHeight = 270f;
+                player.con = con;
+                player.add();
+                connected.add(player);
+            }
+        }
+        for(int i = 0; i < units / 4; i++){
+            UnitTypes.dagger.spawn(Team.sharded, rand.random(world.unitWidth()), rand.random(world.unitHeight()));
+            UnitTypes.flare.spawn(Team.crux, rand.random(world.unitWidth()), rand.random(world.unitHeight()));
+        }
+
+        Reflect.set(net, "server", true);
+        Reflect.set(net, "active", true);
+
+        //a sync every 200ms
+        Time.setDeltaProvider(() -> 12f);
+        for(int i = 0; i < 50; i++){
+            Time.update();
+            Groups.unit.update();
+            netServer.writeEntitySnapshots(connected);
+
+            int sequence = Reflect.get(netServer, "syncs");
+            for(Player player : connected){
+                //one in ten snapshots is lost
+                if(rand.chance(0.9)) player.con.deltaAcked = sequence;
+            }
+        }
+
+        long deltaBytes = 0, fullBytes = 0;
+        for(Player player : connected){
+            if(player.con.deltaSnapshots) deltaBytes += ((CountingConnection)player.con).bytes;
+            else fullBytes += ((CountingConnection)player.con).bytes;
+        }
+
+        assertTrue(deltaBytes < fullBytes, "Deltas should take less bandwidth");
+        Log.info("Syncing @ entities for 10 seconds: @ KB per player sent deltas, @ KB per player sent everything (@%)",
+            Groups.sync.size(), deltaBytes / 1024 / players, fullBytes / 1024 / players, deltaBytes * 100 / fullBytes);
+    }
+
+    /** Unchanged buildings have to be left out of block snapshots, but still be sent once in a while. */
+    @Test
+    void testBlockSnapshots() throws IOException{
+        placePresses();
+
+        CountingConnection con = new CountingConnection();
+        Net previous = net;
+        net = new Net(new CountingProvider(con));
+        try{
+            Reflect.set(net, "server", true);
+            Reflect.set(net, "active", true);
+
+            writeAllBlocks();
+            long allBytes = con.bytes;
+            netServer.writeBlockSnapshots(); //every building starts out changed
+            for(int i = 0; i < 4; i++){
+                con.bytes = 0;
+                netServer.writeBlockSnapshots();
+                assertTrue(con.bytes < allBytes, "Unchanged buildings should only be sent some of the time");
+                assertTrue(con.bytes > 0, "Unchanged buildings should still be refreshed");
+            }
+        }finally{
+            net = previous;
+        }
+    }
+
+    /** Measures block snapshots of a map full of crafters when only some of them change between syncs. */
+    @Test
+    @Tag("benchmark")
+    void benchmarkBlockSnapshots() throws IOException{
+        Seq<Building> presses = placePresses();
+        Rand rand = new Rand(4);
+
+        CountingConnection con = new CountingConnection();
+        Net previous = net;
+        net = new Net(new CountingProvider(con));
+        try{
+            Reflect.set(net, "server", true);
+            Reflect.set(net, "active", true);
+
+            long allTime = 0, changedTime = 0, allBytes = 0, changedBytes = 0;
+            for(int i = 0; i < 30; i++){
+                //a tenth of the crafters get something to do
+                for(int j = 0; j < presses.size / 10; j++){
+                    presses.random(rand).items.add(Items.coal, 1);
+                }
+
+                long start = Time.nanos();
+                netServer.writeBlockSnapshots();
+                changedTime += Time.timeSinceNanos(start);
+                changedBytes += con.bytes;
+                con.bytes = 0;
+
+                start = Time.nanos();
+                writeAllBlocks();
+                allTime += Time.timeSinceNanos(start);
+                allBytes += con.bytes;
+                con.bytes = 0;
+            }
+
+            assertTrue(changedBytes < allBytes, "Only changed buildings should be sent");
+            Log.info("Block snapshots of @ crafters: @ KB and @ms per sync sending every building, @ KB and @ms sending changed ones",
+                presses.size, allBytes / 1024 / 30, Strings.fixed(allTime / 30 / 1e6f, 2), changedBytes / 1024 / 30, Strings.fixed(changedTime / 30 / 1e6f, 2));
+        }finally{
+            net = previous;
+        }
+    }
+
+    /** Fills the test map with graphite presses, which are synced. */
+    Seq<Building> placePresses(){
+        world.loadMap(ApplicationTests.testMap);
+        state.set(State.playing);
+
+        for(int x = 0; x < world.width(); x += 2){
+            for(int y = 0; y < world.height(); y += 2){
+                if(Build.validPlace(Blocks.graphitePress, Team.sharded, x, y, 0)){
+                    world.tile(x, y).setBlock(Blocks.graphitePress, Team.sharded);
+                }
+            }
+        }
+        return Groups.build.copy(new Seq<>()).select(b -> b.block == Blocks.graphitePress);
+    }
+
+    /** Block snapshots as they were written before, with every synced building in them. */
+    void writeAllBlocks() throws IOException{
+        syncStream.reset();
+        short sent = 0;
+        for(Building entity : Groups.build){
+            if(!entity.block.sync) continue;
+            sent++;
+            dataStream.writeInt(entity.pos());
+            dataStream.writeShort(entity.block.id);
+            entity.writeAll(Writes.get(dataStream));
+
+            if(syncStream.size() > 800){
+                byte[] stateBytes = syncStream.toByteArray();
+                Call.blockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+                sent = 0;
+                syncStream.reset();
+            }
+        }
+        if(sent > 0){
+            byte[] stateBytes = syncStream.toByteArray();
+            Call.blockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+        }
+    }
+
+    SnapshotFrame frame(int sequence) throws IOException{
+        SnapshotFrame frame = new SnapshotFrame();
+        frame.reset(sequence);
+        for(Syncc entity : Groups.sync){
+            frame.write(entity);
+        }
+        return frame;
+    }
+
+    /** Sends every entity in frame as a delta from base, and reads them into received. @return how many bytes they took */
+    int readDeltas(SnapshotFrame frame, SnapshotFrame base, SnapshotFrame received, SnapshotFrame receivedBase) throws IOException{
+        syncStream.reset();
+        for(int i = 0; i < frame.size(); i++){
+            int baseIndex = base == null ? -1 : base.indices.get(frame.id(i), -1);
+            if(baseIndex != -1 && base.type(baseIndex) != frame.type(i)) baseIndex = -1;
+            frame.writeDelta(i, baseIndex == -1 ? null : base, baseIndex, dataStream);
+        }
+
+        byte[] bytes = syncStream.toByteArray();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        for(int i = 0; i < frame.size(); i++){
+            int id = input.readInt();
+            byte type = input.readByte();
+            received.readDelta(id, type, (Syncc)EntityMapping.map(type).get(), bytes, input, receivedBase);
+        }
+        assertEquals(0, input.available());
+        return bytes.length;
+    }
+
+    void assertFramesEqual(SnapshotFrame expected, SnapshotFrame actual){
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++){
+            assertEquals(expected.id(i), actual.id(i));
+            assertEquals(expected.end(i) - expected.start(i), actual.end(i) - actual.start(i));
+            for(int j = expected.start(i); j < expected.end(i); j++){
+                assertEquals(expected.stream.getBytes()[j], actual.stream.getBytes()[j - expected.start(i) + actual.start(i)]);
+            }
+        }
+    }
+
+    ReusableByteOutStream syncStream = new ReusableByteOutStream();
+    DataOutputStream dataStream = new DataOutputStream(syncStream);
+
+    /** Snapshots as they were written before, separately for every player. */
+    void writePerPlayer(Player player) throws IOException{
+        syncStream.reset();
+        dataStream.writeInt(state.teams.present.sum(t -> t.cores.size));
+        for(TeamData data : state.teams.present){
+            for(CoreBuild entity : data.cores){
+                dataStream.writeInt(entity.tile.pos());
+                entity.items.write(Writes.get(dataStream));
+            }
+        }
+        byte[] stateBytes = syncStream.toByteArray();
+        Call.stateSnapshot(player.con, state.wavetime, state.wave, state.enemies, state.serverPaused, state.gameOver, universe.seconds(), (short)stateBytes.length, net.compressSnapshot(stateBytes));
+
+        syncStream.reset();
+        int sent = 0;
+        for(Syncc entity : Groups.sync){
+            dataStream.writeInt(entity.id());
+            dataStream.writeByte(entity.classId());
+            entity.writeSync(Writes.get(dataStream));
+            sent++;
+
+            if(syncStream.size() > 800){
+                byte[] syncBytes = syncStream.toByteArray();
+                Call.entitySnapshot(player.con, (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
+                sent = 0;
+                syncStream.reset();
+            }
+        }
+        if(sent > 0){
+            byte[] syncBytes = syncStream.toByteArray();
+            Call.entitySnapshot(player.con, (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
+        }
+    }
+
+    /** Sends everything sent to all players to a single connection. */
+    static class CountingProvider implements NetProvider{
+        final Seq<NetConnection> connections;
+
+        CountingProvider(NetConnection con){
+            connections = Seq.with(con);
+        }
+
+        @Override
+        public void connectClient(String ip, int port, Runnable success){
+        }
+
+        @Override
+        public void sendClient(Object object, SendMode mode){
+        }
+
+        @Override
+        public void disconnectClient(){
+        }
+
+        @Override
+        public void discoverServers(Cons<Host> callback, Runnable done){
+            done.run();
+        }
+
+        @Override
+        public void pingHost(String address, int port, Cons<Host> valid, Cons<Exception> failed){
+        }
+
+        @Override
+        public void hostServer(int port){
+        }
+
+        @Override
+        public Iterable<? extends NetConnection> getConnections(){
+            return connections;
+        }
+
+        @Override
+        public void closeServer(){
+        }
+    }
+
+    static class CountingConnection extends NetConnection{
+        int sent;
+        long bytes;
+        /** Every packet sent, as its type followed by its bytes, if not null. */
+        @Nullable Seq<byte[]> packets;
+
+        CountingConnection(){
+            super("benchmark");
+        }
+
+        @Override
+        public void send(Object object, SendMode mode){
+            sent++;
+            if(object instanceof InvokePacket packet){
+                bytes += packet.length;
+                if(packets != null){
+                    byte[] copy = new byte[packet.length + 1];
+                    copy[0] = packet.type;
+                    System.arraycopy(packet.bytes, 0, copy, 1, packet.length);
+                    packets.add(copy);
+                }
+            }
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package client;
 
+import arc.util.Log;
 import mindustry.client.crypto.Base32768Coder;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 public class Base32768CoderTests {
@@ -18,4 +24,107 @@ public class Base32768CoderTests {
             Assertions.assertArrayEquals(bytes, Base32768Coder.INSTANCE.decode(encoded));
         }
     }
+
+    /** Strings have to stay readable by older clients, so they are compared against the original BigInteger encoder. */
+    @Test
+    void testWireCompatibility() throws IOException {
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            byte[] bytes = new byte[i < 64 ? i : random.nextInt(2_000)];
+            random.nextBytes(bytes);
+            if (i % 3 == 0 && bytes.length > 0) bytes[0] = 0; // Leading zeroes are where a plain base conversion goes wrong
+
+            String encoded = Base32768Coder.INSTANCE.encode(bytes);
+            Assertions.assertEquals(referenceEncode(bytes), encoded);
+            Assertions.assertEquals(Base32768Coder.INSTANCE.encodedChars(bytes.length), encoded.length());
+            Assertions.assertArrayEquals(bytes, Base32768Coder.INSTANCE.decode(encoded));
+        }
+    }
+
+    @Test
+    void testBuffers() throws IOException {
+        byte[] bytes = new byte[777];
+        new Random(1).nextBytes(bytes);
+
+        // Only the remaining bytes are encoded and the input position is left alone
+        ByteBuffer input = ByteBuffer.allocate(bytes.length + 10);
+        input.position(5);
+        input.put(bytes);
+        input.position(5).limit(5 + bytes.length);
+        CharBuffer chars = CharBuffer.allocate(Base32768Coder.INSTANCE.encodedChars(bytes.length) + 3);
+        chars.put("abc");
+        Base32768Coder.INSTANCE.encodeTo(input, chars);
+        Assertions.assertEquals(5, input.position());
+        Assertions.assertFalse(chars.hasRemaining());
+        String encoded = new String(chars.array(), 3, chars.capacity() - 3);
+        Assertions.assertEquals(Base32768Coder.INSTANCE.encode(bytes), encoded);
+
+        // Decoding writes after the output position and advances it
+        ByteBuffer output = ByteBuffer.allocate(bytes.length + 20);
+        output.position(7);
+        Assertions.assertEquals(bytes.length, Base32768Coder.INSTANCE.decodeFrom(encoded, output));
+        Assertions.assertEquals(7 + bytes.length, output.position());
+        Assertions.assertArrayEquals(bytes, Arrays.copyOfRange(output.array(), 7, 7 + bytes.length));
+
+        Assertions.assertThrows(IOException.class, () -> Base32768Coder.INSTANCE.decodeFrom(encoded, ByteBuffer.allocate(bytes.length - 1)));
+        Assertions.assertThrows(IOException.class, () -> Base32768Coder.INSTANCE.decode(encoded.substring(10)));
+        Assertions.assertThrows(IOException.class, () -> Base32768Coder.INSTANCE.decode(""));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkCoder() throws IOException {
+        int size = 16_384, runs = 500;
+        byte[] bytes = new byte[size];
+        new Random(2).nextBytes(bytes);
+        CharBuffer chars = CharBuffer.allocate(Base32768Coder.INSTANCE.encodedChars(size));
+        ByteBuffer input = ByteBuffer.wrap(bytes), output = ByteBuffer.allocate(size);
+
+        for (int i = 0; i < runs; i++) { // Warm up
+            chars.clear();
+            Base32768Coder.INSTANCE.encodeTo(input, chars);
+            output.clear();
+            Base32768Coder.INSTANCE.decodeFrom(chars.flip(), output);
+        }
+
+        long encoding = 0, decoding = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            chars.clear();
+            Base32768Coder.INSTANCE.encodeTo(input, chars);
+            long middle = System.nanoTime();
+            output.clear();
+            Base32768Coder.INSTANCE.decodeFrom(chars.flip(), output);
+            long end = System.nanoTime();
+            encoding += middle - start;
+            decoding += end - middle;
+        }
+        Assertions.assertArrayEquals(bytes, output.array());
+
+        long referenceStart = System.nanoTime();
+        for (int i = 0; i < 10; i++) referenceEncode(bytes);
+        double reference = (System.nanoTime() - referenceStart) / 10.0;
+
+        Log.info(String.format("Base32768 over %dKB: encoding %.1fMB/s, decoding %.1fMB/s, BigInteger encoding %.1fMB/s",
+            size / 1024, mbPerSecond(size * (long)runs, encoding), mbPerSecond(size * (long)runs, decoding), mbPerSecond(size, reference)));
+    }
+
+    private static double mbPerSecond(long bytes, double nanos) {
+        return bytes / (nanos / 1e9) / (1024 * 1024);
+    }
+
+    /** The encoder as it was before it worked in a single pass. */
+    private static String referenceEncode(byte[] input) {
+        byte[] prefixed = new byte[input.length + 1];
+        prefixed[0] = 1;
+        System.arraycopy(input, 0, prefixed, 1, input.length);
+        BigInteger inp = new BigInteger(prefixed);
+        BigInteger mask = BigInteger.valueOf((1 << 15) - 1);
+        StringBuilder out = new StringBuilder();
+        while (!inp.equals(BigInteger.ZERO)) {
+            out.appendCodePoint(inp.and(mask).intValue() + 128);
+            inp = inp.shiftRight(15);
+        }
+        return out.appendCodePoint(input.length + 128).toString();
+    }
 }
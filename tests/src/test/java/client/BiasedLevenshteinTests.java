@@ -0,0 +1,109 @@
+package client;
+
+import arc.util.Log;
+import mindustry.client.utils.BiasedLevenshtein;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+public class BiasedLevenshteinTests {
+    private static final String letters = "abcABC_xyz\u00C4\u00E4";
+
+    /** Scores have to stay the same as with the full matrix, as the completions are sorted by them. */
+    @Test
+    void testReference() {
+        Random random = new Random(0);
+        for (int i = 0; i < 20_000; i++) {
+            String x = string(random), y = string(random);
+            if (i % 3 == 0 && !y.isEmpty()) y = x.substring(0, random.nextInt(x.length() + 1)) + y.substring(1);
+
+            Assertions.assertEquals(reference(x, y), BiasedLevenshtein.levenshtein(x, y));
+            Assertions.assertEquals(referenceBiased(x, y), BiasedLevenshtein.biasedLevenshtein(x, y));
+            Assertions.assertEquals(referenceBiased(x.toLowerCase(), y.toLowerCase()), BiasedLevenshtein.biasedLevenshteinInsensitive(x, y));
+        }
+    }
+
+    @Test
+    void testBounded() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            String x = string(random), y = string(random);
+
+            int limit = random.nextInt(8), distance = reference(x, y);
+            Assertions.assertEquals(distance <= limit ? distance : limit + 1, BiasedLevenshtein.levenshtein(x, y, limit));
+
+            float max = random.nextInt(10) / 2f, biased = referenceBiased(x.toLowerCase(), y.toLowerCase());
+            float bounded = BiasedLevenshtein.biasedLevenshteinInsensitive(x, y, max);
+            if (biased <= max) Assertions.assertEquals(biased, bounded);
+            else Assertions.assertTrue(bounded > max);
+        }
+    }
+
+    /** Measured like JMH would: forks aside, warmup iterations followed by measured ones, with the results consumed. */
+    @Test
+    @Tag("benchmark")
+    void benchmarkLevenshtein() {
+        Random random = new Random(2);
+        String[] names = new String[256], inputs = new String[256];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = string(random) + string(random);
+            String name = names[random.nextInt(i + 1)];
+            inputs[i] = name.substring(0, random.nextInt(Math.min(name.length(), 6) + 1));  // Typed so far
+        }
+
+        String[] labels = {"full matrix", "two rows", "two rows, bounded"};
+        for (int benchmark = 0; benchmark < labels.length; benchmark++) {
+            for (int iteration = 0; iteration < 5; iteration++) run(benchmark, names, inputs);  // Warm up
+            long best = Long.MAX_VALUE;
+            for (int iteration = 0; iteration < 10; iteration++) best = Math.min(best, run(benchmark, names, inputs));
+            Log.info(String.format("Biased Levenshtein, %s: %.1fns/op", labels[benchmark], best / (double)(names.length * inputs.length)));
+        }
+    }
+
+    private static double sink;
+
+    private static long run(int benchmark, String[] names, String[] inputs) {
+        long start = System.nanoTime();
+        float sum = 0;
+        for (String input : inputs) {
+            for (String name : names) {
+                switch (benchmark) {
+                    case 0 -> sum += referenceBiased(input.toLowerCase(), name.toLowerCase());
+                    case 1 -> sum += BiasedLevenshtein.biasedLevenshteinInsensitive(input, name);
+                    default -> sum += BiasedLevenshtein.biasedLevenshteinInsensitive(input, name, name.length() / 2f);  // What completion needs
+                }
+            }
+        }
+        sink += sum;
+        return System.nanoTime() - start;
+    }
+
+    /** The distance as it was computed before, with the whole matrix. */
+    private static int reference(String x, String y) {
+        int[][] dp = new int[x.length() + 1][y.length() + 1];
+        for (int i = 0; i <= x.length(); i++) {
+            for (int j = 0; j <= y.length(); j++) {
+                if (i == 0) dp[i][j] = j;
+                else if (j == 0) dp[i][j] = i;
+                else dp[i][j] = Math.min(Math.min(dp[i - 1][j - 1] + (x.charAt(i - 1) == y.charAt(j - 1) ? 0 : 1), dp[i - 1][j] + 1), dp[i][j - 1] + 1);
+            }
+        }
+        return dp[x.length()][y.length()];
+    }
+
+    private static float referenceBiased(String x, String y) {
+        int output = reference(x, y);
+        if (y.startsWith(x) || x.startsWith(y)) return output / 3f;
+        if (y.contains(x) || x.contains(y)) return output / 1.5f;
+        return output;
+    }
+
+    private static String string(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(12);
+        // Mostly ASCII, which is compared without lowercasing whole strings
+        for (int i = 0; i < length; i++) builder.append(letters.charAt(random.nextInt(random.nextInt(10) == 0 ? letters.length() : letters.length() - 2)));
+        return builder.toString();
+    }
+}
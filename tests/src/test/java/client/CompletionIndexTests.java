@@ -0,0 +1,127 @@
+package client;
+
+import arc.struct.*;
+import arc.util.Log;
+import mindustry.client.utils.CompletionIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+public class CompletionIndexTests {
+    private static final String letters = "abcdefghijklmnopqrstuvwxyzABC_[]";
+
+    @Test
+    void testClosest() {
+        Random random = new Random(0);
+        CompletionIndex<String> index = new CompletionIndex<>();
+        Seq<String> names = new Seq<>();
+        for (int i = 0; i < 300; i++) {
+            String name = name(random) + i;  // Distinct, as they are used as the items
+            names.add(name);
+            index.add(name, name);
+        }
+
+        for (int i = 0; i < 500; i++) {
+            // Parts of names with typos, like what is typed while completing
+            String name = names.get(random.nextInt(names.size)), text = name.substring(0, random.nextInt(name.length() + 1));
+            if (random.nextBoolean() && !text.isEmpty()) text = text.replace(text.charAt(random.nextInt(text.length())), letters.charAt(random.nextInt(letters.length())));
+            if (i % 10 == 0) text = name(random);
+            assertClosest(index, names, text, i % 3 == 0 ? 0.7f : 0.5f, 1 + i % 6);
+        }
+
+        // Removed items are no longer found, and added ones are
+        for (int i = 0; i < 200; i++) {
+            String name = names.remove(random.nextInt(names.size));
+            Assertions.assertTrue(index.remove(name));
+            Assertions.assertFalse(index.remove(name));
+        }
+        for (int i = 0; i < 50; i++) {
+            String name = name(random) + "new" + i;
+            names.add(name);
+            index.add(name, name);
+        }
+        Assertions.assertEquals(names.size, index.size());
+        for (int i = 0; i < 200; i++) {
+            String name = names.get(random.nextInt(names.size));
+            assertClosest(index, names, name.substring(0, random.nextInt(name.length() + 1)), 0.5f, 4);
+        }
+
+        // Renaming an item replaces its old name
+        String item = names.first();
+        index.add("completely different", item);
+        Seq<String> out = new Seq<>();
+        index.closest(item, 0.99f, 4, null, out);
+        Assertions.assertFalse(out.contains(item));
+        out.clear();
+        index.closest("completely different", 0.99f, 4, null, out);
+        Assertions.assertEquals(Seq.with(item), out);
+    }
+
+    /** Completes a few keystrokes against hundreds of names, compared to scoring every name like completion used to. */
+    @Test
+    @Tag("benchmark")
+    void benchmarkClosest() {
+        Random random = new Random(1);
+        CompletionIndex<String> index = new CompletionIndex<>();
+        Seq<String> names = new Seq<>();
+        for (int i = 0; i < 500; i++) {
+            String name = name(random) + i;
+            names.add(name);
+            index.add(name, name);
+        }
+        Seq<String> inputs = new Seq<>();
+        for (int i = 0; i < 100; i++) {
+            String name = names.get(random.nextInt(names.size));
+            for (int j = 1; j <= Math.min(name.length(), 6); j++) inputs.add(name.substring(0, j));
+        }
+
+        Seq<String> out = new Seq<>();
+        for (int i = 0; i < 10; i++) { // Warm up
+            for (String input : inputs) {
+                out.clear();
+                index.closest(input, 0.5f, 4, null, out);
+                bruteForce(names, input, 0.5f, 4);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (String input : inputs) {
+            out.clear();
+            index.closest(input, 0.5f, 4, null, out);
+        }
+        long indexed = (System.nanoTime() - start) / inputs.size;
+
+        start = System.nanoTime();
+        for (String input : inputs) bruteForce(names, input, 0.5f, 4);
+        long sorted = (System.nanoTime() - start) / inputs.size;
+
+        Log.info(String.format("Completing against %d names: %.1fus per keystroke indexed, %.1fus scoring and sorting every name", names.size, indexed / 1000.0, sorted / 1000.0));
+    }
+
+    private static void assertClosest(CompletionIndex<String> index, Seq<String> names, String text, float threshold, int count) {
+        Seq<String> out = new Seq<>();
+        index.closest(text, threshold, count, null, out);
+        Seq<String> expected = bruteForce(names, text, threshold, count);
+
+        // Names with the same score can come in any order
+        Assertions.assertEquals(expected.size, out.size, text);
+        for (int i = 0; i < out.size; i++) {
+            Assertions.assertEquals(CompletionIndex.score(text, expected.get(i)), CompletionIndex.score(text, out.get(i)), text);
+        }
+    }
+
+    private static Seq<String> bruteForce(Seq<String> names, String text, float threshold, int count) {
+        Seq<String> all = names.select(name -> CompletionIndex.score(text, name) > threshold);
+        all.sort(name -> CompletionIndex.score(text, name));
+        while (all.size > count) all.remove(0);
+        return all;
+    }
+
+    private static String name(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int length = 3 + random.nextInt(10);
+        for (int i = 0; i < length; i++) builder.append(letters.charAt(random.nextInt(letters.length())));
+        return builder.toString();
+    }
+}
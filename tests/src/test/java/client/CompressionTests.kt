@@ -1,9 +1,16 @@
 package client
 
+import arc.math.geom.*
+import arc.util.Log
+import mindustry.client.communication.*
+import mindustry.client.crypto.*
 import mindustry.client.utils.compress
 import mindustry.client.utils.inflate
 import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Tag
 import org.junit.jupiter.api.Test
+import java.io.*
+import java.time.*
 import kotlin.random.Random
 
 class CompressionTests {
@@ -13,4 +20,119 @@ class CompressionTests {
         val input = Random.Default.nextBytes(1024)
         Assertions.assertArrayEquals(input, input.compress().inflate())
     }
+
+    @Test
+    fun testTransmissionCompression() {
+        for (samples in samples()) {
+            for (sample in samples + listOf(ByteArray(0), ByteArray(4096))) {
+                for (dictionary in listOf(null, TransmissionCompression.buildQueueDictionary)) {
+                    val compressed = TransmissionCompression.compress(sample, dictionary = dictionary)
+                    Assertions.assertTrue(compressed.bytes.size <= sample.size)
+                    val inflated = TransmissionCompression.inflate(compressed.bytes, 0, compressed.bytes.size, compressed.version, dictionary)
+                    Assertions.assertArrayEquals(sample, inflated)
+                }
+            }
+        }
+
+        // Transmissions from before there were versions are still readable, and still sent to clients without versions
+        val old = Random.nextBytes(100).compress()
+        Assertions.assertEquals(100, TransmissionCompression.inflate(old, 0, old.size, TransmissionCompression.ZLIB).size)
+        Assertions.assertThrows(IOException::class.java) { TransmissionCompression.inflate(old, 0, old.size, 42) }
+        Assertions.assertEquals(TransmissionCompression.ZLIB, TransmissionCompression.compress(ByteArray(100), false).version)
+    }
+
+    @Test
+    fun testDictionary() {
+        val queues = samples()[2]
+        val primed = queues.map { TransmissionCompression.compress(it, dictionary = TransmissionCompression.buildQueueDictionary) }
+        Assertions.assertTrue(primed.any { it.version == TransmissionCompression.DICTIONARY })
+        Assertions.assertTrue(primed.sumBy { it.bytes.size } < queues.sumBy { TransmissionCompression.compress(it).bytes.size })
+
+        // Can't be inflated without the dictionary it was compressed with
+        val compressed = primed.first { it.version == TransmissionCompression.DICTIONARY }
+        Assertions.assertThrows(IOException::class.java) { TransmissionCompression.inflate(compressed.bytes, 0, compressed.bytes.size, compressed.version) }
+
+        // Training only keeps what a quarter of the samples share, and doesn't depend on their order
+        val trained = TransmissionCompression.train(queues, 64)
+        Assertions.assertTrue(trained.isNotEmpty() && trained.size <= 64)
+        Assertions.assertArrayEquals(trained, TransmissionCompression.train(queues.reversed(), 64))
+        Assertions.assertEquals(0, TransmissionCompression.train(samples()[0].map { it.copyOfRange(Long.SIZE_BYTES, it.size) }, 64).size)
+    }
+
+    @Test
+    fun testInflateLimit() {
+        for (versioned in listOf(true, false)) {
+            val bomb = TransmissionCompression.compress(ByteArray(TransmissionCompression.MAX_INFLATED + 1), versioned)
+            Assertions.assertThrows(IOException::class.java) { TransmissionCompression.inflate(bomb.bytes, 0, bomb.bytes.size, bomb.version) }
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    fun benchmarkTransmissionCompression() {
+        val dictionaries = listOf(null, null, TransmissionCompression.buildQueueDictionary)
+        for ((i, samples) in samples().withIndex()) {
+            val name = listOf("signatures", "encrypted messages", "build queues")[i]
+            val dictionary = dictionaries[i] ?: TransmissionCompression.train(samples, 64)
+            repeat(RUNS) { samples.forEach { it.compress(); TransmissionCompression.compress(it); TransmissionCompression.compress(it, dictionary = dictionary) } }  // Warm up
+
+            var start = System.nanoTime()
+            var plain = 0
+            repeat(RUNS) { samples.forEach { plain += it.compress().size } }
+            val plainNanos = (System.nanoTime() - start) / RUNS / samples.size
+
+            start = System.nanoTime()
+            var versioned = 0
+            repeat(RUNS) { samples.forEach { versioned += TransmissionCompression.compress(it).bytes.size } }
+            val versionedNanos = (System.nanoTime() - start) / RUNS / samples.size
+
+            // Types without a dictionary get one trained on the samples, to show whether registering one would help
+            start = System.nanoTime()
+            var primed = 0
+            repeat(RUNS) { samples.forEach { primed += TransmissionCompression.compress(it, dictionary = dictionary).bytes.size } }
+            val primedNanos = (System.nanoTime() - start) / RUNS / samples.size
+
+            val raw = samples.sumBy { it.size }
+            Log.info("Compressing ${samples.size} $name ($raw bytes): Compression ${plain / RUNS} bytes in ${plainNanos}ns each, " +
+                    "TransmissionCompression ${versioned / RUNS} bytes in ${versionedNanos}ns each, " +
+                    "with a ${dictionary.size} byte ${if (dictionaries[i] == null) "trained" else "registered"} dictionary ${primed / RUNS} bytes in ${primedNanos}ns each")
+        }
+    }
+
+    /** Transmissions like the ones the client sends, by type. */
+    private fun samples(): List<List<ByteArray>> {
+        val random = Random(0)
+        val time = Instant.ofEpochSecond(1_630_000_000)
+        val signatures = List(100) { SignatureTransmission(random.nextBytes(64), time.plusSeconds(it * 7L)).serialize() }
+        val messages = List(100) { EncryptedMessageTransmission(random.nextBytes(16 + random.nextInt(128)), time.plusSeconds(it * 13L)).serialize() }
+        val queues = List(20) { buildQueue(random) }
+        return listOf(signatures, messages, queues)
+    }
+
+    /** Serialized like TypeIO.writeRequests, which needs content loaded: rows of a few blocks and some breaking. */
+    private fun buildQueue(random: Random): ByteArray {
+        val stream = ByteArrayOutputStream()
+        val out = DataOutputStream(stream)
+        val count = 5 + random.nextInt(60)
+        val x = random.nextInt(200)
+        val y = random.nextInt(200)
+        val block = random.nextInt(250)
+        val rotation = random.nextInt(4)
+        out.writeShort(count)
+        for (i in 0 until count) {
+            val breaking = random.nextInt(5) == 0
+            out.writeByte(if (breaking) 1 else 0)
+            out.writeInt(Point2.pack(x + i, y + i / 10))
+            if (breaking) continue
+            out.writeShort(if (random.nextInt(4) == 0) block + 1 else block)
+            out.writeByte(rotation)
+            out.writeByte(1)
+            out.writeByte(0)  // No config
+        }
+        return stream.toByteArray()
+    }
+
+    companion object {
+        private const val RUNS = 100
+    }
 }
@@ -0,0 +1,131 @@
+package client
+
+import arc.files.Fi
+import arc.util.Log
+import mindustry.client.Main
+import mindustry.client.crypto.*
+import mindustry.client.crypto.Crypto.generateKeyQuad
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import java.nio.file.Files
+
+class KeyStoreTests {
+
+    companion object {
+        val crypto = MessageCrypto()
+
+        @JvmStatic
+        @BeforeAll
+        fun init() {
+            Crypto.initializeAlways()
+            crypto.keyQuad = generateKeyQuad()
+            Main.messageCrypto = crypto  // Saved keys are read back with it
+        }
+    }
+
+    private fun holders(count: Int) = List(count) { KeyHolder(generateKeyQuad().publicPair(), "key$it", it % 3 == 0, crypto) }
+
+    private fun directory() = Fi(Files.createTempDirectory("keys").toFile())
+
+    @Test
+    fun testLookups() {
+        val store = KeyStore()
+        val keys = holders(20)
+        store.addAll(keys)
+
+        Assertions.assertEquals(keys, store.toList())
+        for (key in keys) {
+            Assertions.assertTrue(key in store)
+            Assertions.assertSame(key, store.find(key.keys))
+            Assertions.assertSame(key, store.named(key.name))
+            Assertions.assertTrue(key in store.hinted(key.hint))
+        }
+
+        // Same keys under another name replace the old holder
+        val renamed = keys[5].copy(name = "renamed")
+        Assertions.assertTrue(store.add(renamed))
+        Assertions.assertFalse(store.add(renamed))
+        Assertions.assertEquals(keys.size, store.size)
+        Assertions.assertFalse(keys[5] in store)
+        Assertions.assertNull(store.named("key5"))
+        Assertions.assertSame(renamed, store.find(keys[5].keys))
+
+        // Iterators keep going over the keys as they were when they started
+        val iterator = store.iterator()
+        while (iterator.hasNext()) {
+            val key = iterator.next()
+            if (key.official) iterator.remove()
+            store.add(KeyHolder(generateKeyQuad().publicPair(), "added", false, crypto))
+        }
+        Assertions.assertTrue(store.none { it.official })
+        Assertions.assertEquals(keys.size - keys.count { it.official } + keys.size, store.size)
+        Assertions.assertTrue(store.hinted(keys[0].hint).isEmpty())
+    }
+
+    @Test
+    fun testPersistence() {
+        val fi = directory().child("keys.json")
+        val log = fi.sibling("keys.json.log")
+        var store = KeyStore()
+        store.load(fi)
+        val keys = holders(10)
+        keys.forEach { store.add(it) }
+        store.remove(keys[3])
+
+        // Changes are only logged until there are enough of them
+        Assertions.assertFalse(fi.exists())
+        Assertions.assertEquals(11, log.readString().lines().count { it.isNotEmpty() })
+        assertSameKeys(store, KeyStore().apply { load(fi) })
+
+        // A line cut off by a crash is skipped, and doesn't take the next one with it
+        log.writeString("+cut off", true)
+        val reloaded = KeyStore().apply { load(fi) }
+        assertSameKeys(store, reloaded)
+        store = reloaded
+
+        store.addAll(holders(100))
+        Assertions.assertTrue(fi.exists())
+        Assertions.assertTrue(!log.exists() || log.readString().lines().count { it.isNotEmpty() } < store.size)
+        val loaded = KeyStore().apply { load(fi) }
+        assertSameKeys(store, loaded)
+        Assertions.assertNotNull(loaded.named("key9"))
+        Assertions.assertNull(loaded.find(keys[3].keys))
+
+        store.clear()
+        Assertions.assertTrue(KeyStore().apply { load(fi) }.isEmpty())
+    }
+
+    /** Times loading and looking up stores of increasing size, neither of which should get slower per key. */
+    @Test
+    @Tag("benchmark")
+    fun benchmarkStore() {
+        val keys = holders(5000)
+        for (count in listOf(500, 5000)) {
+            val fi = directory().child("keys.json")
+            KeyStore().apply { load(fi) }.addAll(keys.subList(0, count))
+
+            var start = System.nanoTime()
+            val store = KeyStore().apply { load(fi) }
+            val loadMicros = (System.nanoTime() - start) / count / 1000.0
+            Assertions.assertEquals(count, store.size)
+
+            start = System.nanoTime()
+            repeat(100) { for (i in 0 until count step 10) Assertions.assertTrue(store.hinted(keys[i].hint).isNotEmpty()) }
+            val lookupNanos = (System.nanoTime() - start) / (count / 10 * 100)
+
+            start = System.nanoTime()
+            var iterated = 0
+            repeat(100) { for (key in store) iterated++ }
+            val iterateNanos = (System.nanoTime() - start) / iterated
+
+            Log.info("Key store with $count keys: loading ${"%.1f".format(loadMicros)}us/key, looking up by hint ${lookupNanos}ns, " +
+                    "iterating ${iterateNanos}ns/key")
+        }
+    }
+
+    private fun assertSameKeys(expected: KeyStore, actual: KeyStore) {
+        Assertions.assertEquals(expected.map { it.keys to it.name }.toSet(), actual.map { it.keys to it.name }.toSet())
+    }
+}
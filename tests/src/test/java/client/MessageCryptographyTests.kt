@@ -1,5 +1,6 @@
 package client
 
+import arc.util.Log
 import arc.util.Reflect
 import mindustry.client.communication.DummyCommunicationSystem
 import mindustry.client.communication.Packets
@@ -10,9 +11,15 @@ import mindustry.client.crypto.MessageCrypto.Companion.SignatureEvent
 import mindustry.client.crypto.MessageCrypto.PlayerTriple
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Tag
 import org.junit.jupiter.api.Test
 import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.random.Random
 
 class MessageCryptographyTests {
 
@@ -45,7 +52,7 @@ class MessageCryptographyTests {
     @Throws(InterruptedException::class)
     fun testSending() {
         val valid = AtomicBoolean()
-        var receivedMessage: String? = null
+        val receivedMessage = AtomicReference<String>()  // Set from the worker that decrypted it
 
         val client1pair = generateKeyQuad()
         val client2pair = generateKeyQuad()
@@ -67,7 +74,7 @@ class MessageCryptographyTests {
             if (event is SignatureEvent) {
                 valid.set(event.valid)
             } else if (event is MessageCrypto.Companion.EncryptedMessageEvent) {
-                receivedMessage = event.message
+                receivedMessage.set(event.message)
             }
         }
 
@@ -107,11 +114,94 @@ class MessageCryptographyTests {
         message = "hello world"
         client1.encrypt(message, client2holder)
         update()
-        Assertions.assertEquals(message, receivedMessage)
+        Assertions.assertEquals(message, receivedMessage.get())
 
         message = "testing"
         client2.encrypt(message, client1holder)
         update()
-        Assertions.assertEquals(message, receivedMessage)
+        Assertions.assertEquals(message, receivedMessage.get())
     }
-}
\ No newline at end of file
+
+    /** Finds the signers of messages from 50 keys with and without key hints. */
+    @Test
+    fun testFindSigner() {
+        val signers = Signers(50, 20)
+        signers.verifyAll(signers.crypto, signers.hinted)
+        // Another instance, so that it doesn't know which key each sender used yet
+        val other = MessageCrypto()
+        other.keys = signers.crypto.keys
+        signers.verifyAll(other, signers.unhinted)
+        signers.verifyAll(other, signers.unhinted)  // Every sender was matched by the previous round
+
+        val wrong = signers.crypto.signature("not it", 0, generateKeyQuad(), Instant.now())
+        val latch = CountDownLatch(1)
+        val found = AtomicReference<KeyHolder?>()
+        signers.crypto.findSigner("not it", 0, wrong) { key ->
+            found.set(key)
+            latch.countDown()
+        }
+        Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS))
+        Assertions.assertNull(found.get())
+    }
+
+    /** Verifies signatures from 1000 keys with and without key hints. */
+    @Test
+    @Tag("benchmark")
+    fun benchmarkVerification() {
+        val signers = Signers(1000, 100)
+        val crypto = signers.crypto
+
+        val hintedMicros = signers.verifyAll(crypto, signers.hinted)
+        // Another instance, so that it doesn't know which key each sender used yet
+        val other = MessageCrypto()
+        other.keys = crypto.keys
+        val unhintedMicros = signers.verifyAll(other, signers.unhinted)
+        val affinityMicros = signers.verifyAll(other, signers.unhinted)  // Every sender was matched by the previous round
+
+        // One by one, the way every key used to be tried
+        val data = Random.nextBytes(64)
+        val signature = Crypto.sign(data, signers.quads[0].edPrivateKey)
+        val start = System.nanoTime()
+        for (quad in signers.quads) Crypto.verify(data, signature, quad.edPublicKey)
+        val sequentialMicros = (System.nanoTime() - start) / 1000.0
+
+        Log.info("Signature verification with ${signers.quads.size} keys: ${"%.1f".format(hintedMicros)}us/message with a key hint, " +
+                "${"%.1f".format(unhintedMicros)}us/message without one, ${"%.1f".format(affinityMicros)}us/message for known senders, " +
+                "${"%.1f".format(sequentialMicros)}us to try every key on one thread")
+    }
+
+    /** [keys] known keys and [count] messages, each signed by one of them and sent by a different player. */
+    private class Signers(keys: Int, count: Int) {
+        val crypto = MessageCrypto()
+        val quads = List(keys) { generateKeyQuad() }
+        val messages = List(count) { i -> "message $i" }
+        val hinted: List<SignatureTransmission>
+        /** As older clients send them, with random transmission IDs. */
+        val unhinted: List<SignatureTransmission>
+
+        init {
+            crypto.keyQuad = generateKeyQuad()
+            crypto.keys = DummyKeyList()
+            for ((i, quad) in quads.withIndex()) crypto.keys.add(KeyHolder(quad.publicPair(), "key$i", false, crypto))
+            val time = Instant.now()
+            hinted = messages.mapIndexed { i, message -> crypto.signature(message, i, quads[(i * 7) % quads.size], time) }
+            unhinted = hinted.map { SignatureTransmission(it.signature, it.time) }
+        }
+
+        /** Finds the signer of every one of [transmissions] with [crypto], and returns how long each took in microseconds. */
+        fun verifyAll(crypto: MessageCrypto, transmissions: List<SignatureTransmission>): Double {
+            val latch = CountDownLatch(transmissions.size)
+            val matched = AtomicInteger()
+            val start = System.nanoTime()
+            for ((i, transmission) in transmissions.withIndex()) {
+                crypto.findSigner(messages[i], i, transmission) { key ->
+                    if (key?.name == "key${(i * 7) % quads.size}") matched.incrementAndGet()
+                    latch.countDown()
+                }
+            }
+            Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS))
+            Assertions.assertEquals(transmissions.size, matched.get())
+            return (System.nanoTime() - start) / transmissions.size / 1000.0
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package client
+
+import arc.math.geom.*
+import arc.util.Log
+import mindustry.Vars.tilesize
+import mindustry.client.navigation.*
+import mindustry.core.*
+import org.junit.jupiter.api.*
+import kotlin.math.*
+import kotlin.random.*
+
+class NavigatorTests {
+    companion object {
+        private const val SIZE = 500
+        private const val RUNS = 50
+
+        /** Scattered rocks with a few long walls that have to be gone around. */
+        private val solid = BooleanArray(SIZE * SIZE).also { solid ->
+            val random = Random(0)
+            for (i in solid.indices) solid[i] = random.nextFloat() < 0.2f
+            for (wall in 1..4) {
+                val x = wall * SIZE / 5
+                for (y in 0 until SIZE) if (if (wall % 2 == 0) y > 20 else y < SIZE - 20) solid[x + y * SIZE] = true
+            }
+            solid[0] = false
+            solid[solid.size - 1] = false
+        }
+
+        private val obstacles = ObstacleField().apply {
+            resize(SIZE, SIZE)
+            update(emptyList(), arrayOf(Circle(150f * tilesize, 150f * tilesize, 20f * tilesize), Circle(350f * tilesize, 300f * tilesize, 30f * tilesize)), 0f)
+        }
+
+        private fun blocked(x: Int, y: Int) = x >= SIZE || y >= SIZE || solid[x + y * SIZE]
+
+        private fun findPath(navigator: Navigator = AStarNavigator, from: Point2 = Point2(0, 0), to: Point2 = Point2(SIZE - 1, SIZE - 1)) = navigator.findPath(
+            Vec2(from.x * tilesize.toFloat(), from.y * tilesize.toFloat()), Vec2(to.x * tilesize.toFloat(), to.y * tilesize.toFloat()), obstacles,
+            SIZE * tilesize.toFloat(), SIZE * tilesize.toFloat(), ::blocked
+        )
+
+        /** The tiles of [path] from the start to the end at [to]. */
+        private fun tiles(path: Array<Vec2>, to: Point2 = Point2(SIZE - 1, SIZE - 1)) = path.reversed().map { Point2(World.toTile(it.x), World.toTile(it.y)) } + to
+
+        /** What following [tiles] one step at a time costs. */
+        private fun cost(tiles: List<Point2>) = (1 until tiles.size).sumOf { i ->
+            val diagonal = tiles[i].x != tiles[i - 1].x && tiles[i].y != tiles[i - 1].y
+            obstacles.cost(tiles[i].x, tiles[i].y) * if (diagonal) 1.4142135 else 1.0
+        }
+    }
+
+    @Test
+    fun testPath() {
+        val path = findPath()
+        Assertions.assertTrue(path.isNotEmpty())
+
+        // From the start to the tile before the end, one step at a time and never through a wall
+        val tiles = tiles(path)
+        Assertions.assertEquals(Point2(0, 0), tiles.first())
+        for (i in 1 until tiles.size) {
+            Assertions.assertFalse(blocked(tiles[i].x, tiles[i].y))
+            Assertions.assertTrue(max(abs(tiles[i].x - tiles[i - 1].x), abs(tiles[i].y - tiles[i - 1].y)) == 1)
+        }
+    }
+
+    @Test
+    fun testHierarchicalPath() {
+        val path = findPath(HierarchicalNavigator)
+        Assertions.assertTrue(path.isNotEmpty())
+
+        // Only the first leg is refined, the rest are transitions
+        val tiles = path.reversed().map { Point2(World.toTile(it.x), World.toTile(it.y)) }
+        Assertions.assertEquals(Point2(0, 0), tiles.first())
+        for (tile in tiles) Assertions.assertFalse(blocked(tile.x, tile.y))
+        for (i in 1 until tiles.size) {
+            val step = max(abs(tiles[i].x - tiles[i - 1].x), abs(tiles[i].y - tiles[i - 1].y))
+            Assertions.assertTrue(step in 1..32)
+        }
+    }
+
+    @Test
+    fun testRepairedPath() {
+        DStarLiteNavigator.blockedChanged()
+        val tiles = tiles(findPath(DStarLiteNavigator))
+        val expected = cost(tiles(findPath()))
+        Assertions.assertEquals(expected, cost(tiles), expected * 0.002)
+
+        // Walk part of the way, the rest of the path must be as good as one searched from scratch
+        val repairs = DStarLiteNavigator.repairs
+        val repaired = tiles(findPath(DStarLiteNavigator, tiles[tiles.size / 3]))
+        Assertions.assertEquals(repairs + 1, DStarLiteNavigator.repairs)
+        Assertions.assertEquals(tiles[tiles.size / 3], repaired.first())
+        for (i in 1 until repaired.size) {
+            Assertions.assertFalse(blocked(repaired[i].x, repaired[i].y))
+            Assertions.assertEquals(1, max(abs(repaired[i].x - repaired[i - 1].x), abs(repaired[i].y - repaired[i - 1].y)))
+        }
+        val fresh = cost(tiles(findPath(AStarNavigator, tiles[tiles.size / 3])))
+        Assertions.assertEquals(fresh, cost(repaired), fresh * 0.002)
+    }
+
+    @Test
+    fun testMovingEnd() {
+        DStarLiteNavigator.blockedChanged()
+        val tiles = tiles(findPath(DStarLiteNavigator))
+        val full = DStarLiteNavigator.expanded
+        val searches = DStarLiteNavigator.fullSearches
+
+        // Follow an end that walks towards the start while the start walks towards it, without searching again
+        for (step in 1..20) {
+            val from = tiles[step]
+            val to = tiles[tiles.size - 1 - step]
+            val followed = tiles(findPath(DStarLiteNavigator, from, to), to)
+            Assertions.assertEquals(searches, DStarLiteNavigator.fullSearches)
+            Assertions.assertTrue(DStarLiteNavigator.expanded < full)
+            Assertions.assertEquals(from, followed.first())
+            for (i in 1 until followed.size) {
+                Assertions.assertFalse(blocked(followed[i].x, followed[i].y))
+                Assertions.assertEquals(1, max(abs(followed[i].x - followed[i - 1].x), abs(followed[i].y - followed[i - 1].y)))
+            }
+            val fresh = cost(tiles(findPath(AStarNavigator, from, to), to))
+            Assertions.assertEquals(fresh, cost(followed), fresh * 0.002)
+        }
+
+        // And back out to where it started
+        val followed = tiles(findPath(DStarLiteNavigator, tiles[20]))
+        Assertions.assertEquals(searches, DStarLiteNavigator.fullSearches)
+        val fresh = cost(tiles(findPath(AStarNavigator, tiles[20])))
+        Assertions.assertEquals(fresh, cost(followed), fresh * 0.002)
+    }
+
+    @Test
+    fun testNoPath() {
+        for (navigator in listOf(AStarNavigator, HierarchicalNavigator, DStarLiteNavigator)) {
+            navigator.blockedChanged()
+            val path = navigator.findPath(
+                Vec2(0f, 0f), Vec2(10f * tilesize, 10f * tilesize), ObstacleField(),
+                SIZE * tilesize.toFloat(), SIZE * tilesize.toFloat()
+            ) { x, y -> x == 5 }
+            Assertions.assertEquals(0, path.size)
+            navigator.blockedChanged()
+        }
+    }
+
+    @Test
+    fun testObstacleField() {
+        val turret = TurretPathfindingEntity(40f, true).apply { canHitPlayer = true; canShoot = true }
+        val field = ObstacleField()
+        field.resize(SIZE, SIZE)
+
+        // Moving an obstacle around must leave the field as if it had been rasterized where it ended up
+        for (i in 0 until 100) {
+            turret.x = i * 3f
+            turret.y = i * 2f
+            field.update(listOf(turret), emptyArray(), 4f)
+        }
+        val fresh = ObstacleField()
+        fresh.resize(SIZE, SIZE)
+        fresh.update(listOf(turret), emptyArray(), 4f)
+        for (x in 0 until 60) for (y in 0 until 60) Assertions.assertEquals(fresh.count(x, y), field.count(x, y))
+        Assertions.assertTrue(field.count(World.toTile(turret.x), World.toTile(turret.y)) == 1)
+
+        turret.canShoot = false
+        field.update(listOf(turret), emptyArray(), 4f)
+        for (x in 0 until 60) for (y in 0 until 60) Assertions.assertEquals(0, field.count(x, y))
+    }
+
+    @Test
+    @Tag("benchmark")
+    fun benchmarkPath() {
+        repeat(RUNS) { findPath() }  // Warm up
+
+        val start = System.nanoTime()
+        repeat(RUNS) { findPath() }
+        val millis = (System.nanoTime() - start) / RUNS / 1_000_000.0
+
+        Log.info("A* across a ${SIZE}x$SIZE map: ${"%.2f".format(millis)}ms/path, ${AStarNavigator.expanded} nodes expanded")
+    }
+
+    @Test
+    @Tag("benchmark")
+    fun benchmarkHierarchicalPath() {
+        repeat(RUNS) { findPath(HierarchicalNavigator) }  // Warm up, the first search also builds the clusters
+
+        val start = System.nanoTime()
+        repeat(RUNS) { findPath(HierarchicalNavigator) }
+        val millis = (System.nanoTime() - start) / RUNS / 1_000_000.0
+
+        Log.info("HPA* across a ${SIZE}x$SIZE map: ${"%.2f".format(millis)}ms/path, ${HierarchicalNavigator.expanded} nodes expanded")
+    }
+
+    @Test
+    @Tag("benchmark")
+    fun benchmarkRepairedPath() {
+        DStarLiteNavigator.blockedChanged()
+        val tiles = tiles(findPath(DStarLiteNavigator))
+        val full = DStarLiteNavigator.expanded
+
+        // Follow the path, repairing the search at every step
+        val start = System.nanoTime()
+        var expanded = 0L
+        for (i in 1 until tiles.size - 1) {
+            findPath(DStarLiteNavigator, tiles[i])
+            expanded += DStarLiteNavigator.expanded
+        }
+        val micros = (System.nanoTime() - start) / (tiles.size - 2) / 1000.0
+
+        Log.info("D* Lite along a ${tiles.size} tile path: full search expanded $full nodes, repairs ${"%.1f".format(micros)}us and ${expanded / (tiles.size - 2)} nodes each")
+    }
+}
@@ -1,7 +1,9 @@
 package client
 
+import arc.util.Log
 import mindustry.client.communication.*
 import mindustry.client.communication.DummyCommunicationSystem
+import mindustry.client.crypto.*
 import org.junit.jupiter.api.*
 import kotlin.random.Random
 
@@ -48,4 +50,183 @@ class PacketTests {
         Assertions.assertArrayEquals(transmission2.content, output2)
         Assertions.assertArrayEquals(transmission3.content, output3)
     }
+
+    @Test
+    fun testReassembly() {
+        val content = Random.nextBytes(4096)
+        val packets = packetsOf(DummyTransmission(content))
+        Assertions.assertTrue(packets.size > 2)
+
+        // Last segment first, the rest shuffled and some of them twice
+        val shuffled = packets.dropLast(1).shuffled(Random(0))
+        val delivery = listOf(packets.last()) + shuffled + shuffled.take(shuffled.size / 2) + packets.last()
+
+        val received = mutableListOf<ByteArray>()
+        val system = CapturingCommunicationSystem()
+        val client = Packets.CommunicationClient(system)
+        client.addListener { t, _ -> if (t is DummyTransmission) received.add(t.content) }
+        for (packet in delivery) system.deliver(packet)
+
+        Assertions.assertEquals(1, received.size)
+        Assertions.assertArrayEquals(content, received[0])
+    }
+
+    @Test
+    @Tag("benchmark")
+    fun benchmarkReassembly() {
+        // Random bytes don't compress, so this is close to the 500 segment limit
+        val packets = packetsOf(DummyTransmission(Random.nextBytes(16_000)))
+        var received = 0
+        fun reassemble() {
+            val system = CapturingCommunicationSystem()
+            Packets.CommunicationClient(system).addListener { _, _ -> received++ }
+            for (packet in packets) system.deliver(packet)
+        }
+
+        repeat(RUNS) { reassemble() }  // Warm up
+
+        val start = System.nanoTime()
+        repeat(RUNS) { reassemble() }
+        val micros = (System.nanoTime() - start) / RUNS / 1000.0
+
+        // What collecting the segments and joining them used to cost, not counting inflating
+        val naiveStart = System.nanoTime()
+        repeat(RUNS) { packets.map { it.copyOfRange(HEADER_SIZE, it.size) }.reduceRight { a, b -> a + b } }
+        val naiveMicros = (System.nanoTime() - naiveStart) / RUNS / 1000.0
+
+        Assertions.assertEquals(RUNS * 2, received)
+        Log.info("Reassembly of ${packets.size} segments: ${"%.1f".format(micros)}us including inflating, concatenating them took ${"%.1f".format(naiveMicros)}us")
+    }
+
+    @Test
+    fun testScheduling() {
+        val system = CapturingCommunicationSystem(256)
+        val client = Packets.CommunicationClient(system)
+        val receiver = CapturingCommunicationSystem(256)
+        val received = mutableListOf<Long>()
+        val receiverClient = Packets.CommunicationClient(receiver)
+        receiverClient.addListener { t, _ -> received.add(t.id) }
+
+        // Two large transmissions queued before two small ones, one of which has a higher priority
+        val large1 = DummyTransmission(Random.nextBytes(512))
+        val large2 = DummyTransmission(Random.nextBytes(512))
+        val small = DummyTransmission(ByteArray(1))
+        val urgent = EncryptedMessageTransmission(ByteArray(8))
+        val finished = mutableListOf<Long>()
+        for (transmission in listOf(large1, large2, small, urgent)) client.send(transmission, { finished.add(transmission.id) })
+        Assertions.assertEquals(4, client.queuedTransmissions)
+
+        // The receiver answers with its capabilities, after which packets can be batched
+        while (client.queuedTransmissions > 0) {
+            val count = system.sent.size
+            client.update()
+            for (i in count until system.sent.size) receiver.deliver(system.sent[i])
+            val answered = receiver.sent.size
+            receiverClient.update()
+            for (i in answered until receiver.sent.size) system.deliver(receiver.sent[i])
+        }
+
+        // The urgent one goes first and the small one shares its write instead of waiting for the large ones to finish
+        Assertions.assertEquals(urgent.id, finished.first())
+        Assertions.assertTrue(finished.indexOf(small.id) < finished.indexOf(large1.id))
+        Assertions.assertTrue(client.writes < client.packetsSent)
+        Assertions.assertEquals(0, client.queuedPackets)
+        Assertions.assertEquals(setOf(large1.id, large2.id, small.id, urgent.id), received.toSet())
+    }
+
+    @Test
+    fun testLegacyPeers() {
+        val system = CapturingCommunicationSystem(256)
+        val client = Packets.CommunicationClient(system)
+        // A client that doesn't send its capabilities, like ones from before they existed
+        val legacy = packetsOf(DummyTransmission(ByteArray(1))).last()
+        system.deliver(legacy)
+
+        repeat(4) { client.send(DummyTransmission(ByteArray(1))) }
+        while (client.queuedTransmissions > 0) client.update()
+
+        Assertions.assertEquals(0, client.peerCapabilities)
+        Assertions.assertEquals(client.packetsSent, client.writes)  // Nothing is batched
+        for (bytes in system.sent) Assertions.assertNotEquals(-1, java.nio.ByteBuffer.wrap(bytes).getInt(0))
+    }
+
+    @Test
+    fun testRetransmission() {
+        // Both directions lose and reorder packets, acknowledgements included
+        val pool = mutableListOf<DummyCommunicationSystem>()
+        val random = java.util.Random(0)
+        val sender = Packets.CommunicationClient(DummyCommunicationSystem(pool, 0.1f, 0.2f, random))
+        val receiver = Packets.CommunicationClient(DummyCommunicationSystem(pool, 0.1f, 0.2f, random))
+        sender.ackDelay = 20
+        receiver.ackDelay = 20
+
+        // Transmissions are only flagged as reliable once the receiver said it reads the flag
+        val deadline = System.currentTimeMillis() + 10_000
+        while (sender.peerCapabilities and Packets.RELIABLE == 0 && System.currentTimeMillis() < deadline) {
+            sender.update()
+            receiver.update()
+        }
+        Assertions.assertNotEquals(0, sender.peerCapabilities and Packets.RELIABLE)
+
+        val transmission = DummyTransmission(Random.nextBytes(2048))
+        var output: ByteArray? = null
+        receiver.addListener { t, _ -> if (t is DummyTransmission) output = t.content }
+        sender.send(transmission, reliable = true)
+
+        while (output == null && System.currentTimeMillis() < deadline) {
+            sender.update()
+            receiver.update()
+            Thread.sleep(5)
+        }
+
+        Assertions.assertArrayEquals(transmission.content, output)
+        Assertions.assertTrue(sender.retransmissions > 0)
+        Assertions.assertTrue(sender.retransmissions < sender.packetsSent / 2)  // Only the missing segments are sent again
+    }
+
+    @Test
+    fun testReliableLegacyPeers() {
+        val system = CapturingCommunicationSystem(256)
+        val client = Packets.CommunicationClient(system)
+        system.deliver(packetsOf(DummyTransmission(ByteArray(1))).last())
+
+        // A client without capabilities would read the reliable flag as part of the type, so it isn't set
+        client.send(DummyTransmission(Random.nextBytes(1024)), reliable = true)
+        while (client.queuedTransmissions > 0) client.update()
+        for (bytes in system.sent) Assertions.assertEquals(0, java.nio.ByteBuffer.wrap(bytes).getInt(HEADER_SIZE - Int.SIZE_BYTES) and (1 shl 30))
+    }
+
+    /** Sends [transmission] and returns its packets in order. */
+    private fun packetsOf(transmission: Transmission): List<ByteArray> {
+        val system = CapturingCommunicationSystem()
+        val client = Packets.CommunicationClient(system)
+        client.send(transmission)
+        while (true) {
+            val count = system.sent.size
+            client.update()
+            if (system.sent.size == count) break
+        }
+        return system.sent
+    }
+
+    /** Records what is sent and lets tests deliver packets by hand, in any order. */
+    private class CapturingCommunicationSystem(override val MAX_LENGTH: Int = 64) : CommunicationSystem() {
+        override val listeners: MutableList<(ByteArray, Int) -> Unit> = mutableListOf()
+        override val id = 0
+        override val RATE = 0f
+        val sent = mutableListOf<ByteArray>()
+
+        override fun send(bytes: ByteArray) {
+            sent.add(bytes)
+        }
+
+        fun deliver(bytes: ByteArray) {
+            listeners.forEach { it(bytes, 1) }
+        }
+    }
+
+    companion object {
+        private const val RUNS = 200
+        private const val HEADER_SIZE = 28
+    }
 }
@@ -0,0 +1,139 @@
+package client
+
+import arc.*
+import arc.mock.*
+import arc.math.geom.*
+import arc.util.Log
+import mindustry.*
+import mindustry.client.antigrief.*
+import mindustry.content.*
+import mindustry.core.*
+import mindustry.ctype.*
+import mindustry.game.*
+import mindustry.world.*
+import org.junit.jupiter.api.*
+import power.*
+import java.time.*
+
+class TileRecordTests {
+    companion object {
+        private const val ENTRIES = 10_000
+        private const val SIDE = 200
+
+        @BeforeAll
+        @JvmStatic
+        fun initializeContent() {
+            Vars.headless = true
+            Core.graphics = FakeGraphics()
+            Core.files = MockFiles()
+            if (Vars.content == null) {
+                Vars.content = object : ContentLoader() {
+                    override fun handleMappableContent(content: MappableContent) {}
+                }
+                Vars.content.createBaseContent()
+            }
+        }
+
+        /** A record alternating between building copper walls, configuring them and breaking them. */
+        private fun syntheticRecord(): TileRecord {
+            val tile = Tile(0, 0)
+            val record = TileRecord(0, 0, TileLogStore())
+            for (i in 0 until ENTRIES) {
+                record.add(when (i % 3) {
+                    0 -> TilePlacedLog(tile, NoInteractor(), Blocks.copperWall, null)
+                    1 -> TileBreakLog(tile, NoInteractor(), Blocks.copperWall)
+                    else -> TilePlacedLog(tile, NoInteractor(), Blocks.titaniumWall, i)
+                }, tile)
+            }
+            return record
+        }
+    }
+
+    @Test
+    fun testReconstruction() {
+        val record = syntheticRecord()
+        Assertions.assertEquals(ENTRIES, record.size)
+
+        // Random access, then scrubbing backwards, then forwards, must all agree with the generated pattern
+        val order = (0 until ENTRIES).shuffled() + (ENTRIES - 1 downTo 0) + (0 until ENTRIES)
+        for (i in order) {
+            val state = record[i]
+            when (i % 3) {
+                0 -> Assertions.assertEquals(Blocks.copperWall, state.block)
+                1 -> Assertions.assertEquals(Blocks.air, state.block)
+                else -> {
+                    Assertions.assertEquals(Blocks.titaniumWall, state.block)
+                    Assertions.assertEquals(i, state.configuration)
+                }
+            }
+        }
+
+        Assertions.assertEquals(7, record.lastLogs(7).size)
+        Assertions.assertEquals(Blocks.titaniumWall, (record.lastLogs(1).single() as TilePlacedLog).block)
+    }
+
+    @Test
+    @Tag("benchmark")
+    fun benchmarkReconstruction() {
+        val record = syntheticRecord()
+        val random = (0 until ENTRIES).shuffled()
+
+        // Warm up
+        for (i in random) record[i]
+
+        var start = System.nanoTime()
+        for (i in random) record[i]
+        val randomNanos = (System.nanoTime() - start) / ENTRIES
+
+        start = System.nanoTime()
+        for (i in 0 until ENTRIES) record[i]
+        val scrubNanos = (System.nanoTime() - start) / ENTRIES
+
+        Log.info("TileRecord reconstruction over $ENTRIES entries: random access ${randomNanos}ns/op, scrubbing ${scrubNanos}ns/op")
+    }
+
+    @Test
+    fun testRollbackPlan() {
+        val plan = RollbackPlanner.plan(rollbackCaptures())
+        Assertions.assertEquals(SIDE * SIDE, plan.builds.size)
+        Assertions.assertEquals(0, plan.breaks.size)
+        Assertions.assertTrue(plan.builds.all { it.block == Blocks.copperWall })
+
+        // Array configs are compared by content, equal links aren't configured again
+        val links = arrayOf(Point2(1, 0), Point2(0, 2))
+        fun node(live: Any?) = RollbackPlanner.Capture(
+            0, TileState(0, 0, Blocks.powerNode, 0, arrayOf(Point2(1, 0), Point2(0, 2)), Team.sharded, Instant.now()),
+            ByteArray(0), ShortArray(0), arrayOf(), RollbackPlanner.NONE, RollbackPlanner.NONE, Blocks.powerNode, 0, live, true
+        )
+        Assertions.assertEquals(0, RollbackPlanner.plan(listOf(node(links))).configs.size)
+        Assertions.assertEquals(1, RollbackPlanner.plan(listOf(node(arrayOf(Point2(1, 0))))).configs.size)
+    }
+
+    @Test
+    @Tag("benchmark")
+    fun benchmarkRollbackPlan() {
+        val captures = rollbackCaptures()
+        repeat(5) { RollbackPlanner.plan(captures) }  // Warm up
+
+        val start = System.nanoTime()
+        RollbackPlanner.plan(captures)
+        Assertions.assertTrue(System.nanoTime() - start < 1_000_000_000L, "A $SIDE by $SIDE rollback should be planned in well under a second")
+    }
+
+    /** Every tile of a [SIDE] by [SIDE] area had a copper wall that was broken, captured from between the two. */
+    private fun rollbackCaptures(): List<RollbackPlanner.Capture> {
+        val store = TileLogStore()
+        val captures = mutableListOf<RollbackPlanner.Capture>()
+        for (x in 0 until SIDE) {
+            for (y in 0 until SIDE) {
+                val tile = Tile(x, y)
+                val record = TileRecord(x, y, store)
+                val area = IntRectangle(x, y, 1, 1)
+                record.add(TilePlacedLog(area, NoInteractor(), Blocks.copperWall, null, Instant.ofEpochMilli(1000)), tile)
+                record.add(TileBreakLog(area, NoInteractor(), Blocks.copperWall, Instant.ofEpochMilli(3000)), tile)
+                captures.add(RollbackPlanner.capture(record, tile, 2000)!!)
+            }
+        }
+        return captures
+    }
+}